@@ -0,0 +1,659 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.spiderland.Psh.*;
+
+/**
+ * PshBenchmark [outputfile [filter]]
+ *
+ * PshBenchmark times the interpreter, the stacks and the GA operators, and
+ * writes the results to outputfile (benchmark.json by default) as JSON, so
+ * that the results of two builds can be compared. If a filter is given, only
+ * benchmarks whose names contain it are run. PshBenchmark should be run from
+ * the Psh directory, since it reads the programs in pushsamples and the
+ * gpsamples/floatreg1.pushgp parameter file.
+ *
+ * Each benchmark is run for a number of warmup rounds, whose times are thrown
+ * away, followed by the measured rounds. The score is the mean time per
+ * operation over the measured rounds, and the score error is the standard
+ * deviation of the rounds. Where the JVM can measure it, the memory allocated
+ * per operation is reported in the same way as a secondary metric, as is the
+ * size of the output of benchmarks which write files.
+ */
+public class PshBenchmark {
+	static final int WARMUP_ROUNDS = 3;
+	static final int MEASURED_ROUNDS = 5;
+	static final long ROUND_NANOS = 200000000L;
+
+	static final int SIZES[] = { 50, 500, 5000 };
+	static final int STACK_OPERATIONS = 64;
+
+	// Results are folded into this so that the work being timed can't be
+	// optimized away.
+	static long _sink;
+
+	// Used to measure the memory allocated by the benchmark thread.
+	static final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+
+	// Used to discard the GA's reports.
+	static final PrintStream _discard = new PrintStream(new OutputStream() {
+		public void write(int inByte) {
+		}
+
+		public void write(byte inBytes[], int inOffset, int inLength) {
+		}
+	});
+
+	/**
+	 * A single benchmark. Run is the operation being timed. Setup is called
+	 * before each round, or before each operation if _setupEachRun is set, and
+	 * is not timed. A benchmark which writes a file sets _outputSize to the
+	 * size of the file in bytes.
+	 */
+	static abstract class Benchmark {
+		String _name;
+		String _params[];
+		boolean _setupEachRun;
+		long _outputSize = -1;
+
+		Benchmark(String inName, String... inParams) {
+			_name = inName;
+			_params = inParams;
+		}
+
+		void Setup() throws Exception {
+		}
+
+		abstract void Run() throws Exception;
+	}
+
+	public static void main(String args[]) throws Exception {
+		String outputFile = args.length > 0 ? args[0] : "benchmark.json";
+		String filter = args.length > 1 ? args[1] : "";
+
+		if (args.length > 2) {
+			System.out.println("Usage: PshBenchmark [outputfile [filter]]");
+			System.exit(0);
+		}
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		AddExecuteBenchmarks(benchmarks);
+		AddStackBenchmarks(benchmarks);
+		AddProgramBenchmarks(benchmarks);
+		AddGenerationBenchmark(benchmarks);
+		AddCheckpointBenchmarks(benchmarks);
+
+		StringBuilder json = new StringBuilder("[\n");
+		int count = 0;
+
+		for (Benchmark b : benchmarks) {
+			if (!b._name.contains(filter))
+				continue;
+
+			for (int n = 0; n < WARMUP_ROUNDS; n++)
+				RunRound(b);
+
+			double rounds[] = new double[MEASURED_ROUNDS];
+			double allocations[] = new double[MEASURED_ROUNDS];
+
+			for (int n = 0; n < MEASURED_ROUNDS; n++) {
+				double result[] = RunRound(b);
+
+				rounds[n] = result[0];
+				allocations[n] = result[1];
+			}
+
+			String params = ParamString(b, false);
+			String line = b._name + (params.equals("") ? "" : " " + params)
+					+ ": " + String.format("%.1f", Mean(rounds)) + " ns/op";
+
+			if (AllocationSupported())
+				line += ", " + String.format("%.0f", Mean(allocations))
+						+ " B/op";
+			if (b._outputSize >= 0)
+				line += ", " + b._outputSize + " B output";
+
+			System.out.println(line);
+
+			if (count++ > 0)
+				json.append(",\n");
+
+			json.append("  {\n");
+			json.append("    \"benchmark\" : \"" + b._name + "\",\n");
+			json.append("    \"mode\" : \"avgt\",\n");
+			json.append("    \"params\" : { " + ParamString(b, true) + " },\n");
+			json.append("    \"primaryMetric\" : " + MetricString(rounds, "ns/op", "    "));
+
+			if (AllocationSupported() || b._outputSize >= 0) {
+				String metrics = "";
+
+				if (AllocationSupported())
+					metrics += "      \"\u00b7gc.alloc.rate.norm\" : "
+							+ MetricString(allocations, "B/op", "      ");
+
+				if (b._outputSize >= 0) {
+					if (!metrics.equals(""))
+						metrics += ",\n";
+
+					metrics += "      \"output.size\" : "
+							+ MetricString(new double[] { b._outputSize }, "B",
+									"      ");
+				}
+
+				json.append(",\n");
+				json.append("    \"secondaryMetrics\" : {\n");
+				json.append(metrics);
+				json.append("\n    }");
+			}
+
+			json.append("\n  }");
+		}
+
+		json.append("\n]\n");
+
+		FileOutputStream out = new FileOutputStream(outputFile);
+		out.write(json.toString().getBytes("UTF-8"));
+		out.close();
+
+		System.out.println("Wrote " + count + " results to " + outputFile
+				+ " (" + _sink + ")");
+	}
+
+	/**
+	 * Runs a benchmark for one round.
+	 *
+	 * @return The mean time per operation, in nanoseconds, and the mean
+	 *         memory allocated per operation, in bytes.
+	 */
+
+	static double[] RunRound(Benchmark inBenchmark) throws Exception {
+		long elapsed = 0;
+		long allocated = 0;
+		long operations = 0;
+
+		if (inBenchmark._setupEachRun) {
+			while (elapsed < ROUND_NANOS || operations == 0) {
+				inBenchmark.Setup();
+
+				long bytes = AllocatedBytes();
+				long start = System.nanoTime();
+				inBenchmark.Run();
+				elapsed += System.nanoTime() - start;
+				allocated += AllocatedBytes() - bytes;
+				operations++;
+			}
+		} else {
+			inBenchmark.Setup();
+
+			long bytes = AllocatedBytes();
+			long start = System.nanoTime();
+
+			// Check the clock every batch of operations, doubling the batch
+			// size so that the clock isn't read too often for fast operations.
+
+			for (long batch = 1; elapsed < ROUND_NANOS; batch *= 2) {
+				for (long n = 0; n < batch; n++)
+					inBenchmark.Run();
+
+				operations += batch;
+				elapsed = System.nanoTime() - start;
+			}
+
+			allocated = AllocatedBytes() - bytes;
+		}
+
+		return new double[] { (double) elapsed / operations,
+				(double) allocated / operations };
+	}
+
+	/**
+	 * Returns whether the JVM can measure the memory allocated by a thread.
+	 */
+
+	static boolean AllocationSupported() {
+		return _threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) _threads)
+						.isThreadAllocatedMemorySupported();
+	}
+
+	/**
+	 * Returns the total memory allocated by the current thread, in bytes, or
+	 * 0 if it can't be measured.
+	 */
+
+	static long AllocatedBytes() {
+		if (!AllocationSupported())
+			return 0;
+
+		return ((com.sun.management.ThreadMXBean) _threads)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static double Mean(double inValues[]) {
+		double mean = 0;
+
+		for (double v : inValues)
+			mean += v / inValues.length;
+
+		return mean;
+	}
+
+	/**
+	 * Returns a JSON metric object for a set of measured rounds, with each
+	 * line indented by inIndent. The score error is the standard deviation of
+	 * the rounds.
+	 */
+
+	static String MetricString(double inRounds[], String inUnit,
+			String inIndent) {
+		double mean = Mean(inRounds), deviation = 0;
+
+		for (double r : inRounds)
+			deviation += (r - mean) * (r - mean) / inRounds.length;
+		deviation = Math.sqrt(deviation);
+
+		String result = "{\n";
+		result += inIndent + "  \"score\" : " + mean + ",\n";
+		result += inIndent + "  \"scoreError\" : " + deviation + ",\n";
+		result += inIndent + "  \"scoreUnit\" : \"" + inUnit + "\",\n";
+		result += inIndent + "  \"rawData\" : [ " + Arrays.toString(inRounds)
+				+ " ]\n";
+		result += inIndent + "}";
+
+		return result;
+	}
+
+	/**
+	 * Returns a benchmark's parameters, either as the contents of a JSON
+	 * object or as name=value pairs.
+	 */
+
+	static String ParamString(Benchmark inBenchmark, boolean inJSON) {
+		String result = "";
+
+		for (int n = 0; n + 1 < inBenchmark._params.length; n += 2) {
+			String name = inBenchmark._params[n];
+			String value = inBenchmark._params[n + 1];
+
+			if (n > 0)
+				result += inJSON ? ", " : " ";
+
+			if (inJSON)
+				result += "\"" + name + "\" : \"" + value + "\"";
+			else
+				result += name + "=" + value;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds benchmarks which execute each of the programs in pushsamples, both
+	 * directly and compiled.
+	 */
+
+	static void AddExecuteBenchmarks(ArrayList<Benchmark> ioBenchmarks)
+			throws Exception {
+		File files[] = new File("pushsamples").listFiles();
+
+		if (files == null)
+			return;
+
+		Arrays.sort(files);
+
+		for (File file : files) {
+			if (!file.getName().endsWith(".push"))
+				continue;
+
+			final InspectorInput input = new InspectorInput(file);
+			final Interpreter interpreter = input.getInterpreter();
+			final Program program = input.getProgram();
+			final CompiledProgram compiled = new CompiledProgram(program,
+					interpreter);
+			final int limit = input.getExecutionLimit();
+
+			// The inputs are pushed when the file is read, so save them to be
+			// pushed again before each run.
+
+			final int ints[] = new int[interpreter.intStack().size()];
+			final float floats[] = new float[interpreter.floatStack().size()];
+			final boolean bools[] = new boolean[interpreter.boolStack().size()];
+			final Object inputs[] = new Object[interpreter.inputStack().size()];
+
+			for (int n = 0; n < ints.length; n++)
+				ints[n] = interpreter.intStack().peek(n);
+			for (int n = 0; n < floats.length; n++)
+				floats[n] = interpreter.floatStack().peek(n);
+			for (int n = 0; n < bools.length; n++)
+				bools[n] = interpreter.boolStack().peek(n);
+			for (int n = 0; n < inputs.length; n++)
+				inputs[n] = interpreter.inputStack().peek(n);
+
+			for (final boolean useCompiled : new boolean[] { false, true }) {
+				ioBenchmarks.add(new Benchmark("Interpreter.Execute",
+						"program", file.getName(), "compiled", "" + useCompiled) {
+					void Run() {
+						interpreter.ClearStacks();
+
+						for (int i : ints)
+							interpreter.intStack().push(i);
+						for (float f : floats)
+							interpreter.floatStack().push(f);
+						for (boolean b : bools)
+							interpreter.boolStack().push(b);
+						for (Object o : inputs)
+							interpreter.inputStack().push(o);
+
+						if (useCompiled)
+							_sink += interpreter.Execute(compiled, limit);
+						else
+							_sink += interpreter.Execute(program, limit);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Adds benchmarks of the basic stack operations. Each operation is a
+	 * series of STACK_OPERATIONS pushes and pops, or yanks and shoves.
+	 */
+
+	static void AddStackBenchmarks(ArrayList<Benchmark> ioBenchmarks) {
+		final intStack ints = new intStack();
+		final floatStack floats = new floatStack();
+		final ObjectStack objects = new ObjectStack();
+		final Object values[] = new Object[STACK_OPERATIONS];
+
+		for (int n = 0; n < STACK_OPERATIONS; n++)
+			values[n] = "value" + n;
+
+		ioBenchmarks.add(new Benchmark("intStack.pushpop") {
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					ints.push(n);
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					_sink += ints.pop();
+			}
+		});
+
+		ioBenchmarks.add(new Benchmark("intStack.yankshove") {
+			void Setup() {
+				ints.clear();
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					ints.push(n);
+			}
+
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++) {
+					ints.yank(n);
+					ints.shove(STACK_OPERATIONS - n);
+				}
+				_sink += ints.top();
+			}
+		});
+
+		ioBenchmarks.add(new Benchmark("floatStack.pushpop") {
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					floats.push(n);
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					_sink += (long) floats.pop();
+			}
+		});
+
+		ioBenchmarks.add(new Benchmark("floatStack.yankshove") {
+			void Setup() {
+				floats.clear();
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					floats.push(n);
+			}
+
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++) {
+					floats.yank(n);
+					floats.shove(STACK_OPERATIONS - n);
+				}
+				_sink += (long) floats.top();
+			}
+		});
+
+		ioBenchmarks.add(new Benchmark("ObjectStack.pushpop") {
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					objects.push(values[n]);
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					_sink += objects.pop().hashCode();
+			}
+		});
+
+		ioBenchmarks.add(new Benchmark("ObjectStack.yankshove") {
+			void Setup() {
+				objects.clear();
+				for (int n = 0; n < STACK_OPERATIONS; n++)
+					objects.push(values[n]);
+			}
+
+			void Run() {
+				for (int n = 0; n < STACK_OPERATIONS; n++) {
+					objects.yank(n);
+					objects.shove(STACK_OPERATIONS - n);
+				}
+				_sink += objects.top().hashCode();
+			}
+		});
+	}
+
+	/**
+	 * Adds benchmarks of parsing, generating and indexing programs of each of
+	 * the sizes in SIZES.
+	 */
+
+	static void AddProgramBenchmarks(ArrayList<Benchmark> ioBenchmarks)
+			throws Exception {
+		final Interpreter interpreter = new Interpreter();
+		interpreter.SetInstructions(new Program(interpreter,
+				"( registered.integer registered.float registered.boolean "
+						+ "registered.code registered.exec )"));
+
+		for (final int size : SIZES) {
+			interpreter.SetRandomParameters(-10, 10, 1, -10.0f, 10.0f, 0.01f,
+					size, size);
+
+			final Program program = interpreter.RandomCode(size);
+			final String source = program.toString();
+			final int points = program.programsize();
+			final Random random = new Random(size);
+
+			ioBenchmarks.add(new Benchmark("Program.Parse", "size", "" + size) {
+				void Run() throws Exception {
+					_sink += new Program(interpreter, source).programsize();
+				}
+			});
+
+			ioBenchmarks.add(new Benchmark("Interpreter.RandomCode", "size",
+					"" + size) {
+				void Run() {
+					interpreter.SetRandomParameters(-10, 10, 1, -10.0f, 10.0f,
+							0.01f, size, size);
+					_sink += interpreter.RandomCode(size).size();
+				}
+			});
+
+			ioBenchmarks.add(new Benchmark("Program.Subtree", "size", "" + size) {
+				void Run() {
+					// Identity, so the subtree itself isn't walked to hash it.
+					_sink += System.identityHashCode(program.Subtree(random
+							.nextInt(points)));
+				}
+			});
+
+			ioBenchmarks.add(new Benchmark("Program.SubtreeSize", "size", ""
+					+ size) {
+				void Run() {
+					_sink += program.SubtreeSize(random.nextInt(points));
+				}
+			});
+
+			ioBenchmarks.add(new Benchmark("Program.ReplaceSubtree", "size",
+					"" + size) {
+				void Run() {
+					// Replace a point in a copy, as mutation does.
+					Program copy = new Program(program);
+					copy.ReplaceSubtree(random.nextInt(points), 1);
+					_sink += copy.size();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds a benchmark of one generation of the floatreg1 sample problem. Each
+	 * run starts from a new random population which has already been run for
+	 * two generations, so that both population slots are in use as they are
+	 * for the rest of a run.
+	 */
+
+	static void AddGenerationBenchmark(ArrayList<Benchmark> ioBenchmarks)
+			throws Exception {
+		final File file = new File("gpsamples/floatreg1.pushgp");
+
+		if (!file.exists())
+			return;
+
+		final HashMap<String, String> params = Params.ReadFromFile(file);
+
+		ioBenchmarks.add(new Benchmark("GA.Run", "problem", file.getName(),
+				"generations", "1") {
+			GA _ga;
+
+			{
+				_setupEachRun = true;
+			}
+
+			void Setup() throws Exception {
+				// The GA reports to System.out, so swap it out while the GA
+				// is created.
+
+				PrintStream out = System.out;
+				System.setOut(_discard);
+
+				try {
+					_ga = GA.GAWithParameters(params);
+				} finally {
+					System.setOut(out);
+				}
+
+				_ga.Run(2);
+			}
+
+			void Run() throws Exception {
+				_ga.Run(1);
+				_sink += _ga.GetGenerationCount();
+			}
+		});
+	}
+
+	/**
+	 * Adds benchmarks of saving and loading a gzipped checkpoint of the
+	 * floatreg1 sample problem after two generations, in the binary checkpoint
+	 * format and as a serialized GA, which is the older checkpoint format.
+	 */
+
+	static void AddCheckpointBenchmarks(ArrayList<Benchmark> ioBenchmarks)
+			throws Exception {
+		final File file = new File("gpsamples/floatreg1.pushgp");
+
+		if (!file.exists())
+			return;
+
+		final HashMap<String, String> params = Params.ReadFromFile(file);
+
+		for (final boolean binary : new boolean[] { false, true }) {
+			final String format = binary ? "binary" : "serialized";
+			final GA ga[] = new GA[1];
+			final byte saved[][] = new byte[1][];
+
+			final Benchmark save = new Benchmark("GA.SaveCheckpoint", "problem",
+					file.getName(), "format", format) {
+				void Setup() throws Exception {
+					if (ga[0] != null)
+						return;
+
+					PrintStream out = System.out;
+					System.setOut(_discard);
+
+					try {
+						ga[0] = GA.GAWithParameters(params);
+						ga[0].Run(2);
+					} finally {
+						System.setOut(out);
+					}
+				}
+
+				void Run() throws Exception {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					GZIPOutputStream out = new GZIPOutputStream(bytes);
+
+					if (binary) {
+						BinaryCheckpoint.Write(ga[0], out);
+					} else {
+						ObjectOutputStream objects = new ObjectOutputStream(out);
+						objects.writeObject(ga[0]);
+						objects.flush();
+					}
+
+					out.close();
+
+					saved[0] = bytes.toByteArray();
+					_outputSize = saved[0].length;
+				}
+			};
+
+			ioBenchmarks.add(save);
+
+			ioBenchmarks.add(new Benchmark("GA.LoadCheckpoint", "problem", file
+					.getName(), "format", format) {
+				void Setup() throws Exception {
+					if (saved[0] == null) {
+						save.Setup();
+						save.Run();
+					}
+				}
+
+				void Run() throws Exception {
+					InputStream in = new BufferedInputStream(new GZIPInputStream(
+							new ByteArrayInputStream(saved[0])));
+					GA loaded;
+
+					if (binary) {
+						loaded = BinaryCheckpoint.Read(in);
+					} else {
+						loaded = (GA) new ObjectInputStream(in).readObject();
+					}
+
+					_sink += loaded.GetGenerationCount();
+				}
+			});
+		}
+	}
+}
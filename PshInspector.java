@@ -70,6 +70,8 @@ public class PshInspector {
 			
 			if (execTop instanceof Program)
 				stepPrint += "(...)";
+			else if (execTop instanceof Instruction)
+				stepPrint += _interpreter.GetInstructionName((Instruction) execTop);
 			else
 				stepPrint += execTop;
 			
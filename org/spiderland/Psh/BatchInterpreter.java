@@ -0,0 +1,1068 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs a compiled Push program for a batch of inputs at once, such as all of
+ * the test cases of a problem. Each input is run in its own lane.
+ *
+ * The integer, float, boolean and input stacks hold one row per stack
+ * position, and each row holds one value per lane. The data stack instructions
+ * change the sizes of the stacks in the same way whatever values they are
+ * given, so every lane has the same stack sizes and each instruction is run
+ * once for all lanes, using the interpreter's own instruction to compute each
+ * value.
+ *
+ * When the program reaches an instruction which cannot be run this way, such
+ * as one which uses the exec or code stacks, each lane in turn is loaded into
+ * the interpreter, which runs the rest of the program for that lane. The
+ * results are always the same as running the program on each input
+ * separately.
+ */
+
+public class BatchInterpreter {
+	// How each instruction is run in all lanes, as given by its LaneKind.
+	// The stack kinds, from KIND_POP to KIND_DEPTH, and the input kinds,
+	// from KIND_INPUT_N on, are numbered in runs.
+	static final int KIND_NONE = 0;
+	static final int KIND_NOOP = 1;
+	static final int KIND_INT_BINARY = 2;
+	static final int KIND_INT_UNARY = 3;
+	static final int KIND_INT_BOOL = 4;
+	static final int KIND_FLOAT_BINARY = 5;
+	static final int KIND_FLOAT_UNARY = 6;
+	static final int KIND_FLOAT_BOOL = 7;
+	static final int KIND_BOOL_BINARY = 8;
+	static final int KIND_BOOL_NOT = 9;
+	static final int KIND_INT_FROM_FLOAT = 10;
+	static final int KIND_INT_FROM_BOOL = 11;
+	static final int KIND_FLOAT_FROM_INT = 12;
+	static final int KIND_FLOAT_FROM_BOOL = 13;
+	static final int KIND_BOOL_FROM_INT = 14;
+	static final int KIND_BOOL_FROM_FLOAT = 15;
+	static final int KIND_INT_CONSTANT = 16;
+	static final int KIND_FLOAT_CONSTANT = 17;
+	static final int KIND_BOOL_CONSTANT = 18;
+	static final int KIND_POP = 19;
+	static final int KIND_FLUSH = 20;
+	static final int KIND_DUP = 21;
+	static final int KIND_ROT = 22;
+	static final int KIND_SWAP = 23;
+	static final int KIND_SHOVE = 24;
+	static final int KIND_YANK = 25;
+	static final int KIND_YANKDUP = 26;
+	static final int KIND_DEPTH = 27;
+	static final int KIND_INPUT_N = 28;
+	static final int KIND_INPUT_INDEX = 29;
+	static final int KIND_INPUT_ALL = 30;
+	static final int KIND_INPUT_REV = 31;
+
+	// The stack an input row is pushed onto, or INPUT_OTHER if the row holds
+	// anything else, or a mix of types.
+	static final int INPUT_INT = 0;
+	static final int INPUT_FLOAT = 1;
+	static final int INPUT_BOOL = 2;
+	static final int INPUT_OTHER = 3;
+
+	protected Interpreter _interpreter;
+
+	// Instruction kinds for the interpreter's opcode table, along with the
+	// stack used by the stack instructions.
+	protected Instruction _kindTable[];
+	protected int _kinds[];
+	protected LaneStack _kindStacks[];
+
+	protected int _lanes;
+	protected int _capacity;
+
+	protected LaneStack _intStack = new LaneStack(int.class);
+	protected LaneStack _floatStack = new LaneStack(float.class);
+	protected LaneStack _boolStack = new LaneStack(boolean.class);
+	protected LaneStack _inputStack = new LaneStack(Object.class);
+	protected int _inputTypes[] = new int[8];
+
+	// Input rows pushed from primitive arrays are kept in an int, float or
+	// boolean row of their own rather than boxed into the input stack's row.
+	// The rows are kept for reuse after the stacks are cleared.
+	protected boolean _inputIsPrimitive[] = new boolean[8];
+	protected Object _primitiveInputs[] = new Object[8];
+	protected ArrayList<Object> _names = new ArrayList<Object>();
+
+	protected int _ends[] = new int[8];
+	protected int _indices[] = new int[0];
+
+	// Final stack sizes and top values of each lane, when the lanes were
+	// finished one at a time.
+	protected boolean _ranLanesSeparately;
+	protected int _laneIntSizes[];
+	protected int _laneIntTops[];
+	protected int _laneFloatSizes[];
+	protected float _laneFloatTops[];
+	protected int _laneBoolSizes[];
+	protected boolean _laneBoolTops[];
+
+	/**
+	 * Constructs a batch interpreter which uses the instructions of the given
+	 * interpreter.
+	 */
+
+	public BatchInterpreter(Interpreter inInterpreter) {
+		_interpreter = inInterpreter;
+	}
+
+	/**
+	 * Empties the stacks of all lanes and sets the number of lanes to run.
+	 */
+
+	public void ClearStacks(int inLanes) {
+		_lanes = inLanes;
+
+		if (inLanes > _capacity) {
+			_capacity = inLanes;
+			_intStack.Resize(_capacity);
+			_floatStack.Resize(_capacity);
+			_boolStack.Resize(_capacity);
+			_inputStack.Resize(_capacity);
+			_laneIntSizes = new int[_capacity];
+			_laneIntTops = new int[_capacity];
+			_laneFloatSizes = new int[_capacity];
+			_laneFloatTops = new float[_capacity];
+			_laneBoolSizes = new int[_capacity];
+			_laneBoolTops = new boolean[_capacity];
+			_indices = new int[_capacity];
+		}
+
+		_intStack._depth = 0;
+		_floatStack._depth = 0;
+		_boolStack._depth = 0;
+		_inputStack._depth = 0;
+		_names.clear();
+		_ranLanesSeparately = false;
+	}
+
+	/**
+	 * Pushes one integer onto the integer stack of each lane.
+	 */
+
+	public void PushIntegers(int inValues[]) {
+		PushIntegers(inValues, 0);
+	}
+
+	/**
+	 * Pushes one integer onto the integer stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n].
+	 */
+
+	public void PushIntegers(int inValues[], int inFirst) {
+		System.arraycopy(inValues, inFirst, _intStack.Push(), 0, _lanes);
+	}
+
+	/**
+	 * Pushes one float onto the float stack of each lane.
+	 */
+
+	public void PushFloats(float inValues[]) {
+		PushFloats(inValues, 0);
+	}
+
+	/**
+	 * Pushes one float onto the float stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n].
+	 */
+
+	public void PushFloats(float inValues[], int inFirst) {
+		System.arraycopy(inValues, inFirst, _floatStack.Push(), 0, _lanes);
+	}
+
+	/**
+	 * Pushes one boolean onto the boolean stack of each lane.
+	 */
+
+	public void PushBooleans(boolean inValues[]) {
+		PushBooleans(inValues, 0);
+	}
+
+	/**
+	 * Pushes one boolean onto the boolean stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n].
+	 */
+
+	public void PushBooleans(boolean inValues[], int inFirst) {
+		System.arraycopy(inValues, inFirst, _boolStack.Push(), 0, _lanes);
+	}
+
+	/**
+	 * Pushes one object onto the input stack of each lane.
+	 */
+
+	public void PushInputs(Object inValues[]) {
+		PushInputs(inValues, 0);
+	}
+
+	/**
+	 * Pushes one object onto the input stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n].
+	 */
+
+	public void PushInputs(Object inValues[], int inFirst) {
+		int type = _lanes > 0 ? InputType(inValues[inFirst]) : INPUT_OTHER;
+
+		for (int n = 1; n < _lanes; n++)
+			if (InputType(inValues[inFirst + n]) != type)
+				type = INPUT_OTHER;
+
+		int index = PushInputRow(type, false);
+		System.arraycopy(inValues, inFirst, _inputStack.Row(index), 0, _lanes);
+	}
+
+	/**
+	 * Pushes one integer onto the input stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n]. Unlike PushInputs, the values are not
+	 * boxed.
+	 */
+
+	public void PushIntegerInputs(int inValues[], int inFirst) {
+		int index = PushInputRow(INPUT_INT, true);
+		System.arraycopy(inValues, inFirst, PrimitiveInputRow(index, int.class),
+				0, _lanes);
+	}
+
+	/**
+	 * Pushes one float onto the input stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n]. Unlike PushInputs, the values are not
+	 * boxed.
+	 */
+
+	public void PushFloatInputs(float inValues[], int inFirst) {
+		int index = PushInputRow(INPUT_FLOAT, true);
+		System.arraycopy(inValues, inFirst, PrimitiveInputRow(index,
+				float.class), 0, _lanes);
+	}
+
+	/**
+	 * Pushes one boolean onto the input stack of each lane, taking lane n's
+	 * value from inValues[inFirst + n]. Unlike PushInputs, the values are not
+	 * boxed.
+	 */
+
+	public void PushBooleanInputs(boolean inValues[], int inFirst) {
+		int index = PushInputRow(INPUT_BOOL, true);
+		System.arraycopy(inValues, inFirst, PrimitiveInputRow(index,
+				boolean.class), 0, _lanes);
+	}
+
+	/**
+	 * Pushes a row onto the input stack and records its type.
+	 *
+	 * @return The index of the new row.
+	 */
+
+	protected int PushInputRow(int inType, boolean inPrimitive) {
+		int index = _inputStack._depth;
+
+		if (index == _inputTypes.length) {
+			_inputTypes = Arrays.copyOf(_inputTypes, index * 2);
+			_inputIsPrimitive = Arrays.copyOf(_inputIsPrimitive, index * 2);
+			_primitiveInputs = Arrays.copyOf(_primitiveInputs, index * 2);
+		}
+
+		_inputTypes[index] = inType;
+		_inputIsPrimitive[index] = inPrimitive;
+		_inputStack.Push();
+
+		return index;
+	}
+
+	/**
+	 * Returns the primitive row of an input, reusing the row last used at
+	 * that index if it has the right type and is large enough.
+	 */
+
+	protected Object PrimitiveInputRow(int inIndex, Class<?> inType) {
+		Object row = _primitiveInputs[inIndex];
+
+		if (row == null || row.getClass().getComponentType() != inType
+				|| Array.getLength(row) < _capacity) {
+			row = Array.newInstance(inType, _capacity);
+			_primitiveInputs[inIndex] = row;
+		}
+
+		return row;
+	}
+
+	/**
+	 * Returns the value of an input in one lane, boxed as it would be on the
+	 * interpreter's input stack.
+	 */
+
+	protected Object InputValue(int inIndex, int inLane) {
+		if (!_inputIsPrimitive[inIndex])
+			return ((Object[]) _inputStack.Row(inIndex))[inLane];
+
+		switch (_inputTypes[inIndex]) {
+		case INPUT_INT:
+			return ((int[]) _primitiveInputs[inIndex])[inLane];
+		case INPUT_FLOAT:
+			return ((float[]) _primitiveInputs[inIndex])[inLane];
+		default:
+			return ((boolean[]) _primitiveInputs[inIndex])[inLane];
+		}
+	}
+
+	/**
+	 * Runs a compiled program in every lane with a given instruction limit.
+	 *
+	 * @param inMaxSteps
+	 *            The maximum number of instructions allowed to be executed in
+	 *            each lane.
+	 * @return The total number of instructions executed in all lanes.
+	 */
+
+	public int Execute(CompiledProgram inProgram, int inMaxSteps) {
+		Interpreter interpreter = _interpreter;
+
+		// Profiled instructions must each pass through the interpreter.
+		if (interpreter._useFrames || interpreter._profilerStripe != null)
+			return RunLanesSeparately(inProgram, 0, 0, 0, inMaxSteps);
+
+		if (interpreter._opcodeTable == null)
+			interpreter.BuildOpcodeTable();
+
+		if (_kindTable != interpreter._opcodeTable)
+			BuildKindTable();
+
+		Instruction table[] = _kindTable;
+		int kinds[] = _kinds;
+		LaneStack kindStacks[] = _kindStacks;
+
+		int code[] = inProgram._code;
+		int operands[] = inProgram._operands;
+
+		if (_ends.length < inProgram._maxDepth)
+			_ends = new int[inProgram._maxDepth];
+
+		int ends[] = _ends;
+		int depth = 0;
+		int pc = 0;
+		int executed = 0;
+		int lanes = _lanes;
+
+		while (pc < code.length && executed != inMaxSteps) {
+			while (depth > 0 && ends[depth - 1] == pc)
+				depth--;
+
+			int op = code[pc];
+
+			if (op >= 0) {
+				int kind = op < kinds.length ? kinds[op] : KIND_NONE;
+
+				if (kind == KIND_NONE
+						|| !ExecuteInstruction(kind, table[op], kindStacks[op]))
+					return RunLanesSeparately(inProgram, pc, depth, executed,
+							inMaxSteps);
+			} else if (op == CompiledProgram.OP_INTEGER) {
+				Arrays.fill((int[]) _intStack.Push(), 0, lanes,
+						inProgram._intConstants[operands[pc]]);
+			} else if (op == CompiledProgram.OP_FLOAT) {
+				Arrays.fill((float[]) _floatStack.Push(), 0, lanes,
+						inProgram._floatConstants[operands[pc]]);
+			} else if (op == CompiledProgram.OP_LIST) {
+				ends[depth++] = operands[pc];
+			} else {
+				Object o = inProgram._objects[pc];
+
+				if (o instanceof String
+						&& !interpreter._instructions.containsKey(o))
+					_names.add(o);
+				else
+					return RunLanesSeparately(inProgram, pc, depth, executed,
+							inMaxSteps);
+			}
+
+			executed++;
+			pc++;
+		}
+
+		interpreter._evaluationExecutions += lanes;
+		interpreter._totalStepsTaken += executed * lanes;
+
+		return executed * lanes;
+	}
+
+	/**
+	 * Returns the size of a lane's integer stack after execution.
+	 */
+
+	public int IntStackSize(int inLane) {
+		return _ranLanesSeparately ? _laneIntSizes[inLane] : _intStack._depth;
+	}
+
+	/**
+	 * Returns the top of a lane's integer stack after execution, or 0 if the
+	 * stack is empty.
+	 */
+
+	public int IntStackTop(int inLane) {
+		if (_ranLanesSeparately)
+			return _laneIntTops[inLane];
+
+		return _intStack._depth > 0 ? ((int[]) _intStack.Top())[inLane] : 0;
+	}
+
+	/**
+	 * Returns the size of a lane's float stack after execution.
+	 */
+
+	public int FloatStackSize(int inLane) {
+		return _ranLanesSeparately ? _laneFloatSizes[inLane]
+				: _floatStack._depth;
+	}
+
+	/**
+	 * Returns the top of a lane's float stack after execution, or 0 if the
+	 * stack is empty.
+	 */
+
+	public float FloatStackTop(int inLane) {
+		if (_ranLanesSeparately)
+			return _laneFloatTops[inLane];
+
+		return _floatStack._depth > 0 ? ((float[]) _floatStack.Top())[inLane]
+				: 0;
+	}
+
+	/**
+	 * Returns the size of a lane's boolean stack after execution.
+	 */
+
+	public int BoolStackSize(int inLane) {
+		return _ranLanesSeparately ? _laneBoolSizes[inLane] : _boolStack._depth;
+	}
+
+	/**
+	 * Returns the top of a lane's boolean stack after execution, or false if
+	 * the stack is empty.
+	 */
+
+	public boolean BoolStackTop(int inLane) {
+		if (_ranLanesSeparately)
+			return _laneBoolTops[inLane];
+
+		return _boolStack._depth > 0 ? ((boolean[]) _boolStack.Top())[inLane]
+				: false;
+	}
+
+	/**
+	 * Runs one instruction in all lanes.
+	 *
+	 * @return False if the instruction could not be run in all lanes at once,
+	 *         in which case nothing has been changed.
+	 */
+
+	protected boolean ExecuteInstruction(int inKind, Instruction inInstruction,
+			LaneStack inStack) {
+		int lanes = _lanes;
+
+		switch (inKind) {
+		case KIND_NOOP:
+			break;
+
+		case KIND_INT_BINARY:
+			if (_intStack._depth > 1) {
+				int a[] = (int[]) _intStack.Pop();
+				int b[] = (int[]) _intStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					b[n] = inInstruction.LaneOperator(b[n], a[n]);
+			}
+			break;
+
+		case KIND_INT_UNARY:
+			if (_intStack._depth > 0) {
+				int a[] = (int[]) _intStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					a[n] = inInstruction.LaneOperator(a[n]);
+			}
+			break;
+
+		case KIND_INT_BOOL:
+			if (_intStack._depth > 1) {
+				int a[] = (int[]) _intStack.Pop();
+				int b[] = (int[]) _intStack.Pop();
+				boolean result[] = (boolean[]) _boolStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = inInstruction.LaneComparison(b[n], a[n]);
+			}
+			break;
+
+		case KIND_FLOAT_BINARY:
+			if (_floatStack._depth > 1) {
+				float a[] = (float[]) _floatStack.Pop();
+				float b[] = (float[]) _floatStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					b[n] = inInstruction.LaneOperator(b[n], a[n]);
+			}
+			break;
+
+		case KIND_FLOAT_UNARY:
+			if (_floatStack._depth > 0) {
+				float a[] = (float[]) _floatStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					a[n] = inInstruction.LaneOperator(a[n]);
+			}
+			break;
+
+		case KIND_FLOAT_BOOL:
+			if (_floatStack._depth > 1) {
+				float b[] = (float[]) _floatStack.Pop();
+				float a[] = (float[]) _floatStack.Pop();
+				boolean result[] = (boolean[]) _boolStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = inInstruction.LaneComparison(a[n], b[n]);
+			}
+			break;
+
+		case KIND_BOOL_BINARY:
+			if (_boolStack._depth > 1) {
+				boolean a[] = (boolean[]) _boolStack.Pop();
+				boolean b[] = (boolean[]) _boolStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					b[n] = inInstruction.LaneOperator(b[n], a[n]);
+			}
+			break;
+
+		case KIND_BOOL_NOT:
+			if (_boolStack._depth > 0) {
+				boolean a[] = (boolean[]) _boolStack.Top();
+
+				for (int n = 0; n < lanes; n++)
+					a[n] = !a[n];
+			}
+			break;
+
+		case KIND_INT_FROM_FLOAT:
+			if (_floatStack._depth > 0) {
+				float a[] = (float[]) _floatStack.Pop();
+				int result[] = (int[]) _intStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = (int) a[n];
+			}
+			break;
+
+		case KIND_INT_FROM_BOOL:
+			if (_boolStack._depth > 0) {
+				boolean a[] = (boolean[]) _boolStack.Pop();
+				int result[] = (int[]) _intStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = a[n] ? 1 : 0;
+			}
+			break;
+
+		case KIND_FLOAT_FROM_INT:
+			if (_intStack._depth > 0) {
+				int a[] = (int[]) _intStack.Pop();
+				float result[] = (float[]) _floatStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = a[n];
+			}
+			break;
+
+		case KIND_FLOAT_FROM_BOOL:
+			if (_boolStack._depth > 0) {
+				boolean a[] = (boolean[]) _boolStack.Pop();
+				float result[] = (float[]) _floatStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = a[n] ? 1 : 0;
+			}
+			break;
+
+		case KIND_BOOL_FROM_INT:
+			if (_intStack._depth > 0) {
+				int a[] = (int[]) _intStack.Pop();
+				boolean result[] = (boolean[]) _boolStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = a[n] != 0;
+			}
+			break;
+
+		case KIND_BOOL_FROM_FLOAT:
+			if (_floatStack._depth > 0) {
+				float a[] = (float[]) _floatStack.Pop();
+				boolean result[] = (boolean[]) _boolStack.Push();
+
+				for (int n = 0; n < lanes; n++)
+					result[n] = a[n] != 0.0;
+			}
+			break;
+
+		case KIND_INT_CONSTANT:
+			Arrays.fill((int[]) _intStack.Push(), 0, lanes,
+					inInstruction.LaneInt());
+			break;
+
+		case KIND_FLOAT_CONSTANT:
+			Arrays.fill((float[]) _floatStack.Push(), 0, lanes,
+					inInstruction.LaneFloat());
+			break;
+
+		case KIND_BOOL_CONSTANT:
+			Arrays.fill((boolean[]) _boolStack.Push(), 0, lanes,
+					inInstruction.LaneBool());
+			break;
+
+		case KIND_POP:
+			if (inStack._depth > 0)
+				inStack._depth--;
+			break;
+
+		case KIND_FLUSH:
+			inStack._depth = 0;
+			break;
+
+		case KIND_DUP:
+			if (inStack._depth > 0) {
+				Object top = inStack.Top();
+				System.arraycopy(top, 0, inStack.Push(), 0, lanes);
+			}
+			break;
+
+		case KIND_ROT:
+			if (inStack._depth > 2)
+				inStack.Rot();
+			break;
+
+		case KIND_SWAP:
+			if (inStack._depth > 1)
+				inStack.Swap();
+			break;
+
+		case KIND_SHOVE:
+		case KIND_YANK:
+		case KIND_YANKDUP:
+			if (_intStack._depth > 0) {
+				// Copy the indices, since popping them may free their row
+				// for reuse by the stack being changed.
+				int indices[] = _indices;
+				System.arraycopy(_intStack.Pop(), 0, indices, 0, lanes);
+
+				if (inStack._depth > 0) {
+					if (inKind == KIND_SHOVE)
+						inStack.Shove(indices, lanes);
+					else if (inKind == KIND_YANK)
+						inStack.Yank(indices, lanes);
+					else
+						inStack.YankDup(indices, lanes);
+				} else {
+					_intStack._depth++;
+				}
+			}
+			break;
+
+		case KIND_DEPTH:
+			Arrays.fill((int[]) _intStack.Push(), 0, lanes,
+					inStack == _intStack ? inStack._depth - 1 : inStack._depth);
+			break;
+
+		case KIND_INPUT_N:
+			int index = inInstruction.LaneInt();
+
+			if (index < _inputStack._depth && _inputTypes[index] == INPUT_OTHER)
+				return false;
+
+			PushInput(index);
+			break;
+
+		case KIND_INPUT_INDEX:
+			if (_intStack._depth > 0 && _inputStack._depth > 0) {
+				int indices[] = (int[]) _intStack.Top();
+				int inputIndex = _inputStack.Clamp(indices[0]);
+
+				for (int n = 1; n < lanes; n++)
+					if (_inputStack.Clamp(indices[n]) != inputIndex)
+						return false;
+
+				if (_inputTypes[inputIndex] == INPUT_OTHER)
+					return false;
+
+				_intStack.Pop();
+				PushInput(inputIndex);
+			}
+			break;
+
+		case KIND_INPUT_ALL:
+		case KIND_INPUT_REV:
+			for (int n = 0; n < _inputStack._depth; n++)
+				if (_inputTypes[n] == INPUT_OTHER)
+					return false;
+
+			if (inKind == KIND_INPUT_ALL) {
+				for (int n = 0; n < _inputStack._depth; n++)
+					PushInput(n);
+			} else {
+				for (int n = _inputStack._depth - 1; n >= 0; n--)
+					PushInput(n);
+			}
+			break;
+
+		default:
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Pushes an input row onto the stack for its type, in the same way as the
+	 * standard InputPusher.
+	 */
+
+	protected void PushInput(int inIndex) {
+		if (inIndex >= _inputStack._depth)
+			return;
+
+		int lanes = _lanes;
+
+		if (_inputIsPrimitive[inIndex]) {
+			Object row = _primitiveInputs[inIndex];
+
+			switch (_inputTypes[inIndex]) {
+			case INPUT_INT:
+				System.arraycopy(row, 0, _intStack.Push(), 0, lanes);
+				break;
+			case INPUT_FLOAT:
+				System.arraycopy(row, 0, _floatStack.Push(), 0, lanes);
+				break;
+			case INPUT_BOOL:
+				System.arraycopy(row, 0, _boolStack.Push(), 0, lanes);
+				break;
+			}
+
+			return;
+		}
+
+		Object inputs[] = (Object[]) _inputStack.Row(inIndex);
+
+		switch (_inputTypes[inIndex]) {
+		case INPUT_INT:
+			int ints[] = (int[]) _intStack.Push();
+			for (int n = 0; n < lanes; n++)
+				ints[n] = (Integer) inputs[n];
+			break;
+
+		case INPUT_FLOAT:
+			float floats[] = (float[]) _floatStack.Push();
+			for (int n = 0; n < lanes; n++)
+				floats[n] = ((Number) inputs[n]).floatValue();
+			break;
+
+		case INPUT_BOOL:
+			boolean bools[] = (boolean[]) _boolStack.Push();
+			for (int n = 0; n < lanes; n++)
+				bools[n] = (Boolean) inputs[n];
+			break;
+		}
+	}
+
+	/**
+	 * Finishes running a program in each lane separately, by loading the lane
+	 * into the interpreter and continuing from the given slot.
+	 *
+	 * @param inSlot
+	 *            The next slot to be executed.
+	 * @param inDepth
+	 *            The number of lists currently being executed.
+	 * @param inExecuted
+	 *            The number of instructions executed so far in each lane.
+	 * @return The total number of instructions executed in all lanes.
+	 */
+
+	protected int RunLanesSeparately(CompiledProgram inProgram, int inSlot,
+			int inDepth, int inExecuted, int inMaxSteps) {
+		Interpreter interpreter = _interpreter;
+		int total = 0;
+
+		for (int lane = 0; lane < _lanes; lane++) {
+			LoadLane(lane);
+
+			if (inSlot == 0) {
+				total += interpreter.Execute(inProgram, inMaxSteps);
+			} else {
+				interpreter._evaluationExecutions++;
+				interpreter._totalStepsTaken += inExecuted;
+				interpreter._codeStack.push(inProgram._program);
+
+				total += inExecuted
+						+ interpreter.StepCompiled(inProgram, inSlot, _ends,
+								inDepth, inMaxSteps < 0 ? inMaxSteps
+										: inMaxSteps - inExecuted);
+			}
+
+			intStack ints = interpreter.intStack();
+			floatStack floats = interpreter.floatStack();
+			booleanStack bools = interpreter.boolStack();
+
+			_laneIntSizes[lane] = ints.size();
+			_laneIntTops[lane] = ints.top();
+			_laneFloatSizes[lane] = floats.size();
+			_laneFloatTops[lane] = floats.top();
+			_laneBoolSizes[lane] = bools.size();
+			_laneBoolTops[lane] = bools.top();
+		}
+
+		_ranLanesSeparately = true;
+
+		return total;
+	}
+
+	/**
+	 * Sets the interpreter's stacks to the current stacks of a lane.
+	 */
+
+	protected void LoadLane(int inLane) {
+		Interpreter interpreter = _interpreter;
+		interpreter.ClearStacks();
+
+		for (int n = 0; n < _intStack._depth; n++)
+			interpreter._intStack.push(((int[]) _intStack.Row(n))[inLane]);
+
+		for (int n = 0; n < _floatStack._depth; n++)
+			interpreter._floatStack.push(((float[]) _floatStack.Row(n))[inLane]);
+
+		for (int n = 0; n < _boolStack._depth; n++)
+			interpreter._boolStack.push(((boolean[]) _boolStack.Row(n))[inLane]);
+
+		for (int n = 0; n < _inputStack._depth; n++)
+			interpreter._inputStack.push(InputValue(n, inLane));
+
+		for (Object name : _names)
+			interpreter._nameStack.push(name);
+	}
+
+	/**
+	 * Works out which instructions in the interpreter's opcode table can be
+	 * run in all lanes at once.
+	 */
+
+	protected void BuildKindTable() {
+		Interpreter interpreter = _interpreter;
+		Instruction table[] = interpreter._opcodeTable;
+		boolean standardInputs = interpreter._inputPusher.getClass() == InputPusher.class;
+
+		_kinds = new int[table.length];
+		_kindStacks = new LaneStack[table.length];
+
+		for (int op = 0; op < table.length; op++) {
+			Instruction i = table[op];
+			int kind = i != null ? i.LaneKind() : KIND_NONE;
+
+			if (i == null || interpreter._opcodeUsesExec[op]) {
+				if (kind != KIND_NOOP)
+					kind = KIND_NONE;
+			} else if (kind >= KIND_POP && kind <= KIND_DEPTH) {
+				LaneStack stack = LaneStackFor(i.OperandStack());
+
+				if (stack == null || stack == _inputStack && kind != KIND_DEPTH)
+					kind = KIND_NONE;
+
+				_kindStacks[op] = stack;
+			} else if (kind >= KIND_INPUT_N) {
+				// Inputs are only pushed the way the standard InputPusher
+				// pushes them.
+				if (!standardInputs || kind != KIND_INPUT_N
+						&& i.OperandStack() != interpreter._inputStack)
+					kind = KIND_NONE;
+			}
+
+			_kinds[op] = kind;
+		}
+
+		_kindTable = table;
+	}
+
+	/**
+	 * Returns the lane stack matching one of the interpreter's stacks, or null
+	 * if there is none.
+	 */
+
+	protected LaneStack LaneStackFor(Stack inStack) {
+		if (inStack == _interpreter._intStack)
+			return _intStack;
+		if (inStack == _interpreter._floatStack)
+			return _floatStack;
+		if (inStack == _interpreter._boolStack)
+			return _boolStack;
+		if (inStack == _interpreter._inputStack)
+			return _inputStack;
+
+		return null;
+	}
+
+	protected static int InputType(Object inValue) {
+		if (inValue instanceof Integer)
+			return INPUT_INT;
+		if (inValue instanceof Number)
+			return INPUT_FLOAT;
+		if (inValue instanceof Boolean)
+			return INPUT_BOOL;
+
+		return INPUT_OTHER;
+	}
+
+	/**
+	 * A stack of rows, each of which is an array holding one value per lane.
+	 * Rows above the top of the stack are kept so that they can be reused.
+	 */
+
+	protected static class LaneStack {
+		Class<?> _type;
+		Object _rows[] = new Object[8];
+		Object _scratch;
+		int _depth;
+		int _capacity;
+
+		LaneStack(Class<?> inType) {
+			_type = inType;
+		}
+
+		void Resize(int inCapacity) {
+			_capacity = inCapacity;
+			_scratch = Array.newInstance(_type, 1);
+			Arrays.fill(_rows, null);
+		}
+
+		Object Row(int inIndex) {
+			return _rows[inIndex];
+		}
+
+		Object Top() {
+			return _rows[_depth - 1];
+		}
+
+		Object Pop() {
+			return _rows[--_depth];
+		}
+
+		Object Push() {
+			if (_depth == _rows.length)
+				_rows = Arrays.copyOf(_rows, _rows.length * 2);
+
+			Object row = _rows[_depth];
+
+			if (row == null) {
+				row = Array.newInstance(_type, _capacity);
+				_rows[_depth] = row;
+			}
+
+			_depth++;
+
+			return row;
+		}
+
+		void Swap() {
+			Object tmp = _rows[_depth - 1];
+			_rows[_depth - 1] = _rows[_depth - 2];
+			_rows[_depth - 2] = tmp;
+		}
+
+		void Rot() {
+			Object tmp = _rows[_depth - 3];
+			_rows[_depth - 3] = _rows[_depth - 2];
+			_rows[_depth - 2] = _rows[_depth - 1];
+			_rows[_depth - 1] = tmp;
+		}
+
+		int Clamp(int inIndex) {
+			return Math.max(0, Math.min(inIndex, _depth - 1));
+		}
+
+		boolean SameIndex(int inIndices[], int inLanes) {
+			int index = Clamp(inIndices[0]);
+
+			for (int n = 1; n < inLanes; n++)
+				if (Clamp(inIndices[n]) != index)
+					return false;
+
+			return true;
+		}
+
+		void Shove(int inIndices[], int inLanes) {
+			if (SameIndex(inIndices, inLanes)) {
+				int shovedIndex = _depth - Clamp(inIndices[0]) - 1;
+				Object tmp = _rows[_depth - 1];
+
+				for (int i = _depth - 1; i > shovedIndex; i--)
+					_rows[i] = _rows[i - 1];
+				_rows[shovedIndex] = tmp;
+			} else {
+				for (int n = 0; n < inLanes; n++) {
+					int shovedIndex = _depth - Clamp(inIndices[n]) - 1;
+					System.arraycopy(_rows[_depth - 1], n, _scratch, 0, 1);
+
+					for (int i = _depth - 1; i > shovedIndex; i--)
+						System.arraycopy(_rows[i - 1], n, _rows[i], n, 1);
+					System.arraycopy(_scratch, 0, _rows[shovedIndex], n, 1);
+				}
+			}
+		}
+
+		void Yank(int inIndices[], int inLanes) {
+			if (SameIndex(inIndices, inLanes)) {
+				int yankedIndex = _depth - Clamp(inIndices[0]) - 1;
+				Object tmp = _rows[yankedIndex];
+
+				for (int i = yankedIndex; i < _depth - 1; i++)
+					_rows[i] = _rows[i + 1];
+				_rows[_depth - 1] = tmp;
+			} else {
+				for (int n = 0; n < inLanes; n++) {
+					int yankedIndex = _depth - Clamp(inIndices[n]) - 1;
+					System.arraycopy(_rows[yankedIndex], n, _scratch, 0, 1);
+
+					for (int i = yankedIndex; i < _depth - 1; i++)
+						System.arraycopy(_rows[i + 1], n, _rows[i], n, 1);
+					System.arraycopy(_scratch, 0, _rows[_depth - 1], n, 1);
+				}
+			}
+		}
+
+		void YankDup(int inIndices[], int inLanes) {
+			int depth = _depth;
+			Object row = Push();
+
+			for (int n = 0; n < inLanes; n++) {
+				int yankedIndex = depth - Math.max(0, Math.min(inIndices[n],
+						depth - 1)) - 1;
+				System.arraycopy(_rows[yankedIndex], n, row, n, 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The binary checkpoint format.
+ *
+ * A binary checkpoint holds the GA's class and parameters, the checkpoint
+ * number and report, followed by the state that each GA class writes in
+ * GA.WriteCheckpoint: counters, random number generator state and the
+ * populations. Programs are stored as a stream of tokens. Each instruction
+ * name is written out the first time it appears and is given an id, which is
+ * used for the rest of the file.
+ *
+ * A checkpoint is loaded by creating a new GA from the stored parameters,
+ * which rebuilds the interpreter, test cases and everything else which is not
+ * stored, and then reading the stored state over it.
+ *
+ * Files are versioned. When the format changes, VERSION is increased, and
+ * Read rejects versions it does not know.
+ */
+
+public class BinaryCheckpoint {
+	static final int MAGIC = 0x50736843; // "PshC"
+	static final int VERSION = 2;
+
+	// Program tokens. A token of NAME_BASE or above is the instruction name
+	// with id (token - NAME_BASE).
+	static final int TOKEN_END = 0;
+	static final int TOKEN_LIST = 1;
+	static final int TOKEN_INTEGER = 2;
+	static final int TOKEN_FLOAT = 3;
+	static final int TOKEN_NAME = 4;
+	static final int TOKEN_NEW_NAME = 5;
+	static final int NAME_BASE = 6;
+
+	protected DataOutputStream _out;
+	protected DataInputStream _in;
+
+	protected HashMap<String, Integer> _nameIds = new HashMap<String, Integer>();
+	protected ArrayList<String> _names = new ArrayList<String>();
+
+	protected BinaryCheckpoint(OutputStream inOut) {
+		_out = new DataOutputStream(new BufferedOutputStream(inOut));
+	}
+
+	protected BinaryCheckpoint(InputStream inIn) {
+		_in = new DataInputStream(new BufferedInputStream(inIn));
+	}
+
+	/**
+	 * Writes a GA's checkpoint to a stream.
+	 *
+	 * @param inGA
+	 *            The GA to checkpoint, which is not changed by writing it.
+	 * @param inOut
+	 *            The stream to write to. It is flushed but not closed.
+	 */
+
+	public static void Write(GA inGA, OutputStream inOut) throws IOException {
+		BinaryCheckpoint out = new BinaryCheckpoint(inOut);
+		Checkpoint checkpoint = inGA._checkpoint;
+
+		out._out.writeInt(MAGIC);
+		out._out.writeInt(VERSION);
+
+		out.WriteString(inGA.getClass().getName());
+		out.WriteInt(checkpoint.checkpointNumber);
+		out.WriteString(checkpoint.report.toString());
+
+		out.WriteInt(inGA._parameters.size());
+
+		for (Map.Entry<String, String> entry : inGA._parameters.entrySet()) {
+			out.WriteString(entry.getKey());
+			out.WriteString(entry.getValue());
+		}
+
+		inGA.WriteCheckpoint(out);
+
+		out._out.flush();
+	}
+
+	/**
+	 * Returns whether a stream starts with a binary checkpoint, without
+	 * consuming any of it.
+	 *
+	 * @param inIn
+	 *            A stream which supports mark and reset.
+	 */
+
+	public static boolean IsBinaryCheckpoint(InputStream inIn)
+			throws IOException {
+		inIn.mark(4);
+
+		int magic = 0;
+
+		for (int n = 0; n < 4; n++)
+			magic = (magic << 8) | (inIn.read() & 0xff);
+
+		inIn.reset();
+
+		return magic == MAGIC;
+	}
+
+	/**
+	 * Reads a GA from a binary checkpoint.
+	 *
+	 * @return The GA, whose checkpoint number and report are those stored in
+	 *         the checkpoint. The GA has no output stream.
+	 */
+
+	public static GA Read(InputStream inIn) throws Exception {
+		BinaryCheckpoint in = new BinaryCheckpoint(inIn);
+
+		if (in._in.readInt() != MAGIC)
+			throw new Exception("Not a binary checkpoint");
+
+		int version = in._in.readInt();
+
+		if (version != VERSION)
+			throw new Exception("Unsupported binary checkpoint version "
+					+ version);
+
+		String className = in.ReadString();
+		int checkpointNumber = in.ReadInt();
+		String report = in.ReadString();
+
+		HashMap<String, String> params = new HashMap<String, String>();
+		int count = in.ReadInt();
+
+		for (int n = 0; n < count; n++)
+			params.put(in.ReadString(), in.ReadString());
+
+		// Anything printed while the GA is set up would be a repeat of the
+		// stored report, so it is discarded.
+
+		GA ga = (GA) Class.forName(className).getDeclaredConstructor()
+				.newInstance();
+		ga._outputStream = null;
+		ga.SetParams(params);
+		ga.InitFromParameters();
+
+		if (ga._outputStream != null) {
+			ga._outputStream.close();
+			ga._outputStream = null;
+		}
+
+		ga._checkpoint.checkpointNumber = checkpointNumber;
+		ga._checkpoint.report.setLength(0);
+		ga._checkpoint.report.append(report);
+
+		ga.ReadCheckpoint(in);
+
+		return ga;
+	}
+
+	public void WriteBoolean(boolean inValue) throws IOException {
+		_out.writeBoolean(inValue);
+	}
+
+	public boolean ReadBoolean() throws IOException {
+		return _in.readBoolean();
+	}
+
+	/**
+	 * Writes an int in a variable length encoding, which takes one byte for
+	 * small values of either sign.
+	 */
+
+	public void WriteInt(int inValue) throws IOException {
+		int value = (inValue << 1) ^ (inValue >> 31);
+
+		while ((value & ~0x7f) != 0) {
+			_out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		_out.writeByte(value);
+	}
+
+	public int ReadInt() throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = _in.readUnsignedByte();
+
+			value |= (b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0)
+				return (value >>> 1) ^ -(value & 1);
+		}
+
+		throw new IOException("Malformed int in binary checkpoint");
+	}
+
+	public void WriteLong(long inValue) throws IOException {
+		_out.writeLong(inValue);
+	}
+
+	public long ReadLong() throws IOException {
+		return _in.readLong();
+	}
+
+	public void WriteFloat(float inValue) throws IOException {
+		_out.writeFloat(inValue);
+	}
+
+	public float ReadFloat() throws IOException {
+		return _in.readFloat();
+	}
+
+	public void WriteDouble(double inValue) throws IOException {
+		_out.writeDouble(inValue);
+	}
+
+	public double ReadDouble() throws IOException {
+		return _in.readDouble();
+	}
+
+	/**
+	 * Writes a string, which may be null, as UTF-8.
+	 */
+
+	public void WriteString(String inValue) throws IOException {
+		if (inValue == null) {
+			WriteInt(-1);
+			return;
+		}
+
+		byte bytes[] = inValue.getBytes("UTF-8");
+
+		WriteInt(bytes.length);
+		_out.write(bytes);
+	}
+
+	public String ReadString() throws IOException {
+		int length = ReadInt();
+
+		if (length < 0)
+			return null;
+
+		byte bytes[] = new byte[length];
+		_in.readFully(bytes);
+
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Writes the state of a random number generator, so that the generator
+	 * read back gives the same numbers as this one will from now on.
+	 */
+
+	public void WriteRandom(Random inRandom) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+
+		out.writeObject(inRandom);
+		out.close();
+
+		WriteInt(bytes.size());
+		bytes.writeTo(_out);
+	}
+
+	public Random ReadRandom() throws IOException {
+		byte bytes[] = new byte[ReadInt()];
+		_in.readFully(bytes);
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				bytes));
+
+		try {
+			return (Random) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(
+					"Malformed random number generator in binary checkpoint");
+		}
+	}
+
+	/**
+	 * Writes an array of floats, which may be null.
+	 */
+
+	public void WriteFloats(float inValues[]) throws IOException {
+		if (inValues == null) {
+			WriteInt(-1);
+			return;
+		}
+
+		WriteInt(inValues.length);
+
+		for (float f : inValues)
+			_out.writeFloat(f);
+	}
+
+	public float[] ReadFloats() throws IOException {
+		int length = ReadInt();
+
+		if (length < 0)
+			return null;
+
+		float values[] = new float[length];
+
+		for (int n = 0; n < length; n++)
+			values[n] = _in.readFloat();
+
+		return values;
+	}
+
+	/**
+	 * Writes an array of ints, which may be null.
+	 */
+
+	public void WriteInts(int inValues[]) throws IOException {
+		if (inValues == null) {
+			WriteInt(-1);
+			return;
+		}
+
+		WriteInt(inValues.length);
+
+		for (int i : inValues)
+			WriteInt(i);
+	}
+
+	public int[] ReadInts() throws IOException {
+		int length = ReadInt();
+
+		if (length < 0)
+			return null;
+
+		int values[] = new int[length];
+
+		for (int n = 0; n < length; n++)
+			values[n] = ReadInt();
+
+		return values;
+	}
+
+	/**
+	 * Writes a program as a stream of tokens. Instructions stored as
+	 * Instruction objects are written by name, using the program's
+	 * interpreter.
+	 */
+
+	public void WriteProgram(Program inProgram) throws IOException {
+		for (int n = 0; n < inProgram._size; n++) {
+			Object o = inProgram._stack[n];
+
+			if (o instanceof Program) {
+				_out.writeByte(TOKEN_LIST);
+				WriteProgram((Program) o);
+			} else if (o instanceof Integer) {
+				_out.writeByte(TOKEN_INTEGER);
+				WriteInt((Integer) o);
+			} else if (o instanceof Float) {
+				_out.writeByte(TOKEN_FLOAT);
+				_out.writeFloat((Float) o);
+			} else if (o instanceof String) {
+				WriteName((String) o);
+			} else if (o instanceof Instruction) {
+				String name = null;
+
+				if (inProgram._interpreter != null)
+					name = inProgram._interpreter
+							.GetInstructionName((Instruction) o);
+
+				if (name == null)
+					throw new IOException(
+							"Can't write an unnamed instruction to a binary checkpoint");
+
+				WriteName(name);
+			} else {
+				throw new IOException("Can't write a "
+						+ o.getClass().getName()
+						+ " in a program to a binary checkpoint");
+			}
+		}
+
+		_out.writeByte(TOKEN_END);
+	}
+
+	protected void WriteName(String inName) throws IOException {
+		Integer id = _nameIds.get(inName);
+
+		if (id == null) {
+			_nameIds.put(inName, _nameIds.size());
+			_out.writeByte(TOKEN_NEW_NAME);
+			WriteString(inName);
+		} else if (id < 256 - NAME_BASE) {
+			_out.writeByte(NAME_BASE + id);
+		} else {
+			_out.writeByte(TOKEN_NAME);
+			WriteInt(id);
+		}
+	}
+
+	/**
+	 * Reads a program written by WriteProgram.
+	 *
+	 * @param inInterpreter
+	 *            The interpreter of the new program. Instructions are stored as
+	 *            names, as they are in randomly generated code, and not as the
+	 *            interpreter's Instruction objects, since the GA's programs are
+	 *            also run by its evaluation interpreters.
+	 */
+
+	public Program ReadProgram(Interpreter inInterpreter) throws IOException {
+		Program program = new Program(inInterpreter);
+
+		while (true) {
+			int token = _in.readUnsignedByte();
+			String name;
+
+			switch (token) {
+			case TOKEN_END:
+				return program;
+
+			case TOKEN_LIST:
+				program.push(ReadProgram(inInterpreter));
+				continue;
+
+			case TOKEN_INTEGER:
+				program.push(ReadInt());
+				continue;
+
+			case TOKEN_FLOAT:
+				program.push(_in.readFloat());
+				continue;
+
+			case TOKEN_NAME:
+				name = _names.get(ReadInt());
+				break;
+
+			case TOKEN_NEW_NAME:
+				name = ReadString();
+				_names.add(name);
+				break;
+
+			default:
+				name = _names.get(token - NAME_BASE);
+				break;
+			}
+
+			program.push(name);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses and writes checkpoint files on a background thread.
+ *
+ * The GA serializes its checkpoint into memory, which is a consistent
+ * snapshot because the GA is not running at the time, and hands the snapshot
+ * to the writer. The writer compresses it into a temporary file which is then
+ * renamed into place, so a checkpoint file is either complete or absent.
+ *
+ * At most one snapshot waits to be written. If the writer falls behind, the
+ * waiting snapshot is dropped in favor of the newer one.
+ */
+
+public class CheckpointWriter {
+	// The snapshot waiting to be written, as a pair of the file and the
+	// ByteArrayOutputStream holding the serialized checkpoint.
+	protected ObjectPair _pending;
+	protected boolean _writing;
+	protected Throwable _error;
+	protected Thread _thread;
+
+	/**
+	 * Queues a snapshot to be written, replacing any snapshot which is still
+	 * waiting.
+	 *
+	 * @param inFile
+	 *            The checkpoint file to write.
+	 * @param inSnapshot
+	 *            The serialized checkpoint. The writer takes ownership of it.
+	 * @throws Exception
+	 *             if writing an earlier checkpoint failed.
+	 */
+
+	public synchronized void Write(File inFile, ByteArrayOutputStream inSnapshot)
+			throws Exception {
+		ThrowError();
+
+		if (_pending != null) {
+			System.out.println("Dropped checkpoint file "
+					+ ((File) _pending._first).getAbsolutePath()
+					+ " (the checkpoint writer is behind)");
+		}
+
+		_pending = new ObjectPair(inFile, inSnapshot);
+
+		if (_thread == null) {
+			_thread = new Thread(new Runnable() {
+				public void run() {
+					WriteSnapshots();
+				}
+			}, "PushGP-checkpoint");
+			_thread.setDaemon(true);
+			_thread.start();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Waits until every queued snapshot has been written.
+	 *
+	 * @throws Exception
+	 *             if writing a checkpoint failed, or if the writer's thread
+	 *             stopped before writing every snapshot.
+	 */
+
+	public synchronized void Finish() throws Exception {
+		while (_pending != null || _writing) {
+			if (_thread == null || !_thread.isAlive()) {
+				ThrowError();
+				throw new Exception("The checkpoint writer stopped before "
+						+ "writing every checkpoint");
+			}
+
+			wait();
+		}
+
+		ThrowError();
+	}
+
+	protected void ThrowError() throws Exception {
+		if (_error != null) {
+			Throwable error = _error;
+			_error = null;
+			throw new Exception("Could not write checkpoint", error);
+		}
+	}
+
+	/**
+	 * The writer thread's loop. Any failure, including an Error, is kept to
+	 * be thrown by the next Write or Finish. If the thread stops anyway, it
+	 * clears _thread so that Finish does not wait for it and the next Write
+	 * starts a new thread.
+	 */
+
+	protected void WriteSnapshots() {
+		try {
+			while (true) {
+				ObjectPair snapshot;
+
+				synchronized (this) {
+					while (_pending == null) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+
+					snapshot = _pending;
+					_pending = null;
+					_writing = true;
+				}
+
+				try {
+					WriteFile((File) snapshot._first,
+							(ByteArrayOutputStream) snapshot._second);
+				} catch (Throwable e) {
+					synchronized (this) {
+						_error = e;
+					}
+				} finally {
+					synchronized (this) {
+						_writing = false;
+						notifyAll();
+					}
+				}
+			}
+		} finally {
+			synchronized (this) {
+				_thread = null;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Compresses a snapshot into a temporary file next to inFile, then renames
+	 * it to inFile.
+	 */
+
+	protected void WriteFile(File inFile, ByteArrayOutputStream inSnapshot)
+			throws IOException {
+		File temp = new File(inFile.getPath() + ".tmp");
+		OutputStream out = new GZIPOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+
+		try {
+			inSnapshot.writeTo(out);
+		} finally {
+			out.close();
+		}
+
+		// renameTo replaces an existing file atomically on POSIX systems, but
+		// not on Windows, where the old file has to be removed first.
+
+		if (!temp.renameTo(inFile)) {
+			if (!inFile.delete() || !temp.renameTo(inFile)) {
+				temp.delete();
+				throw new IOException("Could not rename " + temp + " to "
+						+ inFile);
+			}
+		}
+
+		System.out.println("Wrote checkpoint file " + inFile.getAbsolutePath());
+	}
+}
@@ -16,9 +16,11 @@
 
 package org.spiderland.Psh.Coevolution;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.spiderland.Psh.BinaryCheckpoint;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.GATestCase;
 import org.spiderland.Psh.Interpreter;
@@ -36,13 +38,21 @@ import org.spiderland.Psh.TestCase.TestCaseGenerator;
  * population, and use about 95% of the effort. Effort based on the number of
  * evaluation executions thus far, which is tracked by the interpreter.
  * 
+ * Effort is counted as test case executions. Those made while the predictor
+ * GA runs, including the evaluation of new trainers, are the predictor
+ * population's effort, and the rest are the solution population's. At the
+ * start of each solution generation, predictor generations are run until the
+ * predictors' share of the effort reaches PREDICTOR-effort-percent.
+ * 
  */
 public class CEFloatSymbolicRegression extends PushGP {
 	private static final long serialVersionUID = 1L;
 
-	protected float _currentInput;
-
-	protected long _effort;
+	// Test cases are run on several threads at once when predictors are
+	// evaluated in parallel, so the effort count is atomic.
+	protected AtomicLong _effort = new AtomicLong();
+	protected long _predictorEffort;
+	protected int _predictorGenerations;
 	protected float _predictorEffortPercent;
 	protected PredictionGA _predictorGA;
 	
@@ -53,7 +63,9 @@ public class CEFloatSymbolicRegression extends PushGP {
 	protected void InitFromParameters() throws Exception {
 		super.InitFromParameters();
 
-		_effort = 0;
+		_effort.set(0);
+		_predictorEffort = 0;
+		_predictorGenerations = 0;
 
 		String cases = GetParam("test-cases", true);
 		String casesClass = GetParam("test-case-class", true);
@@ -107,11 +119,27 @@ public class CEFloatSymbolicRegression extends PushGP {
 		}
 
 		// Create and initialize predictors
+		float defaultPredictorEffortPercent = 5;
+
 		_predictorEffortPercent = GetFloatParam("PREDICTOR-effort-percent",
 				true);
+		if (Float.isNaN(_predictorEffortPercent)) {
+			_predictorEffortPercent = defaultPredictorEffortPercent;
+		} else if (_predictorEffortPercent < 0
+				|| _predictorEffortPercent > 100) {
+			throw new Exception(
+					"PREDICTOR-effort-percent must be between 0 and 100.\nCurrently set to "
+							+ _predictorEffortPercent);
+		}
+
 		_predictorGA = PredictionGA.PredictionGAWithParameters(this,
 				GetPredictorParameters(_parameters));
 
+		// The first trainers are evaluated as the predictor GA is created.
+		// That effort isn't counted against either population, so that the
+		// predictors can start evolving straight away.
+		_effort.set(0);
+
 	}
 
 	protected void InitInterpreter(Interpreter inInterpreter) {
@@ -119,10 +147,25 @@ public class CEFloatSymbolicRegression extends PushGP {
 	
 	@Override
 	protected void BeginGeneration() throws Exception {
-		//trh Temporary solution, needs to actually use effort info
-		if(_generationCount % 2 == 1){
-			_predictorGA.Run(1);			
-		}	
+		_predictorGA.ClearErrorTable();
+
+		// Run predictor generations until the predictors have had their share
+		// of the effort. A predictor generation which runs no test cases,
+		// since all of its results are in the error table, is taken as a sign
+		// that the predictors can't use any more effort this generation.
+		while (_predictorEffort < _predictorEffortPercent / 100
+				* _effort.get()) {
+			long effort = _effort.get();
+
+			_predictorGA.Run(1);
+			_predictorGenerations++;
+
+			effort = _effort.get() - effort;
+			_predictorEffort += effort;
+
+			if (effort == 0)
+				break;
+		}
 	}
 	
 	/**
@@ -132,29 +175,31 @@ public class CEFloatSymbolicRegression extends PushGP {
 			boolean duringSimplify) {
 		
 		FloatRegFitPredictionIndividual predictor = (FloatRegFitPredictionIndividual) _predictorGA.GetBestPredictor();
-		float fitness = predictor.PredictSolutionFitness((PushGPIndividual) inIndividual);
+		float fitness = predictor.PredictSolutionFitness(
+				(PushGPIndividual) inIndividual, _predictorGA._errorTable);
 
 		inIndividual.SetFitness(fitness);
-		inIndividual.SetErrors(new ArrayList<Float>());
+		inIndividual.ResizeErrors(0);
 	}
 
 	public float EvaluateTestCase(GAIndividual inIndividual, Object inInput,
 			Object inOutput) {
-		_effort++;
+		Interpreter interpreter = GetInterpreter();
+		_effort.incrementAndGet();
 
-		_interpreter.ClearStacks();
+		interpreter.ClearStacks();
 
-		_currentInput = (Float) inInput;
+		float currentInput = (Float) inInput;
 
-		floatStack fstack = _interpreter.floatStack();
+		floatStack fstack = interpreter.floatStack();
 
-		fstack.push(_currentInput);
+		fstack.push(currentInput);
 
 		// Must be included in order to use the input stack.
-		_interpreter.inputStack().push(_currentInput);
+		interpreter.inputStack().push(currentInput);
 
-		_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-				_executionLimit);
+		interpreter.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
 		
 		float result = fstack.top();
 
@@ -199,7 +244,23 @@ public class CEFloatSymbolicRegression extends PushGP {
 	protected String Report() {
 		Success(); // Finds the real fitness of the best individual
 		
-		return super.Report();
+		return super.Report() + EffortReport();
+	}
+
+	/**
+	 * Reports the effort used by each population so far.
+	 */
+	protected String EffortReport() {
+		long effort = _effort.get();
+		long solutionEffort = effort - _predictorEffort;
+		float share = effort == 0 ? 0 : 100f * _predictorEffort / effort;
+
+		return ";; Solution Effort: " + solutionEffort
+				+ " test case executions\n"
+				+ ";; Predictor Effort: " + _predictorEffort
+				+ " test case executions (" + share + "%, target "
+				+ _predictorEffortPercent + "%) in " + _predictorGenerations
+				+ " generations\n\n";
 	}
 
 	private HashMap<String, String> GetPredictorParameters(
@@ -251,7 +312,7 @@ public class CEFloatSymbolicRegression extends PushGP {
 				_bestMeanFitness = i.GetFitness();
 				_bestIndividual = n;
 				_bestSize = ((PushGPIndividual) i)._program.programsize();
-				_bestErrors = i.GetErrors();
+				SetBestErrors(i);
 			}
 		}
 		
@@ -319,4 +380,24 @@ public class CEFloatSymbolicRegression extends PushGP {
 		return simplest;
 	}
 
+	protected void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		super.WriteCheckpoint(inOut);
+
+		inOut.WriteLong(_effort.get());
+		inOut.WriteLong(_predictorEffort);
+		inOut.WriteInt(_predictorGenerations);
+		inOut.WriteBoolean(_success);
+		_predictorGA.WriteCheckpoint(inOut);
+	}
+
+	protected void ReadCheckpoint(BinaryCheckpoint inIn) throws Exception {
+		super.ReadCheckpoint(inIn);
+
+		_effort.set(inIn.ReadLong());
+		_predictorEffort = inIn.ReadLong();
+		_predictorGenerations = inIn.ReadInt();
+		_success = inIn.ReadBoolean();
+		_predictorGA.ReadCheckpoint(inIn);
+	}
+
 }
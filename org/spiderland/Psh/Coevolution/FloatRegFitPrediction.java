@@ -1,7 +1,5 @@
 package org.spiderland.Psh.Coevolution;
 
-import java.util.ArrayList;
-
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.PushGPIndividual;
 
@@ -23,19 +21,33 @@ public class FloatRegFitPrediction extends PredictionGA {
 	protected void EvaluateIndividual(GAIndividual inIndividual) {
 		
 		FloatRegFitPredictionIndividual predictor = (FloatRegFitPredictionIndividual) inIndividual;
-		ArrayList<Float> errors = new ArrayList<Float>();
+		float predictions[] = new float[_trainerPopulationSize];
+
+		for(int i = 0; i < _trainerPopulationSize; i++){			
+			predictions[i] = predictor.PredictSolutionFitness(
+					_trainerPopulation.get(i), _errorTable);
+		}
+		
+		ScorePredictor(predictor, predictions, 0, 1);
+	}
+
+	@Override
+	protected void ScorePredictor(GAIndividual inIndividual,
+			float inPredictions[], int inFirst, int inStride) {
+		float errors[] = inIndividual.ResizeErrors(_trainerPopulationSize);
+		int offset = inIndividual.GetErrorOffset();
 
 		for(int i = 0; i < _trainerPopulationSize; i++){			
-			float predictedError = predictor.PredictSolutionFitness(_trainerPopulation.get(i));
+			float predictedError = inPredictions[inFirst + i * inStride];
 			
 			// Error is difference between predictedError and the actual fitness
 			// of the trainer.
 			float error = Math.abs(predictedError) - Math.abs(_trainerPopulation.get(i).GetFitness());
-			errors.add(error);
+			errors[offset + i] = error;
 		}
 		
-		predictor.SetFitness(AbsoluteAverageOfErrors(errors));
-		predictor.SetErrors(errors);
+		inIndividual.SetFitness(AbsoluteAverageOfErrors(errors, offset,
+				_trainerPopulationSize));
 	}
 
 	/**
@@ -55,7 +67,7 @@ public class FloatRegFitPrediction extends PredictionGA {
 		float trainerFitness = (Float) inOutput;
 
 		float predictedTrainerFitness = ((PredictionGAIndividual) inIndividual)
-				.PredictSolutionFitness(trainer);
+				.PredictSolutionFitness(trainer, _errorTable);
 
 		return Math.abs(predictedTrainerFitness - trainerFitness);
 	}
@@ -1,8 +1,10 @@
 package org.spiderland.Psh.Coevolution;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
 
+import org.spiderland.Psh.BinaryCheckpoint;
+import org.spiderland.Psh.GA;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.GATestCase;
 import org.spiderland.Psh.PushGP;
@@ -53,6 +55,9 @@ public class FloatRegFitPredictionIndividual extends PredictionGAIndividual {
 	 * @param sample
 	 */
 	public void SetSampleIndex(int inIndex, int inSample){
+		if (_sampleIndices[inIndex] != inSample)
+			ClearTrainerPredictions();
+
 		_sampleIndices[inIndex] = inSample;
 	}
 	
@@ -62,27 +67,57 @@ public class FloatRegFitPredictionIndividual extends PredictionGAIndividual {
 			_sampleIndices[i] = inSamples[i];
 		}
 		_solutionGA = inSolutionGA;
+		ClearTrainerPredictions();
 	}
 	
 	@Override
 	public float PredictSolutionFitness(PushGPIndividual pgpIndividual) {
-		ArrayList<Float> errors = new ArrayList<Float>();
+		float errors[] = new float[_sampleSize];
 
 		for (int n = 0; n < _sampleSize; n++) {
 			GATestCase test = _solutionGA._testCases.get(_sampleIndices[n]);
-			float e = _solutionGA.EvaluateTestCase(pgpIndividual, test._input,
-					test._output);
-			errors.add(e);
+			errors[n] = _solutionGA.EvaluateTestCase(pgpIndividual,
+					test._input, test._output);
 		}
 		
-		return AbsoluteAverageOfErrors(errors);
+		return AbsoluteAverageOfErrors(errors, _sampleSize);
+	}
+
+	@Override
+	public float PredictSolutionFitness(PushGPIndividual pgpIndividual,
+			SolutionErrorTable inTable) {
+		float row[] = inTable.Row(pgpIndividual);
+		float errors[] = new float[_sampleSize];
+
+		for (int n = 0; n < _sampleSize; n++)
+			errors[n] = inTable.Error(row, pgpIndividual, _sampleIndices[n]);
+
+		return AbsoluteAverageOfErrors(errors, _sampleSize);
 	}
 
 	@Override
 	public GAIndividual clone() {
-		return new FloatRegFitPredictionIndividual(_solutionGA, _sampleIndices);
+		FloatRegFitPredictionIndividual clone = new FloatRegFitPredictionIndividual(
+				_solutionGA, _sampleIndices);
+
+		clone.SetTrainerPredictions(_firstTrainer, _trainerPredictions);
+
+		return clone;
 	}
 	
+	public void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		super.WriteCheckpoint(inOut);
+		inOut.WriteInts(_sampleIndices);
+	}
+
+	public void ReadCheckpoint(BinaryCheckpoint inIn, GA inGA)
+			throws Exception {
+		super.ReadCheckpoint(inIn, inGA);
+		_sampleIndices = inIn.ReadInts();
+		_solutionGA = ((PredictionGA) inGA)._solutionGA;
+		ClearTrainerPredictions();
+	}
+
 	public String toString() {
 		String str = "Prediction Indices: [ ";
 		for(int i : _sampleIndices){
@@ -36,8 +36,10 @@ public class GenericPredictionIndividual extends PredictionGAIndividual{
 	}
 	
 	void SetProgram(Program inProgram) {
-		if (inProgram != null)
+		if (inProgram != null) {
 			_program = new Program(inProgram);
+			ClearTrainerPredictions();
+		}
 	}
 
 	public String toString() {
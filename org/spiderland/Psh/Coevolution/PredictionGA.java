@@ -16,9 +16,12 @@
 
 package org.spiderland.Psh.Coevolution;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
+import org.spiderland.Psh.BinaryCheckpoint;
 import org.spiderland.Psh.GA;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.PushGP;
@@ -37,12 +40,21 @@ public abstract class PredictionGA extends GA {
 	// Note: Oldest trainer has the lowest index; newest trainer has the highest
 	// index.
 	protected ArrayList<PushGPIndividual> _trainerPopulation;
+	// Each trainer has a serial number, which is used to look up predictions
+	// of its fitness stored in the predictors. Trainers are numbered in the
+	// order they are added, so those in the trainer population have serial
+	// numbers from _firstTrainer to _firstTrainer + trainers - 1.
+	protected long _firstTrainer;
 	protected int _generationsBetweenTrainers;
 	protected int _trainerPopulationSize;
 
 	// The solution population and genetic algorithm.
 	protected PushGP _solutionGA;
 
+	// The errors of the solution individuals on test cases, shared by all of
+	// the predictors and cleared every solution generation.
+	protected SolutionErrorTable _errorTable;
+
 	/**
 	 * Customizes GA.GAWithParameters to allow the inclusion of the solution GA,
 	 * which is required for the initialization of the prediction GA.
@@ -100,6 +112,7 @@ public abstract class PredictionGA extends GA {
 			
 			_trainerPopulation.remove(0);
 			_trainerPopulation.add(newTrainer);
+			_firstTrainer++;
 			
 			EvaluateTrainerFitnesses();
 			
@@ -122,29 +135,28 @@ public abstract class PredictionGA extends GA {
 	 * of the predictions from the current predictor population.
 	 */
 	protected PushGPIndividual ChooseNewTrainer() {
-		ArrayList<Float> individualVariances = new ArrayList<Float>();
-		
-		for (int i = 0; i < _solutionGA.GetPopulationSize(); i++) {
-			PushGPIndividual individual = (PushGPIndividual) _solutionGA
-					.GetIndividualFromPopulation(i);
-
-			ArrayList<Float> predictions = new ArrayList<Float>();
-			for (int j = 0; j < _populations[_currentPopulation].length; j++) {
-				PredictionGAIndividual predictor = (PredictionGAIndividual) _populations[_currentPopulation][j];
-				predictions.add(predictor.PredictSolutionFitness(individual));		
-			}
+		int size = _solutionGA.GetPopulationSize();
+		int predictors = _populations[_currentPopulation].length;
+		ArrayList<PushGPIndividual> individuals = new ArrayList<PushGPIndividual>(
+				size);
 
-			individualVariances.add(Variance(predictions));
-		}
+		for (int i = 0; i < size; i++)
+			individuals.add((PushGPIndividual) _solutionGA
+					.GetIndividualFromPopulation(i));
+
+		float predictions[] = PredictionMatrix(individuals,
+				_populations[_currentPopulation]);
 
 		// Find individual with the highest variance
 		int highestVarianceIndividual = 0;
-		float highestVariance = individualVariances.get(0);
+		float highestVariance = Variance(predictions, 0, predictors);
+
+		for (int i = 1; i < size; i++) {
+			float variance = Variance(predictions, i * predictors, predictors);
 
-		for (int i = 0; i < _solutionGA.GetPopulationSize(); i++) {
-			if (highestVariance < individualVariances.get(i)) {
+			if (highestVariance < variance) {
 				highestVarianceIndividual = i;
-				highestVariance = individualVariances.get(i);
+				highestVariance = variance;
 			}
 		}
 
@@ -152,6 +164,115 @@ public abstract class PredictionGA extends GA {
 				.GetIndividualFromPopulation(highestVarianceIndividual);
 	}
 
+	/**
+	 * Predicts the fitness of each of a list of solution individuals with
+	 * each of a list of predictors. The individuals are shared out among the
+	 * solution GA's evaluation threads, so that each individual is only run
+	 * on one thread.
+	 * 
+	 * @return The predictions, with the prediction of individual i by
+	 *         predictor j at index i * inPredictors.length + j.
+	 */
+	protected float[] PredictionMatrix(final List<PushGPIndividual> inIndividuals,
+			final GAIndividual inPredictors[]) {
+		final int predictors = inPredictors.length;
+		final float predictions[] = new float[inIndividuals.size() * predictors];
+
+		_solutionGA.RunInParallel(inIndividuals.size(),
+				new PushGP.IndexedTask() {
+					public void Run(int inIndex) {
+						PushGPIndividual individual = inIndividuals.get(inIndex);
+
+						for (int j = 0; j < predictors; j++)
+							predictions[inIndex * predictors + j] = ((PredictionGAIndividual) inPredictors[j])
+									.PredictSolutionFitness(individual, _errorTable);
+					}
+				});
+
+		return predictions;
+	}
+
+	/**
+	 * Evaluates the predictor population against the trainers. Each
+	 * predictor keeps its predictions for the trainers from one generation to
+	 * the next, so only the trainers which are new to it, usually none or the
+	 * newest, have to be predicted. The predictions are made in parallel, and
+	 * each predictor is then scored by ScorePredictor.
+	 */
+	@Override
+	protected void Evaluate() {
+		GAIndividual population[] = _populations[_currentPopulation];
+		float predictions[] = TrainerPredictions(population);
+		double totalFitness = 0;
+
+		_bestMeanFitness = Float.MAX_VALUE;
+
+		AssignErrorRows(_trainerPopulation.size());
+
+		for (int n = 0; n < population.length; n++) {
+			GAIndividual i = population[n];
+
+			ScorePredictor(i, predictions, n, population.length);
+
+			totalFitness += i.GetFitness();
+
+			if (i.GetFitness() < _bestMeanFitness) {
+				_bestMeanFitness = i.GetFitness();
+				_bestIndividual = n;
+				SetBestErrors(i);
+			}
+		}
+
+		_populationMeanFitness = totalFitness / population.length;
+	}
+
+	/**
+	 * Finds the predictions of each predictor for each trainer, using the
+	 * predictions stored in the predictors where there are any, and stores
+	 * the updated predictions back in the predictors. The trainers are shared
+	 * out among the solution GA's evaluation threads, in the same way as the
+	 * individuals of PredictionMatrix.
+	 * 
+	 * @return The predictions, with the prediction of trainer i by predictor
+	 *         j at index i * inPredictors.length + j.
+	 */
+	protected float[] TrainerPredictions(final GAIndividual inPredictors[]) {
+		final int predictors = inPredictors.length;
+		final int trainers = _trainerPopulation.size();
+		final long firstTrainer = _firstTrainer;
+		final float predictions[] = new float[trainers * predictors];
+
+		_solutionGA.RunInParallel(trainers, new PushGP.IndexedTask() {
+			public void Run(int inIndex) {
+				PushGPIndividual trainer = _trainerPopulation.get(inIndex);
+				long serial = firstTrainer + inIndex;
+
+				for (int j = 0; j < predictors; j++) {
+					PredictionGAIndividual predictor = (PredictionGAIndividual) inPredictors[j];
+
+					if (predictor.HasTrainerPrediction(serial))
+						predictions[inIndex * predictors + j] = predictor
+								.GetTrainerPrediction(serial);
+					else
+						predictions[inIndex * predictors + j] = predictor
+								.PredictSolutionFitness(trainer, _errorTable);
+				}
+			}
+		});
+
+		for (int j = 0; j < predictors; j++) {
+			float stored[] = new float[trainers];
+
+			for (int i = 0; i < trainers; i++)
+				stored[i] = predictions[i * predictors + j];
+
+			((PredictionGAIndividual) inPredictors[j]).SetTrainerPredictions(
+					firstTrainer, stored);
+		}
+
+		return predictions;
+	}
+
 	protected PredictionGAIndividual GetBestPredictor(){
 		float bestFitness = Float.MAX_VALUE;
 		GAIndividual bestPredictor = _populations[_currentPopulation][0];
@@ -178,6 +299,16 @@ public abstract class PredictionGA extends GA {
 	
 	protected void SetSolutionGA(PushGP inGA) {
 		_solutionGA = inGA;
+		_errorTable = new SolutionErrorTable(inGA);
+	}
+
+	/**
+	 * Empties the table of solution test case errors. This must be called
+	 * whenever the solution population changes, usually at the start of each
+	 * solution generation.
+	 */
+	public void ClearErrorTable() {
+		_errorTable.Clear();
 	}
 
 	/**
@@ -207,6 +338,8 @@ public abstract class PredictionGA extends GA {
 		report += ";; Best Predictor Fitness: " + _bestMeanFitness + "\n\n";
 
 		report += ";; Mean Predictor Fitness: " + _populationMeanFitness + "\n";
+		report += ";; Solution Error Table Hits: " + _errorTable.GetHits()
+				+ ", Misses: " + _errorTable.GetMisses() + "\n";
 				
 		// The following code prints all of the predictors.
 		/*
@@ -225,24 +358,54 @@ public abstract class PredictionGA extends GA {
 	protected String FinalReport() {
 		return "";
 	}
+
+	protected void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		super.WriteCheckpoint(inOut);
+
+		inOut.WriteInt(_trainerPopulation.size());
+
+		for (PushGPIndividual trainer : _trainerPopulation)
+			trainer.WriteCheckpoint(inOut);
+	}
+
+	protected void ReadCheckpoint(BinaryCheckpoint inIn) throws Exception {
+		super.ReadCheckpoint(inIn);
+
+		int trainers = inIn.ReadInt();
+
+		_trainerPopulation = new ArrayList<PushGPIndividual>();
+		_firstTrainer = 0;
+
+		for (int n = 0; n < trainers; n++) {
+			PushGPIndividual trainer = new PushGPIndividual();
+
+			trainer.ReadCheckpoint(inIn, _solutionGA);
+			_trainerPopulation.add(trainer);
+		}
+	}
 	
-	private Float Variance(ArrayList<Float> list) {
-		float sampleMean = SampleMean(list);
+	/**
+	 * Returns the sample variance of inCount values of an array, starting at
+	 * inFirst.
+	 */
+	private float Variance(float inValues[], int inFirst, int inCount) {
+		float sampleMean = SampleMean(inValues, inFirst, inCount);
 		float sum = 0;
 		
-		for(float element : list){
+		for (int n = inFirst; n < inFirst + inCount; n++) {
+			float element = inValues[n];
 			sum += (element - sampleMean) * (element - sampleMean);
 		}
 		
-		return (sum / (list.size() - 1));
+		return (sum / (inCount - 1));
 	}
 
-	private float SampleMean(ArrayList<Float> list) {
+	private float SampleMean(float inValues[], int inFirst, int inCount) {
 		float total = 0;
-		for(float element : list){
-			total += element;
+		for (int n = inFirst; n < inFirst + inCount; n++) {
+			total += inValues[n];
 		}
-		return (total / list.size());
+		return (total / inCount);
 	}
 
 	/**
@@ -259,6 +422,17 @@ public abstract class PredictionGA extends GA {
 	@Override
 	protected abstract void EvaluateIndividual(GAIndividual inIndividual);
 
+	/**
+	 * Sets a predictor's fitness from its predictions of the fitnesses of the
+	 * trainers, in the same way as EvaluateIndividual.
+	 * 
+	 * @param inPredictions
+	 *            The predictions, where the prediction for trainer n is at
+	 *            inFirst + n * inStride.
+	 */
+	protected abstract void ScorePredictor(GAIndividual inIndividual,
+			float inPredictions[], int inFirst, int inStride);
+
 	/**
 	 * Determines the predictor's fitness on a trainer, where the trainer is the
 	 * inInput, and the trainer's actual fitness (or rank, whatever is to be
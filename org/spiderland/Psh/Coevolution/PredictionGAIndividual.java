@@ -16,8 +16,6 @@
 
 package org.spiderland.Psh.Coevolution;
 
-import java.util.ArrayList;
-
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.PushGPIndividual;
 
@@ -29,6 +27,13 @@ import org.spiderland.Psh.PushGPIndividual;
 public abstract class PredictionGAIndividual extends GAIndividual {
 	private static final long serialVersionUID = 1L;
 
+	// The predictor's predictions of the fitnesses of trainers, kept by
+	// PredictionGA so that a predictor is only run once on each trainer.
+	// _trainerPredictions[n] is the prediction for the trainer with serial
+	// number _firstTrainer + n.
+	protected transient float _trainerPredictions[];
+	protected transient long _firstTrainer;
+
 	/**
 	 * Predicts the fitness of the input PushGPIndividual
 	 * 
@@ -36,22 +41,76 @@ public abstract class PredictionGAIndividual extends GAIndividual {
 	 * @return predicted fitness
 	 */
 	public abstract float PredictSolutionFitness(PushGPIndividual pgpIndividual);
+
+	/**
+	 * Predicts the fitness of the input PushGPIndividual, looking up its
+	 * errors on test cases in a table shared by all of the predictors.
+	 * Predictors which don't run the individual on test cases can ignore the
+	 * table, which is what this default does.
+	 * 
+	 * @param individual to predict the fitness of
+	 * @param inTable the shared table of test case errors
+	 * @return predicted fitness
+	 */
+	public float PredictSolutionFitness(PushGPIndividual pgpIndividual,
+			SolutionErrorTable inTable) {
+		return PredictSolutionFitness(pgpIndividual);
+	}
 	
+	/**
+	 * Returns true if the predictor has a stored prediction for the trainer
+	 * with the given serial number.
+	 */
+	public boolean HasTrainerPrediction(long inTrainer) {
+		return _trainerPredictions != null && inTrainer >= _firstTrainer
+				&& inTrainer < _firstTrainer + _trainerPredictions.length;
+	}
+
+	public float GetTrainerPrediction(long inTrainer) {
+		return _trainerPredictions[(int) (inTrainer - _firstTrainer)];
+	}
+
+	/**
+	 * Stores the predictor's predictions for a range of trainers. The array
+	 * is kept, not copied, and must not be changed afterwards, since it may
+	 * be shared with clones of the predictor.
+	 * 
+	 * @param inFirstTrainer
+	 *            The serial number of the trainer of inPredictions[0].
+	 */
+	public void SetTrainerPredictions(long inFirstTrainer,
+			float inPredictions[]) {
+		_firstTrainer = inFirstTrainer;
+		_trainerPredictions = inPredictions;
+	}
+
+	/**
+	 * Discards the stored trainer predictions, which must be done whenever
+	 * the predictor is changed.
+	 */
+	public void ClearTrainerPredictions() {
+		_trainerPredictions = null;
+	}
+
 	/**
 	 * Computes the absolute-average-of-errors fitness from an error vector.
 	 * 
+	 * @param inErrors
+	 *            The error vector.
+	 * @param inCount
+	 *            The number of errors in inErrors.
 	 * @return the average error value for the vector.
 	 */
-	protected float AbsoluteAverageOfErrors(ArrayList<Float> inArray) {
+	protected float AbsoluteAverageOfErrors(float inErrors[], int inCount) {
 		float total = 0.0f;
 
-		for (int n = 0; n < inArray.size(); n++)
-			total += Math.abs(inArray.get(n));
+		for (int n = 0; n < inCount; n++)
+			total += Math.abs(inErrors[n]);
 
 		if(Float.isInfinite(total))
 			return Float.MAX_VALUE;
 		
-		return (total / inArray.size());
+		return (total / inCount);
 	}
 
 }
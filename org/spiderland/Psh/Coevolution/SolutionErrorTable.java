@@ -0,0 +1,126 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.Coevolution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spiderland.Psh.GATestCase;
+import org.spiderland.Psh.Program;
+import org.spiderland.Psh.PushGP;
+import org.spiderland.Psh.PushGPIndividual;
+
+/**
+ * A table of the errors of solution programs on single test cases, shared by
+ * all of the predictors of a PredictionGA. Predictors often sample the same
+ * test cases, and every solution individual is predicted by every predictor
+ * when a new trainer is chosen, so without the table the same program would
+ * be run on the same test case many times over.
+ *
+ * Programs are looked up by value, so that duplicate programs share a row. A
+ * row holds an error for each test case, with NaN for the cases which haven't
+ * been run. The table is cleared at the start of each solution generation, so
+ * that it only ever holds one generation's programs. If the programs use
+ * random instructions, a program's error on a test case is drawn once per
+ * generation and seen by every predictor.
+ *
+ * The table may be used by several evaluation threads at once. Two threads
+ * may occasionally both run the same test case of a duplicated program, which
+ * costs an execution but does no harm.
+ */
+public class SolutionErrorTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	protected PushGP _solutionGA;
+	protected ConcurrentHashMap<Program, float[]> _rows = new ConcurrentHashMap<Program, float[]>();
+
+	protected AtomicLong _hits = new AtomicLong();
+	protected AtomicLong _misses = new AtomicLong();
+
+	public SolutionErrorTable(PushGP inSolutionGA) {
+		_solutionGA = inSolutionGA;
+	}
+
+	/**
+	 * Returns the row of errors of an individual's program, adding an empty
+	 * row if the program isn't in the table. The row is passed to Error to
+	 * look up each test case, so that the program is only hashed once.
+	 */
+	public float[] Row(PushGPIndividual inIndividual) {
+		float row[] = _rows.get(inIndividual._program);
+
+		if (row == null) {
+			float newRow[] = new float[_solutionGA._testCases.size()];
+			Arrays.fill(newRow, Float.NaN);
+
+			// The key is a copy, since the individual's program may be
+			// changed in place after it has been predicted.
+			row = _rows.putIfAbsent(new Program(inIndividual._program), newRow);
+
+			if (row == null)
+				row = newRow;
+		}
+
+		return row;
+	}
+
+	/**
+	 * Returns an individual's error on a test case, running the test case if
+	 * it isn't already in the individual's row.
+	 *
+	 * @param ioRow
+	 *            The individual's row, as returned by Row.
+	 * @param inCase
+	 *            The index of the test case in the solution GA's test cases.
+	 */
+	public float Error(float ioRow[], PushGPIndividual inIndividual, int inCase) {
+		float error = ioRow[inCase];
+
+		if (!Float.isNaN(error)) {
+			_hits.incrementAndGet();
+			return error;
+		}
+
+		_misses.incrementAndGet();
+
+		GATestCase test = _solutionGA._testCases.get(inCase);
+		error = _solutionGA.EvaluateTestCase(inIndividual, test._input,
+				test._output);
+
+		ioRow[inCase] = error;
+
+		return error;
+	}
+
+	/**
+	 * Empties the table, which is done at the start of every solution
+	 * generation.
+	 */
+	public void Clear() {
+		_rows.clear();
+	}
+
+	public long GetHits() {
+		return _hits.get();
+	}
+
+	public long GetMisses() {
+		return _misses.get();
+	}
+}
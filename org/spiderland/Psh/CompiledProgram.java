@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.util.ArrayList;
+
+/**
+ * A Push program compiled into a flat array of opcodes, in the order in which
+ * the points of the program would be popped off of the exec stack.
+ *
+ * Each point of the program occupies one slot of the code array. Instructions
+ * are stored as opcodes which index the interpreter's instruction table.
+ * Integer and float literals index the constant pools, and lists store the
+ * index one past their last point so that the interpreter can rebuild the
+ * exec stack if it has to leave the compiled form. Instructions may appear in
+ * the source program either by name or as interned Instruction objects. Anything
+ * else (such as names) is executed through the original object.
+ *
+ * A compiled program is immutable, and must be rebuilt if the source program
+ * changes.
+ */
+
+public class CompiledProgram {
+	static final int OP_INTEGER = -1;
+	static final int OP_FLOAT = -2;
+	static final int OP_LIST = -3;
+	static final int OP_OBJECT = -4;
+
+	final Program _program;
+
+	final int _code[];
+	final int _operands[];
+	final Object _objects[];
+
+	final int _intConstants[];
+	final float _floatConstants[];
+
+	final int _maxDepth;
+
+	/**
+	 * Compiles a Push program using the instruction names known to the given
+	 * interpreter.
+	 *
+	 * @param inProgram
+	 *            The program to compile.
+	 * @param inInterpreter
+	 *            The interpreter whose instruction names are used to resolve
+	 *            instructions to opcodes.
+	 */
+
+	public CompiledProgram(Program inProgram, Interpreter inInterpreter) {
+		_program = inProgram;
+
+		int points = inProgram.programsize() + 1;
+
+		_code = new int[points];
+		_operands = new int[points];
+		_objects = new Object[points];
+
+		ArrayList<Integer> ints = new ArrayList<Integer>();
+		ArrayList<Float> floats = new ArrayList<Float>();
+
+		_maxDepth = Compile(inProgram, 0, inInterpreter, ints, floats, 1);
+
+		_intConstants = new int[ints.size()];
+		for (int n = 0; n < _intConstants.length; n++)
+			_intConstants[n] = ints.get(n);
+
+		_floatConstants = new float[floats.size()];
+		for (int n = 0; n < _floatConstants.length; n++)
+			_floatConstants[n] = floats.get(n);
+	}
+
+	/**
+	 * Returns the program this was compiled from.
+	 */
+
+	public Program GetProgram() {
+		return _program;
+	}
+
+	/**
+	 * Returns the number of slots in the compiled code, which is the size of
+	 * the source program plus one for the program itself.
+	 */
+
+	public int size() {
+		return _code.length;
+	}
+
+	/**
+	 * Compiles a list and its contents starting at a given slot.
+	 *
+	 * @return The maximum list nesting depth found.
+	 */
+
+	private int Compile(Program inList, int inSlot, Interpreter inInterpreter,
+			ArrayList<Integer> ioInts, ArrayList<Float> ioFloats, int inDepth) {
+		int slot = inSlot + 1;
+		int maxDepth = inDepth;
+
+		for (int n = 0; n < inList.size(); n++) {
+			Object o = inList.peek(n);
+
+			if (o instanceof Program) {
+				int depth = Compile((Program) o, slot, inInterpreter, ioInts,
+						ioFloats, inDepth + 1);
+				maxDepth = Math.max(maxDepth, depth);
+				slot = _operands[slot];
+				continue;
+			}
+
+			_objects[slot] = o;
+
+			if (o instanceof Integer) {
+				_code[slot] = OP_INTEGER;
+				_operands[slot] = ioInts.size();
+				ioInts.add((Integer) o);
+			} else if (o instanceof Float) {
+				_code[slot] = OP_FLOAT;
+				_operands[slot] = ioFloats.size();
+				ioFloats.add((Float) o);
+			} else if (o instanceof String
+					&& inInterpreter._instructions.containsKey(o)) {
+				_code[slot] = Interpreter.Opcode((String) o);
+			} else if (o instanceof Instruction
+					&& inInterpreter._instructionNames.containsKey(o)) {
+				_code[slot] = Interpreter.Opcode(inInterpreter._instructionNames
+						.get(o));
+			} else {
+				_code[slot] = OP_OBJECT;
+			}
+
+			slot++;
+		}
+
+		_code[inSlot] = OP_LIST;
+		_operands[inSlot] = slot;
+		_objects[inSlot] = inList;
+
+		return maxDepth;
+	}
+
+	public String toString() {
+		return _program.toString();
+	}
+}
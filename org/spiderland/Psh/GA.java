@@ -17,9 +17,9 @@
 package org.spiderland.Psh;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * An abstract class for running genetic algorithms.
@@ -32,6 +32,15 @@ public abstract class GA implements Serializable {
 	protected int _currentPopulation;
 	protected int _generationCount;
 
+	// The test case errors of each population. The errors of the individual
+	// in slot n of population p are a row of _errorMatrices[p], starting at
+	// n times the number of test cases.
+	protected float _errorMatrices[][];
+
+	// Individuals of the population being replaced during reproduction, which
+	// are reused for the new individuals instead of allocating more.
+	protected transient ArrayList<GAIndividual> _recycledIndividuals;
+
 	protected float _mutationPercent;
 	protected float _crossoverPercent;
 
@@ -39,12 +48,22 @@ public abstract class GA implements Serializable {
 	protected double _populationMeanFitness;
 	protected int _bestIndividual;
 
-	protected ArrayList<Float> _bestErrors;
+	protected float _bestErrors[];
 
 	protected int _maxGenerations;
 	protected int _tournamentSize;
 	protected int _trivialGeographyRadius;
 
+	protected String _selectionMode;
+	protected transient LexicaseSelection _lexicase;
+
+	protected GA _islands[];
+	protected boolean _isIsland;
+	protected int _migrationInterval;
+	protected int _migrationSize;
+	protected String _migrationTopology;
+	protected transient ExecutorService _islandExecutor;
+
 	protected Random _RNG;
 
 	protected HashMap<String, String> _parameters;
@@ -56,8 +75,19 @@ public abstract class GA implements Serializable {
 
 	protected Checkpoint _checkpoint;
 	protected String _checkpointPrefix;
+	protected int _checkpointInterval;
+	protected int _generationsSinceCheckpoint;
+	protected transient CheckpointWriter _checkpointWriter;
 	protected String _outputfile;
 
+	// Timing of each generation's phases, which is shown in the report and
+	// appended to _metricsFile as a line of JSON. The lines of an island are
+	// kept in _metricsLines until the island model GA writes them.
+	protected String _metricsFile;
+	protected transient GenerationMetrics _metrics;
+	protected transient StringBuilder _metricsLines;
+	protected transient int _metricsIsland;
+
 	/**
 	 * Factor method for creating a GA object, with the GA class specified by
 	 * the problem-class parameter.
@@ -81,19 +111,32 @@ public abstract class GA implements Serializable {
 		return ga;
 	}
 
+	/**
+	 * Factory method for restoring a GA from a checkpoint file. Both binary
+	 * checkpoints and the older serialized checkpoints can be read.
+	 */
+
 	public static GA GAWithCheckpoint(String checkpoint) throws Exception {
 		File checkpointFile = new File(checkpoint);
 		FileInputStream zin = new FileInputStream(checkpointFile);
-		GZIPInputStream in = new GZIPInputStream(zin);
-		ObjectInputStream oin = new ObjectInputStream(in);
+		InputStream in = new BufferedInputStream(new GZIPInputStream(zin));
+		GA ga;
 
-		Checkpoint ckpt = (Checkpoint) oin.readObject();
-		GA ga = ckpt.ga;
-		ga._checkpoint = ckpt;
+		if (BinaryCheckpoint.IsBinaryCheckpoint(in)) {
+			ga = BinaryCheckpoint.Read(in);
+		} else {
+			ObjectInputStream oin = new ObjectInputStream(in);
+			Checkpoint ckpt = (Checkpoint) oin.readObject();
+
+			ga = ckpt.ga;
+			ga._checkpoint = ckpt;
+		}
+
+		Checkpoint ckpt = ga._checkpoint;
 		ckpt.checkpointNumber++; // because it gets increased only after ckpt is
 		// written
 
-		oin.close();
+		in.close();
 
 		System.out.println(ckpt.report.toString());
 
@@ -210,7 +253,13 @@ public abstract class GA implements Serializable {
 		// Default parameters to be used when optional parameters are not
 		// given.
 		int defaultTrivialGeographyRadius = 0;
+		String defaultSelectionMode = "tournament";
 		String defaultIndividualClass = "org.spiderland.Psh.PushGPIndividual";
+		int defaultIslands = 1;
+		int defaultMigrationInterval = 10;
+		int defaultMigrationSize = 5;
+		String defaultMigrationTopology = "ring";
+		int defaultCheckpointInterval = 1;
 		
 		String individualClass = GetParam("individual-class", true);
 		if(individualClass == null){
@@ -230,11 +279,66 @@ public abstract class GA implements Serializable {
 		else{
 			_trivialGeographyRadius = (int) GetFloatParam("trivial-geography-radius", true);
 		}
+
+		_selectionMode = GetParam("selection-mode", true);
+		if (_selectionMode == null) {
+			_selectionMode = defaultSelectionMode;
+		} else if (!_selectionMode.equals("tournament")
+				&& !_selectionMode.equals("lexicase")
+				&& !_selectionMode.equals("epsilon-lexicase")) {
+			throw new Exception(
+					"selection-mode must be set to tournament, lexicase or epsilon-lexicase. Currently set to "
+							+ _selectionMode);
+		}
 		
+		// Island model parameters
+		int islands;
+		if (Float.isNaN(GetFloatParam("islands", true))) {
+			islands = defaultIslands;
+		} else {
+			islands = (int) GetFloatParam("islands", true);
+		}
+		if (Float.isNaN(GetFloatParam("migration-interval", true))) {
+			_migrationInterval = defaultMigrationInterval;
+		} else {
+			_migrationInterval = (int) GetFloatParam("migration-interval", true);
+		}
+		if (Float.isNaN(GetFloatParam("migration-size", true))) {
+			_migrationSize = defaultMigrationSize;
+		} else {
+			_migrationSize = (int) GetFloatParam("migration-size", true);
+		}
+		_migrationTopology = GetParam("migration-topology", true);
+		if (_migrationTopology == null) {
+			_migrationTopology = defaultMigrationTopology;
+		} else if (!_migrationTopology.equals("ring")
+				&& !_migrationTopology.equals("random")) {
+			throw new Exception(
+					"migration-topology must be set to ring or random. Currently set to "
+							+ _migrationTopology);
+		}
+		if (_migrationInterval < 1) {
+			throw new Exception("migration-interval must be at least 1");
+		}
+
 		_checkpointPrefix = GetParam("checkpoint-prefix", true);
+		if (Float.isNaN(GetFloatParam("checkpoint-interval", true))) {
+			_checkpointInterval = defaultCheckpointInterval;
+		} else {
+			_checkpointInterval = (int) GetFloatParam("checkpoint-interval",
+					true);
+		}
+		if (_checkpointInterval < 1) {
+			throw new Exception("checkpoint-interval must be at least 1");
+		}
 		_checkpoint = new Checkpoint(this);
 
-		ResizeAndInitialize((int) GetFloatParam("population-size"));
+		_metricsFile = GetParam("metrics-file", true);
+
+		if (islands > 1)
+			CreateIslands(islands);
+		else
+			ResizeAndInitialize((int) GetFloatParam("population-size"));
 
 		_outputfile = GetParam("output-file", true);
 
@@ -242,6 +346,39 @@ public abstract class GA implements Serializable {
 			_outputStream = new FileOutputStream(new File(_outputfile));
 	}
 
+	/**
+	 * Creates the islands for an island model run. Each island is a GA of the
+	 * same class, set up from the same parameters, with its own population,
+	 * random number generator and (for PushGP) interpreter. The islands do
+	 * not write their own output or checkpoints; both are handled by this GA.
+	 * 
+	 * @param inCount
+	 *            the number of islands.
+	 */
+
+	protected void CreateIslands(int inCount) throws Exception {
+		HashMap<String, String> params = new HashMap<String, String>(
+				_parameters);
+		params.remove("islands");
+		params.remove("output-file");
+		params.remove("checkpoint-prefix");
+		params.remove("checkpoint-interval");
+		params.remove("metrics-file");
+
+		_islands = new GA[inCount];
+		_generationCount = 0;
+
+		for (int n = 0; n < inCount; n++) {
+			GA island = getClass().getDeclaredConstructor().newInstance();
+			island._outputStream = null;
+			island._isIsland = true;
+			island.SetParams(params);
+			island.InitFromParameters();
+
+			_islands[n] = island;
+		}
+	}
+
 	/**
 	 * Sets the population size and resets the GA generation count, as well as
 	 * initializing the population with random individuals.
@@ -292,22 +429,39 @@ public abstract class GA implements Serializable {
 	 */
 
 	public boolean Run(int inGenerations) throws Exception {
+		if (_islands != null)
+			return RunIslands(inGenerations);
+
 		// inGenerations below must have !=, not >, since often inGenerations
 		// is called at -1
+		if (_metrics == null)
+			_metrics = new GenerationMetrics();
+
 		while (!Terminate() && inGenerations != 0) {
+			if (_isIsland)
+				_metrics.SetThreads(MetricsThreadIds());
+
+			_metrics.Start(EvaluationCount(), StepCount());
+
 			BeginGeneration();
+			EndPhase(GenerationMetrics.BEGIN);
 			
 			Evaluate();
+			EndPhase(GenerationMetrics.EVALUATE);
 			Reproduce();
+			EndPhase(GenerationMetrics.REPRODUCE);
 
 			EndGeneration();
+			EndPhase(GenerationMetrics.END);
 			
 			Print(Report());
+			EndPhase(GenerationMetrics.REPORT);
 
-			Checkpoint();
+			Checkpoint(1);
+			EndPhase(GenerationMetrics.CHECKPOINT);
+
+			WriteMetrics();
 
-			System.gc();
-			
 			_currentPopulation = (_currentPopulation == 0 ? 1 : 0);
 			_generationCount++;
 			inGenerations--;
@@ -317,13 +471,212 @@ public abstract class GA implements Serializable {
 			// Since this value was changed after termination conditions were
 			// set, revert back to previous state.
 			_currentPopulation = (_currentPopulation == 0 ? 1 : 0);
-		
-			Print(FinalReport());
+
+			// An island's final report is printed by the island model GA,
+			// and only for the best island.
+			if (!_isIsland)
+				Print(FinalReport());
 		}
+
+		FinishCheckpoints();
 		
 		return (_generationCount < _maxGenerations);
 	}
 
+	/**
+	 * Runs an island model GA until the generation limit is met, or until the
+	 * provided number of generations has elapsed. The islands evolve in
+	 * parallel, each on its own thread, for migration-interval generations at
+	 * a time. The islands' own reports are not printed. At the end of each
+	 * interval a summary line is printed for each island, the best
+	 * individuals migrate between islands, and a checkpoint covering all
+	 * islands is written. When the run ends, the final report of the best
+	 * island is printed.
+	 * 
+	 * @param inGenerations
+	 *            The maximum number of generations to run during this call.
+	 * @return true if the the execution of the GA is complete.
+	 */
+
+	protected boolean RunIslands(int inGenerations) throws Exception {
+		ExecutorService executor = GetIslandExecutor();
+
+		while (!Terminate() && inGenerations != 0) {
+			final int generations = inGenerations < 0 ? _migrationInterval
+					: Math.min(_migrationInterval, inGenerations);
+
+			ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+			for (int n = 0; n < _islands.length; n++) {
+				final GA island = _islands[n];
+
+				island._outputStream = null;
+
+				if (_metricsFile != null) {
+					island._metricsLines = new StringBuilder();
+					island._metricsIsland = n + 1;
+				}
+
+				tasks.add(new Callable<Object>() {
+					public Object call() throws Exception {
+						island.Run(generations);
+						return null;
+					}
+				});
+			}
+
+			try {
+				for (Future<Object> f : executor.invokeAll(tasks))
+					f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during island evolution");
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Error during island evolution", e
+						.getCause());
+			}
+
+			_bestMeanFitness = Float.MAX_VALUE;
+
+			Print("\n");
+
+			for (int n = 0; n < _islands.length; n++) {
+				GA island = _islands[n];
+
+				Print(";; Island " + (n + 1) + " of " + _islands.length
+						+ ": generation " + (island._generationCount - 1)
+						+ ", best fitness " + island._bestMeanFitness
+						+ ", mean fitness " + (float) island._populationMeanFitness
+						+ "\n");
+
+				if (island._metricsLines != null)
+					AppendMetrics(island._metricsLines.toString());
+
+				// The island's reports are not kept.
+				island._checkpoint.report.setLength(0);
+
+				_bestMeanFitness = Math.min(_bestMeanFitness,
+						island._bestMeanFitness);
+				_generationCount = Math.max(_generationCount,
+						island._generationCount);
+			}
+
+			if (!Terminate())
+				Migrate();
+
+			Checkpoint(generations);
+
+			inGenerations -= generations;
+		}
+
+		if (Terminate()) {
+			int best = BestIsland();
+
+			Print("\n;; Best island: " + (best + 1) + " of " + _islands.length
+					+ ", fitness " + _islands[best]._bestMeanFitness + "\n");
+			Print(_islands[best].FinalReport());
+		}
+
+		FinishCheckpoints();
+
+		return (_generationCount < _maxGenerations);
+	}
+
+	/**
+	 * Moves copies of the best individuals of each island to another island,
+	 * where they replace randomly chosen members of the next population. With
+	 * the ring topology island n sends its migrants to island n + 1; with the
+	 * random topology each island picks a different island at random.
+	 */
+
+	protected void Migrate() throws Exception {
+		int count = _islands.length;
+		GAIndividual migrants[][] = new GAIndividual[count][];
+
+		for (int n = 0; n < count; n++) {
+			GA island = _islands[n];
+			int evaluatedPopulation = island._currentPopulation == 0 ? 1 : 0;
+			final GAIndividual evaluated[] = island._populations[evaluatedPopulation];
+			Integer order[] = new Integer[evaluated.length];
+
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer inA, Integer inB) {
+					return Float.compare(evaluated[inA].GetFitness(),
+							evaluated[inB].GetFitness());
+				}
+			});
+
+			migrants[n] = new GAIndividual[Math.min(_migrationSize,
+					evaluated.length)];
+
+			for (int i = 0; i < migrants[n].length; i++)
+				migrants[n][i] = evaluated[order[i]].clone();
+		}
+
+		for (int n = 0; n < count; n++) {
+			int destination;
+
+			if (_migrationTopology.equals("ring"))
+				destination = (n + 1) % count;
+			else
+				destination = (n + 1 + _RNG.nextInt(count - 1)) % count;
+
+			GA island = _islands[destination];
+			GAIndividual population[] = island._populations[island._currentPopulation];
+			ArrayList<Integer> slots = new ArrayList<Integer>();
+
+			for (int i = 0; i < population.length; i++)
+				slots.add(i);
+
+			Collections.shuffle(slots, _RNG);
+
+			for (int i = 0; i < migrants[n].length; i++)
+				population[slots.get(i)] = migrants[n][i];
+		}
+
+		Print(";; Migrated " + migrants[0].length
+				+ " individuals from each island (" + _migrationTopology
+				+ " topology)\n");
+	}
+
+	/**
+	 * Returns the index of the island with the best fitness in its last
+	 * generation.
+	 */
+
+	protected int BestIsland() {
+		int best = 0;
+
+		for (int n = 1; n < _islands.length; n++)
+			if (_islands[n]._bestMeanFitness < _islands[best]._bestMeanFitness)
+				best = n;
+
+		return best;
+	}
+
+	/**
+	 * Returns the pool of island threads, creating it on first use (and again
+	 * after restoring from a checkpoint).
+	 */
+
+	protected ExecutorService GetIslandExecutor() {
+		if (_islandExecutor == null) {
+			_islandExecutor = Executors.newFixedThreadPool(_islands.length,
+					new ThreadFactory() {
+						public Thread newThread(Runnable inRunnable) {
+							Thread t = new Thread(inRunnable, "GA-island");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+
+		return _islandExecutor;
+	}
+
 	/**
 	 * Determine whether the GA should terminate. This method may be overridden
 	 * by subclasses to customize GA behavior.
@@ -350,6 +703,8 @@ public abstract class GA implements Serializable {
 		double totalFitness = 0;
 		_bestMeanFitness = Float.MAX_VALUE;
 
+		AssignErrorRows(_testCases.size());
+
 		for (int n = 0; n < _populations[_currentPopulation].length; n++) {
 			GAIndividual i = _populations[_currentPopulation][n];
 			
@@ -360,13 +715,60 @@ public abstract class GA implements Serializable {
 			if (i.GetFitness() < _bestMeanFitness) {
 				_bestMeanFitness = i.GetFitness();
 				_bestIndividual = n;
-				_bestErrors = i.GetErrors();
+				SetBestErrors(i);
 			}
 		}
 
 		_populationMeanFitness = totalFitness / _populations[_currentPopulation].length;
 	}
 
+	/**
+	 * Gives each individual of the current population its row of the
+	 * population's error matrix, so that the errors of the whole population
+	 * are stored together in one array rather than one per individual. This
+	 * must be done before the population is evaluated.
+	 * 
+	 * @param inCases
+	 *            The number of errors each individual will have. If 0, the
+	 *            individuals store their errors in arrays of their own.
+	 */
+
+	protected void AssignErrorRows(int inCases) {
+		if (inCases == 0)
+			return;
+
+		GAIndividual population[] = _populations[_currentPopulation];
+
+		if (_errorMatrices == null)
+			_errorMatrices = new float[2][];
+
+		float matrix[] = _errorMatrices[_currentPopulation];
+
+		if (matrix == null || matrix.length != population.length * inCases) {
+			matrix = new float[population.length * inCases];
+			_errorMatrices[_currentPopulation] = matrix;
+		}
+
+		for (int n = 0; n < population.length; n++)
+			population[n].SetErrorRow(matrix, n * inCases, inCases);
+	}
+
+	/**
+	 * Copies the errors of an individual into _bestErrors, which is kept for
+	 * the generation report.
+	 */
+
+	protected void SetBestErrors(GAIndividual inIndividual) {
+		int count = inIndividual.GetErrorCount();
+
+		if (_bestErrors == null || _bestErrors.length != count)
+			_bestErrors = new float[count];
+
+		if (count > 0)
+			System.arraycopy(inIndividual.GetErrorMatrix(), inIndividual
+					.GetErrorOffset(), _bestErrors, 0, count);
+	}
+
 	/**
 	 * Reproduces the current population into the next population slot. This
 	 * method may be overridden by subclasses to customize GA behavior.
@@ -374,6 +776,9 @@ public abstract class GA implements Serializable {
 	protected void Reproduce() {
 		int nextPopulation = _currentPopulation == 0 ? 1 : 0;
 
+		RecycleNextPopulation();
+		PrepareSelection();
+
 		for (int n = 0; n < _populations[_currentPopulation].length; n++) {
 			float method = _RNG.nextInt(100);
 			GAIndividual next;
@@ -433,6 +838,88 @@ public abstract class GA implements Serializable {
 		return report;
 	}
 
+	/**
+	 * Returns the number of program evaluations run so far, for the
+	 * generation metrics. GAs which don't count evaluations return 0.
+	 */
+
+	protected long EvaluationCount() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of interpreter steps taken so far, for the
+	 * generation metrics. GAs which don't count steps return 0.
+	 */
+
+	protected long StepCount() {
+		return 0;
+	}
+
+	/**
+	 * Returns the ids of the threads which an island's metrics are measured
+	 * over: the thread running the island, along with any threads it
+	 * evaluates on.
+	 */
+
+	protected long[] MetricsThreadIds() {
+		return new long[] { Thread.currentThread().getId() };
+	}
+
+	/**
+	 * Records the end of a phase of the current generation.
+	 */
+
+	protected void EndPhase(int inPhase) {
+		// An island's evaluation threads may have been started in the phase.
+		if (_isIsland)
+			_metrics.SetThreads(MetricsThreadIds());
+
+		_metrics.EndPhase(inPhase, EvaluationCount(), StepCount());
+	}
+
+	/**
+	 * Returns the timing of the current generation so far, for reports.
+	 */
+
+	protected String MetricsReport() {
+		return _metrics == null ? "" : _metrics.Report();
+	}
+
+	/**
+	 * Writes the current generation's metrics to the metrics file, or keeps
+	 * them for the island model GA to write.
+	 */
+
+	protected void WriteMetrics() throws Exception {
+		if (_metricsFile == null && _metricsLines == null)
+			return;
+
+		String line = _metrics.JSONLine(_generationCount, _metricsIsland,
+				_bestMeanFitness, _populationMeanFitness);
+
+		if (_metricsLines != null)
+			_metricsLines.append(line);
+		else
+			AppendMetrics(line);
+	}
+
+	/**
+	 * Appends lines to the metrics file. The file is never truncated, so that
+	 * a run resumed from a checkpoint continues the same file.
+	 */
+
+	protected void AppendMetrics(String inLines) throws Exception {
+		Writer out = new OutputStreamWriter(new FileOutputStream(
+				_metricsFile, true), "UTF-8");
+
+		try {
+			out.write(inLines);
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * Logs output of the GA run to the appropriate location (which may be
 	 * stdout, or a file).
@@ -446,6 +933,44 @@ public abstract class GA implements Serializable {
 		_checkpoint.report.append(inStr);
 	}
 
+	/**
+	 * Prepares the evaluated current population for selection. For lexicase
+	 * and epsilon-lexicase selection this builds the error matrix used by
+	 * every selection in the generation, so it must be called after the
+	 * population is evaluated and before the first call to SelectIndividual.
+	 */
+
+	protected void PrepareSelection() {
+		if (_selectionMode == null || _selectionMode.equals("tournament"))
+			return;
+
+		if (_lexicase == null)
+			_lexicase = new LexicaseSelection(_selectionMode
+					.equals("epsilon-lexicase"));
+
+		_lexicase.Prepare(_populations[_currentPopulation]);
+	}
+
+	/**
+	 * Selects a parent from the current population using the selection-mode.
+	 * Tournament selection is used if the population could not be prepared
+	 * for lexicase selection, for instance because the individuals have no
+	 * test case errors.
+	 * 
+	 * @param inIndex
+	 *            The index which is to be replaced by the current reproduction
+	 *            event (used only by tournament selection with
+	 *            trivial-geography).
+	 */
+
+	protected GAIndividual SelectIndividual(int inIndex) {
+		if (_lexicase != null && _lexicase.IsPrepared()
+				&& !_selectionMode.equals("tournament"))
+			return _populations[_currentPopulation][_lexicase.Select(_RNG)];
+
+		return TournamentSelect(_tournamentSize, inIndex);
+	}
+
 	/**
 	 * Preforms a tournament selection, return the best individual from a sample
 	 * of the given size.
@@ -500,30 +1025,71 @@ public abstract class GA implements Serializable {
 	}
 
 	/**
-	 * Clones an individual selected through tournament selection.
+	 * Clones an individual selected through SelectIndividual.
 	 * 
 	 * @return the cloned individual.
 	 */
 
 	protected GAIndividual ReproduceByClone(int inIndex) {
-		return TournamentSelect(_tournamentSize, inIndex).clone();
+		return SelectIndividual(inIndex).clone(RecycledIndividual());
+	}
+
+	/**
+	 * Moves the individuals of the next population slot, which are about to be
+	 * replaced by reproduction, into the pool of recycled individuals. Once
+	 * recycled, an individual may be reused by ReproduceByClone, so it must
+	 * not also be referenced from the current population.
+	 */
+
+	protected void RecycleNextPopulation() {
+		GAIndividual next[] = _populations[_currentPopulation == 0 ? 1 : 0];
+
+		if (_recycledIndividuals == null)
+			_recycledIndividuals = new ArrayList<GAIndividual>(next.length);
+
+		for (int n = 0; n < next.length; n++) {
+			if (next[n] != null)
+				_recycledIndividuals.add(next[n]);
+
+			next[n] = null;
+		}
+	}
+
+	/**
+	 * Takes an individual from the pool of recycled individuals.
+	 * 
+	 * @return the recycled individual, or null if the pool is empty.
+	 */
+
+	protected GAIndividual RecycledIndividual() {
+		if (_recycledIndividuals == null || _recycledIndividuals.isEmpty())
+			return null;
+
+		return _recycledIndividuals.remove(_recycledIndividuals.size() - 1);
 	}
 	
 	/**
 	 * Computes the absolute-average-of-errors fitness from an error vector.
 	 * 
+	 * @param inErrors
+	 *            The array holding the error vector.
+	 * @param inOffset
+	 *            The index of the first error in inErrors.
+	 * @param inCount
+	 *            The number of errors.
 	 * @return the average error value for the vector.
 	 */
-	protected float AbsoluteAverageOfErrors(ArrayList<Float> inArray) {
+	protected float AbsoluteAverageOfErrors(float inErrors[], int inOffset,
+			int inCount) {
 		float total = 0.0f;
 
-		for (int n = 0; n < inArray.size(); n++)
-			total += Math.abs(inArray.get(n));
+		for (int n = 0; n < inCount; n++)
+			total += Math.abs(inErrors[inOffset + n]);
 
 		if(Float.isInfinite(total))
 			return Float.MAX_VALUE;
 
-		return (total / inArray.size());
+		return (total / inCount);
 	}
 
 	/**
@@ -532,14 +1098,25 @@ public abstract class GA implements Serializable {
 	 * @return GAIndividual at index i
 	 */
 	public GAIndividual GetIndividualFromPopulation(int i){
+		if (_islands != null) {
+			for (GA island : _islands) {
+				if (i < island.GetPopulationSize())
+					return island.GetIndividualFromPopulation(i);
+				i -= island.GetPopulationSize();
+			}
+		}
 		return _populations[_currentPopulation][i];
 	}
 	
 	/**
-	 * Retrieves best individual from the current population.
+	 * Retrieves best individual from the current population. Individuals are
+	 * recycled during reproduction, so the individual should be cloned if it
+	 * is needed after the GA is run further.
 	 * @return best GAIndividual in population
 	 */
 	public GAIndividual GetBestIndividual(){
+		if (_islands != null)
+			return _islands[BestIsland()].GetBestIndividual();
 		if(Terminate()){
 			return _populations[_currentPopulation][_bestIndividual];
 		}
@@ -551,6 +1128,12 @@ public abstract class GA implements Serializable {
 	 * @return population size
 	 */
 	public int GetPopulationSize(){
+		if (_islands != null) {
+			int size = 0;
+			for (GA island : _islands)
+				size += island.GetPopulationSize();
+			return size;
+		}
 		return _populations[_currentPopulation].length;
 	}
 	
@@ -592,20 +1175,137 @@ public abstract class GA implements Serializable {
 
 	abstract protected GAIndividual ReproduceByMutation(int inIndex);
 
-	protected void Checkpoint() throws Exception {
+	/**
+	 * Called after each generation, or each migration interval of an island
+	 * model run, to write a checkpoint once checkpoint-interval generations
+	 * have run since the last one. The checkpoint is serialized into memory
+	 * here, while the GA is stopped, and compressed and written to disk by
+	 * the checkpoint writer's thread.
+	 * 
+	 * @param inGenerations
+	 *            The number of generations run since the last call.
+	 */
+
+	protected void Checkpoint(int inGenerations) throws Exception {
 		if (_checkpointPrefix == null)
 			return;
 
+		_generationsSinceCheckpoint += inGenerations;
+
+		if (_generationsSinceCheckpoint < _checkpointInterval)
+			return;
+
+		_generationsSinceCheckpoint = 0;
+
 		File file = new File(_checkpointPrefix + _checkpoint.checkpointNumber
 				+ ".gz");
-		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
-				new FileOutputStream(file)));
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+
+		BinaryCheckpoint.Write(this, snapshot);
+
+		if (_checkpointWriter == null)
+			_checkpointWriter = new CheckpointWriter();
 
-		out.writeObject(_checkpoint);
-		out.flush();
-		out.close();
-		System.out.println("Wrote checkpoint file " + file.getAbsolutePath());
+		_checkpointWriter.Write(file, snapshot);
 		_checkpoint.checkpointNumber++;
 	}
 
+	/**
+	 * Writes the state of this GA to a binary checkpoint. Everything which is
+	 * set up from the parameters, such as the test cases, is recreated when
+	 * the checkpoint is loaded, so only the state which changes during a run
+	 * is written. Subclasses with more such state write it after calling the
+	 * base class implementation, and read it back in ReadCheckpoint.
+	 * 
+	 * The random number generator's state is written as it is, so that
+	 * writing a checkpoint does not change the course of the run.
+	 */
+
+	protected void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		inOut.WriteRandom(_RNG);
+		inOut.WriteInt(_generationCount);
+		inOut.WriteInt(_currentPopulation);
+		inOut.WriteInt(_generationsSinceCheckpoint);
+		inOut.WriteFloat(_bestMeanFitness);
+		inOut.WriteDouble(_populationMeanFitness);
+		inOut.WriteInt(_bestIndividual);
+		inOut.WriteFloats(_bestErrors);
+
+		inOut.WriteInt(_islands == null ? 0 : _islands.length);
+
+		if (_islands != null) {
+			for (GA island : _islands)
+				island.WriteCheckpoint(inOut);
+		}
+
+		inOut.WriteInt(_populations == null ? 0 : _populations.length);
+
+		if (_populations != null) {
+			for (GAIndividual population[] : _populations) {
+				inOut.WriteInt(population.length);
+
+				for (GAIndividual i : population) {
+					inOut.WriteBoolean(i != null);
+
+					if (i != null)
+						i.WriteCheckpoint(inOut);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the state written by WriteCheckpoint into a GA which has been set
+	 * up from the checkpoint's parameters.
+	 */
+
+	protected void ReadCheckpoint(BinaryCheckpoint inIn) throws Exception {
+		_RNG = inIn.ReadRandom();
+		_generationCount = inIn.ReadInt();
+		_currentPopulation = inIn.ReadInt();
+		_generationsSinceCheckpoint = inIn.ReadInt();
+		_bestMeanFitness = inIn.ReadFloat();
+		_populationMeanFitness = inIn.ReadDouble();
+		_bestIndividual = inIn.ReadInt();
+		_bestErrors = inIn.ReadFloats();
+
+		int islands = inIn.ReadInt();
+
+		if (islands != (_islands == null ? 0 : _islands.length))
+			throw new Exception("The checkpoint has " + islands
+					+ " islands, but the islands parameter does not match");
+
+		for (int n = 0; n < islands; n++)
+			_islands[n].ReadCheckpoint(inIn);
+
+		int populations = inIn.ReadInt();
+
+		_populations = populations == 0 ? null
+				: new GAIndividual[populations][];
+
+		for (int p = 0; p < populations; p++) {
+			_populations[p] = new GAIndividual[inIn.ReadInt()];
+
+			for (int n = 0; n < _populations[p].length; n++) {
+				if (inIn.ReadBoolean()) {
+					GAIndividual i = (GAIndividual) _individualClass
+							.getDeclaredConstructor().newInstance();
+
+					i.ReadCheckpoint(inIn, this);
+					_populations[p][n] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the checkpoint writer to finish writing any checkpoints, so
+	 * that they are all on disk when Run returns.
+	 */
+
+	protected void FinishCheckpoints() throws Exception {
+		if (_checkpointWriter != null)
+			_checkpointWriter.Finish();
+	}
+
 }
@@ -16,6 +16,7 @@
 
 package org.spiderland.Psh;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -30,13 +31,30 @@ public abstract class GAIndividual implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	float _fitness;
-	ArrayList<Float> _errors;
+
+	// The errors are _errorCount values of _errorMatrix, starting at
+	// _errorOffset, with room for _errorCapacity. For an individual in a GA
+	// population, the errors are a row of the population's error matrix,
+	// which is owned by the GA (see GA.AssignErrorRows). Any other individual
+	// gets an array of its own when its errors are set.
+	float _errorMatrix[];
+	int _errorOffset;
+	int _errorCapacity;
+	int _errorCount;
 	
 	boolean _fitnessSet;
 
+	// Set when the individual's evaluation was stopped early, in which case
+	// its fitness is only a lower bound.
+	boolean _fitnessCapped;
+
 	public boolean FitnessIsSet(){
 		return _fitnessSet;
 	}
+
+	public boolean FitnessIsCapped() {
+		return _fitnessCapped;
+	}
 	
 	public float GetFitness() {
 		return _fitness;
@@ -45,15 +63,184 @@ public abstract class GAIndividual implements Serializable {
 	public void SetFitness(float inFitness) {
 		_fitness = inFitness;
 		_fitnessSet = true;
+		_fitnessCapped = false;
+	}
+
+	/**
+	 * Sets the fitness of an individual whose evaluation was stopped early.
+	 * 
+	 * @param inFitness
+	 *            A lower bound on the individual's fitness.
+	 */
+
+	public void SetCappedFitness(float inFitness) {
+		SetFitness(inFitness);
+		_fitnessCapped = true;
+	}
+
+	/**
+	 * Returns the number of errors set for this individual, which is 0 if
+	 * they have not been set.
+	 */
+
+	public int GetErrorCount() {
+		return _errorCount;
+	}
+
+	/**
+	 * Returns one of this individual's errors.
+	 * 
+	 * @param inIndex
+	 *            The index of the error, less than GetErrorCount().
+	 */
+
+	public float GetError(int inIndex) {
+		return _errorMatrix[_errorOffset + inIndex];
+	}
+
+	/**
+	 * Returns the array holding this individual's errors, which start at
+	 * GetErrorOffset(). The array is usually shared with the rest of the
+	 * individual's population, so only this individual's errors may be read
+	 * from it.
+	 */
+
+	public float[] GetErrorMatrix() {
+		return _errorMatrix;
+	}
+
+	public int GetErrorOffset() {
+		return _errorOffset;
+	}
+
+	/**
+	 * Sets the number of errors for this individual, and returns the array
+	 * to write them into, starting at GetErrorOffset(). The errors are
+	 * written into the individual's row of its population's error matrix if
+	 * the row is large enough, and otherwise into an array of its own.
+	 * 
+	 * @param inCount
+	 *            The number of errors.
+	 * @return the array to write the errors into.
+	 */
+
+	public float[] ResizeErrors(int inCount) {
+		if (_errorMatrix == null || inCount > _errorCapacity) {
+			_errorMatrix = new float[inCount];
+			_errorOffset = 0;
+			_errorCapacity = inCount;
+		}
+
+		_errorCount = inCount;
+
+		return _errorMatrix;
+	}
+
+	/**
+	 * Sets this individual's errors to a copy of some errors.
+	 * 
+	 * @param inErrors
+	 *            The array holding the errors.
+	 * @param inOffset
+	 *            The index of the first error in inErrors.
+	 * @param inCount
+	 *            The number of errors.
+	 */
+
+	public void SetErrors(float inErrors[], int inOffset, int inCount) {
+		float errors[] = ResizeErrors(inCount);
+		System.arraycopy(inErrors, inOffset, errors, _errorOffset, inCount);
 	}
 
+	/**
+	 * Gives this individual a row of an error matrix in which to store its
+	 * errors. Any errors already set are discarded, so this is done before
+	 * the individual is evaluated.
+	 */
+
+	void SetErrorRow(float inMatrix[], int inOffset, int inCapacity) {
+		_errorMatrix = inMatrix;
+		_errorOffset = inOffset;
+		_errorCapacity = inCapacity;
+		_errorCount = 0;
+	}
+
+	/**
+	 * Returns a copy of this individual's errors as a list, or null if they
+	 * have not been set.
+	 * 
+	 * @deprecated Use GetErrorCount and GetError, which do not allocate.
+	 */
+
+	@Deprecated
 	public ArrayList<Float> GetErrors() {
-		return _errors;
+		if (_errorCount == 0)
+			return null;
+
+		ArrayList<Float> errors = new ArrayList<Float>(_errorCount);
+
+		for (int n = 0; n < _errorCount; n++)
+			errors.add(GetError(n));
+
+		return errors;
 	}
 
+	/**
+	 * Sets this individual's errors from a list.
+	 * 
+	 * @deprecated Use ResizeErrors or SetErrors(float[], int, int).
+	 */
+
+	@Deprecated
 	public void SetErrors(ArrayList<Float> inErrors) {
-		_errors = inErrors;
+		float errors[] = ResizeErrors(inErrors.size());
+
+		for (int n = 0; n < inErrors.size(); n++)
+			errors[_errorOffset + n] = inErrors.get(n);
 	}
 
 	public abstract GAIndividual clone();
+
+	/**
+	 * Returns a copy of this individual, reusing the storage of an individual
+	 * which is no longer in use where possible. Subclasses which can reuse an
+	 * individual's storage should override this method; by default a new
+	 * clone is returned.
+	 * 
+	 * @param inRecycled
+	 *            An individual which is no longer referenced by any
+	 *            population, or null.
+	 * @return the copy of this individual.
+	 */
+
+	public GAIndividual clone(GAIndividual inRecycled) {
+		return clone();
+	}
+
+	/**
+	 * Writes this individual to a binary checkpoint. The errors are not
+	 * written, since they are recomputed when the population is next
+	 * evaluated. Subclasses write their genome after calling the base class
+	 * implementation.
+	 */
+
+	public void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		inOut.WriteFloat(_fitness);
+		inOut.WriteBoolean(_fitnessSet);
+		inOut.WriteBoolean(_fitnessCapped);
+	}
+
+	/**
+	 * Reads an individual written by WriteCheckpoint.
+	 * 
+	 * @param inGA
+	 *            The GA the individual belongs to.
+	 */
+
+	public void ReadCheckpoint(BinaryCheckpoint inIn, GA inGA)
+			throws Exception {
+		_fitness = inIn.ReadFloat();
+		_fitnessSet = inIn.ReadBoolean();
+		_fitnessCapped = inIn.ReadBoolean();
+	}
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.lang.management.*;
+
+/**
+ * Measures the time and memory taken by each phase of a GA generation.
+ *
+ * For each phase the wall clock time, CPU time and allocated memory are
+ * recorded. CPU time is that of the whole process where the JVM can measure
+ * it, so that it includes the parallel evaluation and island threads, and
+ * otherwise that of the calling thread. Allocated memory is the sum over all
+ * live threads, and is 0 where the JVM can't measure it.
+ *
+ * An island runs alongside the other islands, so its CPU time and allocated
+ * memory are instead summed over the threads given to SetThreads: its own
+ * thread and those it evaluates on.
+ *
+ * The GA calls Start at the beginning of a generation and EndPhase at the end
+ * of each phase, giving the evaluation and step counts of its interpreter so
+ * that throughput can be worked out.
+ */
+
+public class GenerationMetrics {
+	public static final int BEGIN = 0;
+	public static final int EVALUATE = 1;
+	public static final int REPRODUCE = 2;
+	public static final int END = 3;
+	public static final int REPORT = 4;
+	public static final int CHECKPOINT = 5;
+
+	static final String PHASE_NAMES[] = { "begin", "evaluate", "reproduce",
+			"end", "report", "checkpoint" };
+
+	static final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+	static final OperatingSystemMXBean _system = ManagementFactory
+			.getOperatingSystemMXBean();
+
+	protected long _wallNanos[] = new long[PHASE_NAMES.length];
+	protected long _cpuNanos[] = new long[PHASE_NAMES.length];
+	protected long _allocatedBytes[] = new long[PHASE_NAMES.length];
+
+	protected long _lastWall;
+	protected long _lastCpu;
+	protected long _lastAllocated;
+
+	// The threads being measured, or null to measure the whole process.
+	protected long _threadIds[];
+
+	protected long _startEvaluations;
+	protected long _startSteps;
+	protected long _evaluations;
+	protected long _steps;
+
+	/**
+	 * Measures only the given threads from now on. Threads may be added
+	 * between phases, as long as they started during the phase that ends
+	 * next.
+	 *
+	 * @param inThreadIds
+	 *            The ids of the threads, or null to measure the whole
+	 *            process.
+	 */
+
+	public void SetThreads(long inThreadIds[]) {
+		_threadIds = inThreadIds;
+	}
+
+	/**
+	 * Clears the measurements and starts timing the first phase of a
+	 * generation.
+	 *
+	 * @param inEvaluations
+	 *            The number of evaluations run so far.
+	 * @param inSteps
+	 *            The number of interpreter steps taken so far.
+	 */
+
+	public void Start(long inEvaluations, long inSteps) {
+		for (int n = 0; n < PHASE_NAMES.length; n++) {
+			_wallNanos[n] = 0;
+			_cpuNanos[n] = 0;
+			_allocatedBytes[n] = 0;
+		}
+
+		_startEvaluations = inEvaluations;
+		_startSteps = inSteps;
+		_evaluations = 0;
+		_steps = 0;
+
+		_lastWall = System.nanoTime();
+		_lastCpu = CpuNanos(_threadIds);
+		_lastAllocated = AllocatedBytes(_threadIds);
+	}
+
+	/**
+	 * Records the end of a phase, which is taken to have run since the last
+	 * call to Start or EndPhase.
+	 */
+
+	public void EndPhase(int inPhase, long inEvaluations, long inSteps) {
+		long wall = System.nanoTime();
+		long cpu = CpuNanos(_threadIds);
+		long allocated = AllocatedBytes(_threadIds);
+
+		_wallNanos[inPhase] += wall - _lastWall;
+		_cpuNanos[inPhase] += cpu - _lastCpu;
+		_allocatedBytes[inPhase] += Math.max(0, allocated - _lastAllocated);
+
+		_lastWall = wall;
+		_lastCpu = cpu;
+		_lastAllocated = allocated;
+
+		// The interpreter's step counter is an int, which may wrap during a
+		// long run, so only the low 32 bits of the difference are used.
+		_evaluations = inEvaluations - _startEvaluations;
+		_steps = (int) (inSteps - _startSteps) & 0xffffffffL;
+	}
+
+	public long GetWallNanos() {
+		long total = 0;
+
+		for (long n : _wallNanos)
+			total += n;
+
+		return total;
+	}
+
+	public long GetCpuNanos() {
+		long total = 0;
+
+		for (long n : _cpuNanos)
+			total += n;
+
+		return total;
+	}
+
+	public long GetAllocatedBytes() {
+		long total = 0;
+
+		for (long n : _allocatedBytes)
+			total += n;
+
+		return total;
+	}
+
+	/**
+	 * Returns a rate per second of wall clock time over the phases recorded
+	 * so far.
+	 */
+
+	protected double PerSecond(long inCount) {
+		long wall = GetWallNanos();
+
+		return wall == 0 ? 0 : inCount * 1e9 / wall;
+	}
+
+	/**
+	 * Formats the phases recorded so far for a generation report.
+	 */
+
+	public String Report() {
+		String report = String.format(
+				";; Generation Time: %.1f ms wall, %.1f ms CPU, %.1f MB allocated\n",
+				GetWallNanos() / 1e6, GetCpuNanos() / 1e6,
+				GetAllocatedBytes() / 1e6);
+
+		for (int n = 0; n < PHASE_NAMES.length; n++) {
+			if (_wallNanos[n] == 0)
+				continue;
+
+			report += String.format(
+					";;   %-10s %10.1f ms wall, %10.1f ms CPU, %8.1f MB allocated\n",
+					PHASE_NAMES[n], _wallNanos[n] / 1e6, _cpuNanos[n] / 1e6,
+					_allocatedBytes[n] / 1e6);
+		}
+
+		report += String.format(
+				";; Throughput: %.0f evaluations/s, %.0f steps/s\n",
+				PerSecond(_evaluations), PerSecond(_steps));
+
+		return report;
+	}
+
+	/**
+	 * Formats the measurements of a generation as a single line JSON object.
+	 *
+	 * @param inGeneration
+	 *            The generation number.
+	 * @param inIsland
+	 *            The island number, starting at 1, or 0 if the GA is not an
+	 *            island.
+	 * @param inBestFitness
+	 *            The generation's best fitness.
+	 * @param inMeanFitness
+	 *            The generation's mean fitness.
+	 */
+
+	public String JSONLine(int inGeneration, int inIsland,
+			double inBestFitness, double inMeanFitness) {
+		StringBuilder line = new StringBuilder();
+
+		line.append("{\"generation\": ").append(inGeneration);
+
+		if (inIsland > 0)
+			line.append(", \"island\": ").append(inIsland);
+
+		line.append(", \"wall_ms\": ").append(GetWallNanos() / 1e6);
+		line.append(", \"cpu_ms\": ").append(GetCpuNanos() / 1e6);
+		line.append(", \"allocated_bytes\": ").append(GetAllocatedBytes());
+		line.append(", \"evaluations\": ").append(_evaluations);
+		line.append(", \"steps\": ").append(_steps);
+		line.append(", \"evaluations_per_second\": ").append(
+				PerSecond(_evaluations));
+		line.append(", \"steps_per_second\": ").append(PerSecond(_steps));
+		line.append(", \"best_fitness\": ").append(JSONNumber(inBestFitness));
+		line.append(", \"mean_fitness\": ").append(JSONNumber(inMeanFitness));
+		line.append(", \"phases\": {");
+
+		for (int n = 0; n < PHASE_NAMES.length; n++) {
+			if (n > 0)
+				line.append(", ");
+
+			line.append("\"").append(PHASE_NAMES[n]).append("\": {");
+			line.append("\"wall_ms\": ").append(_wallNanos[n] / 1e6);
+			line.append(", \"cpu_ms\": ").append(_cpuNanos[n] / 1e6);
+			line.append(", \"allocated_bytes\": ").append(_allocatedBytes[n]);
+			line.append("}");
+		}
+
+		line.append("}}\n");
+
+		return line.toString();
+	}
+
+	/**
+	 * Returns a number as JSON, which has no infinities or NaN.
+	 */
+
+	static String JSONNumber(double inValue) {
+		if (Double.isNaN(inValue) || Double.isInfinite(inValue))
+			return "null";
+
+		return String.valueOf(inValue);
+	}
+
+	/**
+	 * Returns the CPU time used by the given threads, or if they are null by
+	 * the process, or by the current thread if the process time isn't
+	 * available, in nanoseconds.
+	 */
+
+	static long CpuNanos(long inThreadIds[]) {
+		if (inThreadIds != null) {
+			long total = 0;
+
+			if (_threads.isThreadCpuTimeSupported()) {
+				for (long id : inThreadIds)
+					total += Math.max(0, _threads.getThreadCpuTime(id));
+			}
+
+			return total;
+		}
+
+		if (_system instanceof com.sun.management.OperatingSystemMXBean) {
+			long cpu = ((com.sun.management.OperatingSystemMXBean) _system)
+					.getProcessCpuTime();
+
+			if (cpu >= 0)
+				return cpu;
+		}
+
+		if (_threads.isCurrentThreadCpuTimeSupported())
+			return _threads.getCurrentThreadCpuTime();
+
+		return 0;
+	}
+
+	/**
+	 * Returns the total memory allocated by the given threads, or if they are
+	 * null by all live threads, in bytes, or 0 if it can't be measured.
+	 */
+
+	static long AllocatedBytes(long inThreadIds[]) {
+		if (!(_threads instanceof com.sun.management.ThreadMXBean))
+			return 0;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) _threads;
+
+		if (!threads.isThreadAllocatedMemorySupported()
+				|| !threads.isThreadAllocatedMemoryEnabled())
+			return 0;
+
+		long total = 0;
+
+		if (inThreadIds == null)
+			inThreadIds = threads.getAllThreadIds();
+
+		for (long bytes : threads.getThreadAllocatedBytes(inThreadIds)) {
+			if (bytes > 0)
+				total += bytes;
+		}
+
+		return total;
+	}
+}
@@ -106,11 +106,7 @@ public class GenericStack<T> extends Stack {
 		return result;
 	}
 
-	@SuppressWarnings("unchecked")
 	public void push(T inValue) {
-		if (inValue instanceof Program)
-			inValue = (T) new Program((Program) inValue);
-
 		_stack[_size] = inValue;
 		_size++;
 
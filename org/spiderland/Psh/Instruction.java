@@ -24,6 +24,75 @@ import java.io.Serializable;
 
 public abstract class Instruction implements Serializable {
 	private static final long serialVersionUID = 1L;
+
+	// Set by interpreters which find that the instruction may use the exec
+	// stack, so that exec cursors can be expanded before it is executed.
+	// It is never cleared, since an instruction may be shared by several
+	// interpreters.
+	transient boolean _usesExecStack;
 	
 	public abstract void Execute(Interpreter inI);
+
+	/**
+	 * Returns how a BatchInterpreter can run this instruction in all of its
+	 * lanes at once, as one of BatchInterpreter's KIND constants, or
+	 * KIND_NONE if it can't. Each kind which needs a stack, operator or value
+	 * gets it from the matching method below.
+	 */
+
+	int LaneKind() {
+		return BatchInterpreter.KIND_NONE;
+	}
+
+	/**
+	 * Returns the stack which a stack or input instruction works on.
+	 */
+
+	Stack OperandStack() {
+		return null;
+	}
+
+	// The scalar operators of the operator kinds, applied to each lane.
+
+	int LaneOperator(int inA, int inB) {
+		return 0;
+	}
+
+	int LaneOperator(int inValue) {
+		return 0;
+	}
+
+	float LaneOperator(float inA, float inB) {
+		return 0;
+	}
+
+	float LaneOperator(float inValue) {
+		return 0;
+	}
+
+	boolean LaneOperator(boolean inA, boolean inB) {
+		return false;
+	}
+
+	boolean LaneComparison(int inA, int inB) {
+		return false;
+	}
+
+	boolean LaneComparison(float inA, float inB) {
+		return false;
+	}
+
+	// The value of a constant, or the index of an input.in instruction.
+
+	int LaneInt() {
+		return 0;
+	}
+
+	float LaneFloat() {
+		return 0;
+	}
+
+	boolean LaneBool() {
+		return false;
+	}
 }
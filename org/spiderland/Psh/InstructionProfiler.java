@@ -0,0 +1,265 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Counts how often each instruction is executed and samples how long it
+ * takes.
+ *
+ * Every interpreter attached to a profiler records into its own Stripe, so
+ * interpreters running on different threads never share a counter and no
+ * locking or atomic operations are needed while programs run. The stripes
+ * are summed, and cleared, by Collect, which must only be called while none
+ * of the interpreters are running, such as between generations.
+ *
+ * Instructions are identified by their compiled program opcodes, which are
+ * the same in every interpreter. One in every SAMPLE_INTERVAL instructions is
+ * timed with System.nanoTime, and an instruction's total time is estimated
+ * from the mean of its samples. The samples include the cost of the timer
+ * itself, so very cheap instructions appear somewhat slower than they are.
+ */
+
+public class InstructionProfiler {
+	static final int SAMPLE_INTERVAL = 64;
+
+	protected ArrayList<Stripe> _stripes = new ArrayList<Stripe>();
+	protected ArrayList<String> _names = new ArrayList<String>();
+
+	/**
+	 * The counters of one interpreter.
+	 */
+
+	public static class Stripe {
+		long _counts[] = new long[0];
+		long _samples[] = new long[0];
+		long _sampleNanos[] = new long[0];
+		int _untilSample = SAMPLE_INTERVAL;
+
+		/**
+		 * Returns true if the next instruction should be timed.
+		 */
+
+		boolean Sample() {
+			if (--_untilSample > 0)
+				return false;
+
+			_untilSample = SAMPLE_INTERVAL;
+			return true;
+		}
+
+		void Count(int inOpcode) {
+			if (inOpcode >= _counts.length)
+				Grow(inOpcode);
+
+			_counts[inOpcode]++;
+		}
+
+		void Count(int inOpcode, long inNanos) {
+			if (inOpcode >= _counts.length)
+				Grow(inOpcode);
+
+			_counts[inOpcode]++;
+			_samples[inOpcode]++;
+			_sampleNanos[inOpcode] += inNanos;
+		}
+
+		private void Grow(int inOpcode) {
+			int length = Math.max(inOpcode + 1, 2 * _counts.length);
+
+			_counts = Arrays.copyOf(_counts, length);
+			_samples = Arrays.copyOf(_samples, length);
+			_sampleNanos = Arrays.copyOf(_sampleNanos, length);
+		}
+	}
+
+	/**
+	 * One instruction's line of a profile.
+	 */
+
+	public static class Entry {
+		public String name;
+		public long executions;
+		public long samples;
+		public long sampleNanos;
+
+		/**
+		 * Returns the mean sampled time of one execution in nanoseconds, or 0
+		 * if the instruction was never sampled.
+		 */
+
+		public double MeanNanos() {
+			return samples == 0 ? 0 : (double) sampleNanos / samples;
+		}
+
+		/**
+		 * Returns the estimated total time spent in the instruction in
+		 * nanoseconds.
+		 */
+
+		public double EstimatedNanos() {
+			return MeanNanos() * executions;
+		}
+	}
+
+	/**
+	 * Creates the counters for a new interpreter.
+	 */
+
+	public synchronized Stripe NewStripe() {
+		Stripe stripe = new Stripe();
+		_stripes.add(stripe);
+
+		return stripe;
+	}
+
+	/**
+	 * Records the name of an opcode, for reports.
+	 */
+
+	public synchronized void SetName(int inOpcode, String inName) {
+		while (_names.size() <= inOpcode)
+			_names.add(null);
+
+		_names.set(inOpcode, inName);
+	}
+
+	/**
+	 * Sums the counts of every stripe and clears them.
+	 *
+	 * @return The executed instructions, most executed first.
+	 */
+
+	public synchronized ArrayList<Entry> Collect() {
+		HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+		for (Stripe stripe : _stripes) {
+			for (int op = 0; op < stripe._counts.length; op++) {
+				if (stripe._counts[op] == 0)
+					continue;
+
+				Entry entry = entries.get(op);
+
+				if (entry == null) {
+					entry = new Entry();
+					entry.name = op < _names.size() && _names.get(op) != null ? _names
+							.get(op)
+							: "opcode " + op;
+					entries.put(op, entry);
+				}
+
+				entry.executions += stripe._counts[op];
+				entry.samples += stripe._samples[op];
+				entry.sampleNanos += stripe._sampleNanos[op];
+			}
+
+			Arrays.fill(stripe._counts, 0);
+			Arrays.fill(stripe._samples, 0);
+			Arrays.fill(stripe._sampleNanos, 0);
+		}
+
+		ArrayList<Entry> result = new ArrayList<Entry>(entries.values());
+
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry inA, Entry inB) {
+				if (inA.executions != inB.executions)
+					return inA.executions > inB.executions ? -1 : 1;
+
+				return inA.name.compareTo(inB.name);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Formats a profile as a report table.
+	 *
+	 * @param inEntries
+	 *            The profile, as returned by Collect.
+	 * @param inLines
+	 *            The greatest number of instructions to list.
+	 */
+
+	public static String Report(ArrayList<Entry> inEntries, int inLines) {
+		long total = 0;
+		double totalNanos = 0;
+
+		for (Entry entry : inEntries) {
+			total += entry.executions;
+			totalNanos += entry.EstimatedNanos();
+		}
+
+		StringBuilder report = new StringBuilder();
+
+		report.append(String.format(
+				";; Instruction Profile: %d executions, %.1f ms estimated\n",
+				total, totalNanos / 1e6));
+		report.append(String.format(";;   %-24s %14s %7s %9s %11s\n",
+				"instruction", "executions", "%", "ns/exec", "est. ms"));
+
+		for (int n = 0; n < inEntries.size() && n < inLines; n++) {
+			Entry entry = inEntries.get(n);
+
+			report.append(String.format(";;   %-24s %14d %6.2f%% %9.1f %11.2f\n",
+					entry.name, entry.executions, 100.0 * entry.executions
+							/ total, entry.MeanNanos(),
+					entry.EstimatedNanos() / 1e6));
+		}
+
+		if (inEntries.size() > inLines)
+			report.append(";;   (" + (inEntries.size() - inLines)
+					+ " more instructions)\n");
+
+		return report.toString();
+	}
+
+	/**
+	 * Appends a profile to a CSV file, with one row per instruction. A header
+	 * row is written first if the file is new or empty.
+	 *
+	 * @param inFile
+	 *            The CSV file.
+	 * @param inGeneration
+	 *            The generation which the profile is for.
+	 * @param inEntries
+	 *            The profile, as returned by Collect.
+	 */
+
+	public static void WriteCSV(File inFile, int inGeneration,
+			ArrayList<Entry> inEntries) throws IOException {
+		boolean header = inFile.length() == 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(inFile, true), "UTF-8"));
+
+		try {
+			if (header)
+				out.write("generation,instruction,executions,samples,sample_ns,estimated_ns\n");
+
+			for (Entry entry : inEntries) {
+				out.write(inGeneration + ",\"" + entry.name + "\","
+						+ entry.executions + "," + entry.samples + ","
+						+ entry.sampleNanos + ","
+						+ (long) entry.EstimatedNanos() + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
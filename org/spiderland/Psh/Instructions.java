@@ -35,6 +35,11 @@ abstract class StackInstruction extends Instruction {
 	StackInstruction(Stack inStack) {
 		_stack = inStack;
 	}
+
+	@Override
+	Stack OperandStack() {
+		return _stack;
+	}
 }
 
 /**
@@ -50,6 +55,11 @@ abstract class ObjectStackInstruction extends Instruction {
 	ObjectStackInstruction(ObjectStack inStack) {
 		_stack = inStack;
 	}
+
+	@Override
+	Stack OperandStack() {
+		return _stack;
+	}
 }
 
 class Quote extends Instruction {
@@ -80,6 +90,11 @@ class Pop extends StackInstruction {
 		if (_stack.size() > 0)
 			_stack.popdiscard();
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_POP;
+	}
 }
 
 class Flush extends StackInstruction {
@@ -93,6 +108,11 @@ class Flush extends StackInstruction {
 	public void Execute(Interpreter inI) {
 		_stack.clear();
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLUSH;
+	}
 }
 
 class Dup extends StackInstruction {
@@ -106,6 +126,11 @@ class Dup extends StackInstruction {
 	public void Execute(Interpreter inI) {
 		_stack.dup();
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_DUP;
+	}
 }
 
 class Rot extends StackInstruction {
@@ -120,6 +145,11 @@ class Rot extends StackInstruction {
 		if (_stack.size() > 2)
 			_stack.rot();
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_ROT;
+	}
 }
 
 class Shove extends StackInstruction {
@@ -143,6 +173,11 @@ class Shove extends StackInstruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_SHOVE;
+	}
 }
 
 class Swap extends StackInstruction {
@@ -157,6 +192,11 @@ class Swap extends StackInstruction {
 		if (_stack.size() > 1)
 			_stack.swap();
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_SWAP;
+	}
 }
 
 class Yank extends StackInstruction {
@@ -180,6 +220,11 @@ class Yank extends StackInstruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_YANK;
+	}
 }
 
 class YankDup extends StackInstruction {
@@ -203,6 +248,11 @@ class YankDup extends StackInstruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_YANKDUP;
+	}
 }
 
 class Depth extends StackInstruction {
@@ -217,6 +267,11 @@ class Depth extends StackInstruction {
 		intStack stack = inI.intStack();
 		stack.push(_stack.size());
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_DEPTH;
+	}
 }
 
 class IntegerConstant extends Instruction {
@@ -232,6 +287,16 @@ class IntegerConstant extends Instruction {
 	public void Execute(Interpreter inI) {
 		inI.intStack().push(_value);
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_CONSTANT;
+	}
+
+	@Override
+	int LaneInt() {
+		return _value;
+	}
 }
 
 class FloatConstant extends Instruction {
@@ -247,6 +312,16 @@ class FloatConstant extends Instruction {
 	public void Execute(Interpreter inI) {
 		inI.floatStack().push(_value);
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_CONSTANT;
+	}
+
+	@Override
+	float LaneFloat() {
+		return _value;
+	}
 }
 
 class BooleanConstant extends Instruction {
@@ -262,6 +337,16 @@ class BooleanConstant extends Instruction {
 	public void Execute(Interpreter inI) {
 		inI.boolStack().push(_value);
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_BOOL_CONSTANT;
+	}
+
+	@Override
+	boolean LaneBool() {
+		return _value;
+	}
 }
 
 class ObjectConstant extends ObjectStackInstruction {
@@ -301,6 +386,16 @@ abstract class BinaryIntegerInstruction extends Instruction {
 			stack.push(BinaryOperator(b, a));
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_BINARY;
+	}
+
+	@Override
+	int LaneOperator(int inA, int inB) {
+		return BinaryOperator(inA, inB);
+	}
 }
 
 class IntegerAdd extends BinaryIntegerInstruction {
@@ -469,6 +564,16 @@ abstract class UnaryIntInstruction extends Instruction {
 		if (stack.size() > 0)
 			stack.push(UnaryOperator(stack.pop()));
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_UNARY;
+	}
+
+	@Override
+	int LaneOperator(int inValue) {
+		return UnaryOperator(inValue);
+	}
 }
 
 class IntegerAbs extends UnaryIntInstruction {
@@ -549,6 +654,11 @@ class IntegerFromFloat extends Instruction {
 			iStack.push((int) fStack.pop());
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_FROM_FLOAT;
+	}
 }
 
 class IntegerFromBoolean extends Instruction {
@@ -568,6 +678,11 @@ class IntegerFromBoolean extends Instruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_FROM_BOOL;
+	}
 }
 
 //
@@ -591,6 +706,16 @@ abstract class BinaryIntegerBoolInstruction extends Instruction {
 			bstack.push(BinaryOperator(b, a));
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INT_BOOL;
+	}
+
+	@Override
+	boolean LaneComparison(int inA, int inB) {
+		return BinaryOperator(inA, inB);
+	}
 }
 
 class IntegerGreaterThan extends BinaryIntegerBoolInstruction {
@@ -640,6 +765,16 @@ abstract class BinaryFloatInstruction extends Instruction {
 			stack.push(BinaryOperator(b, a));
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_BINARY;
+	}
+
+	@Override
+	float LaneOperator(float inA, float inB) {
+		return BinaryOperator(inA, inB);
+	}
 }
 
 class FloatAdd extends BinaryFloatInstruction {
@@ -806,6 +941,16 @@ abstract class UnaryFloatInstruction extends Instruction {
 		if (stack.size() > 0)
 			stack.push(UnaryOperator(stack.pop()));
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_UNARY;
+	}
+
+	@Override
+	float LaneOperator(float inValue) {
+		return UnaryOperator(inValue);
+	}
 }
 
 class FloatSin extends UnaryFloatInstruction {
@@ -945,6 +1090,11 @@ class FloatFromInteger extends Instruction {
 			fStack.push(iStack.pop());
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_FROM_INT;
+	}
 }
 
 class FloatFromBoolean extends Instruction {
@@ -964,6 +1114,11 @@ class FloatFromBoolean extends Instruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_FROM_BOOL;
+	}
 }
 
 //
@@ -987,6 +1142,16 @@ abstract class BinaryFloatBoolInstruction extends Instruction {
 			bstack.push(BinaryOperator(a, b));
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_FLOAT_BOOL;
+	}
+
+	@Override
+	boolean LaneComparison(float inA, float inB) {
+		return BinaryOperator(inA, inB);
+	}
 }
 
 class FloatGreaterThan extends BinaryFloatBoolInstruction {
@@ -1037,6 +1202,16 @@ abstract class BinaryBoolInstruction extends Instruction {
 			stack.push(BinaryOperator(b, a));
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_BOOL_BINARY;
+	}
+
+	@Override
+	boolean LaneOperator(boolean inA, boolean inB) {
+		return BinaryOperator(inA, inB);
+	}
 }
 
 class BoolEquals extends BinaryBoolInstruction {
@@ -1083,6 +1258,11 @@ class BoolNot extends Instruction {
 		if (inI.boolStack().size() > 0)
 			inI.boolStack().push(!inI.boolStack().pop());
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_BOOL_NOT;
+	}
 }
 
 class BoolRand extends Instruction {
@@ -1116,6 +1296,11 @@ class BooleanFromInteger extends Instruction {
 			bStack.push(iStack.pop() != 0);
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_BOOL_FROM_INT;
+	}
 }
 
 class BooleanFromFloat extends Instruction {
@@ -1130,6 +1315,11 @@ class BooleanFromFloat extends Instruction {
 			bStack.push(fStack.pop() != 0.0);
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_BOOL_FROM_FLOAT;
+	}
 }
 
 //
@@ -1149,6 +1339,16 @@ class InputInN extends Instruction {
 	public void Execute(Interpreter inI) {
 		inI.getInputPusher().pushInput(inI, index);
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INPUT_N;
+	}
+
+	@Override
+	int LaneInt() {
+		return index;
+	}
 }
 
 class InputInAll extends ObjectStackInstruction {
@@ -1167,6 +1367,11 @@ class InputInAll extends ObjectStackInstruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INPUT_ALL;
+	}
 }
 
 class InputInRev extends ObjectStackInstruction {
@@ -1185,6 +1390,11 @@ class InputInRev extends ObjectStackInstruction {
 			}
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INPUT_REV;
+	}
 }
 
 class InputIndex extends ObjectStackInstruction {
@@ -1209,6 +1419,11 @@ class InputIndex extends ObjectStackInstruction {
 			inI.getInputPusher().pushInput(inI, index);
 		}
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_INPUT_INDEX;
+	}
 }
 
 //
@@ -1278,8 +1493,11 @@ class CodeDoTimes extends ObjectStackInstruction {
 				Object bodyObj = _stack.pop();
 
 				if (bodyObj instanceof Program) {
-					// insert integer.pop in front of program
-					((Program) bodyObj).shove("integer.pop", ((Program) bodyObj)._size);
+					// insert integer.pop in front of a copy of the program,
+					// since the popped program may be shared
+					Program body = new Program((Program) bodyObj);
+					body.shove("integer.pop", body._size);
+					bodyObj = body;
 				} else {
 					// create a new program with integer.pop in front of
 					// the popped object
@@ -1456,8 +1674,11 @@ class ExecDoTimes extends ObjectStackInstruction {
 				Object bodyObj = _stack.pop();
 
 				if (bodyObj instanceof Program) {
-					// insert integer.pop in front of program
-					((Program) bodyObj).shove("integer.pop", ((Program) bodyObj)._size);
+					// insert integer.pop in front of a copy of the program,
+					// since the popped program may be shared
+					Program body = new Program((Program) bodyObj);
+					body.shove("integer.pop", body._size);
+					bodyObj = body;
 				} else {
 					// create a new program with integer.pop in front of
 					// the popped object
@@ -1607,6 +1828,11 @@ class ExecNoop extends Instruction {
 	public void Execute(Interpreter inI) {
 		// Does Nothing
 	}
+
+	@Override
+	int LaneKind() {
+		return BatchInterpreter.KIND_NOOP;
+	}
 }
 
 class RandomPushCode extends ObjectStackInstruction {
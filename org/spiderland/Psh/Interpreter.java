@@ -28,6 +28,20 @@ public class Interpreter implements Serializable {
 
 	protected HashMap<String, Instruction> _instructions = new HashMap<String, Instruction>();
 
+	// Reverse index of _instructions, used to print and compile programs
+	// which contain Instruction objects rather than instruction names.
+	protected HashMap<Instruction, String> _instructionNames = new HashMap<Instruction, String>();
+
+	// Opcodes for compiled programs are assigned by instruction name and are
+	// shared by all interpreters, so that a program compiled by one
+	// interpreter may be run by another.
+	private static final HashMap<String, Integer> _opcodeNumbers = new HashMap<String, Integer>();
+
+	protected transient Instruction _opcodeTable[];
+	protected transient boolean _opcodeUsesExec[];
+	protected transient int _compiledEnds[];
+	protected HashSet<String> _addedInstructions = new HashSet<String>();
+
 	// All generators
 
 	protected HashMap<String, AtomGenerator> _generators = new HashMap<String, AtomGenerator>();
@@ -57,9 +71,29 @@ public class Interpreter implements Serializable {
 	protected ObjectStack _nameFrameStack = new ObjectStack();
 
 	protected boolean _useFrames;
+	protected boolean _useExecCursors;
+	protected boolean _internInstructions = true;
 
 	protected int _totalStepsTaken;
 	protected long _evaluationExecutions = 0;
+
+	protected transient BatchInterpreter _batchInterpreter;
+
+	// Instruction profiling, which is off unless a profiler is set. Step
+	// checks for it once per call, so the instruction loop is unchanged when
+	// profiling is off.
+	protected transient InstructionProfiler.Stripe _profilerStripe;
+	protected transient InstructionProfiler _profiler;
+	protected transient HashMap<Instruction, Integer> _profilerOpcodes;
+
+	// Exec cursors, which stand for the unexecuted items of the lists being
+	// executed and sit on top of the exec stack. Cursor n is at item
+	// _cursorNext[n] of list _cursorPrograms[n], and the item under the
+	// cursor _cursorDepth - 1 is the top of the exec stack. The cursors are
+	// expanded before any instruction which uses the exec stack.
+	protected transient Program _cursorPrograms[];
+	protected transient int _cursorNext[];
+	protected transient int _cursorDepth;
 	
 	protected int _maxRandomInt;
 	protected int _minRandomInt;
@@ -191,6 +225,39 @@ public class Interpreter implements Serializable {
 		_useFrames = inUseFrames;
 	}
 
+	/**
+	 * Enables exec cursors.
+	 * 
+	 * Normally, when a list is executed, its items are pushed onto the exec
+	 * stack one by one. With exec cursors, a cursor is pushed instead, which
+	 * stands for the items not yet executed and moves along the list as they
+	 * are, so that lists are entered without their items being copied. The
+	 * cursors are expanded into the items they stand for before any
+	 * instruction which uses the exec stack, such as exec.k, exec.s, exec.y or
+	 * exec.if, and whenever Step returns, so programs behave exactly as they
+	 * do without cursors. Exec cursors are not used with frames or while
+	 * profiling.
+	 */
+
+	public void SetUseExecCursors(boolean inUseExecCursors) {
+		_useExecCursors = inUseExecCursors;
+	}
+
+	/**
+	 * Controls whether programs parsed with this interpreter store the
+	 * Instruction object for each recognized instruction name, or the name
+	 * itself. Interned instructions are executed without a name lookup, and
+	 * are printed using their registered names. Unrecognized names are always
+	 * stored as strings, and are pushed onto the name stack when executed.
+	 * 
+	 * Interned instructions belong to this interpreter, so programs parsed
+	 * with interning enabled should not be executed by another interpreter.
+	 */
+
+	public void SetInternInstructions(boolean inInternInstructions) {
+		_internInstructions = inInternInstructions;
+	}
+
 	/**
 	 * Defines the instruction set used for random code generation in this Push
 	 * interpreter.
@@ -209,14 +276,7 @@ public class Interpreter implements Serializable {
 			String name = null;
 
 			if (o instanceof Instruction) {
-				String keys[] = _instructions.keySet().toArray(
-						new String[_instructions.size()]);
-
-				for (String key : keys)
-					if (_instructions.get(key) == o) {
-						name = key;
-						break;
-					}
+				name = _instructionNames.get(o);
 			} else if (o instanceof String){
 				name = (String) o;
 			} else
@@ -291,13 +351,121 @@ public class Interpreter implements Serializable {
 	public void AddInstruction(String inName, Instruction inInstruction) {
 		InstructionAtomGenerator iag = new InstructionAtomGenerator(inName);
 		_instructions.put(inName, inInstruction);
+		_instructionNames.put(inInstruction, inName);
 		_generators.put(inName, iag);
 		_randomGenerators.add(iag);
+		_addedInstructions.add(inName);
+		_opcodeTable = null;
 	}
 
 	protected void DefineInstruction(String inName, Instruction inInstruction) {
 		_instructions.put(inName, inInstruction);
+		_instructionNames.put(inInstruction, inName);
 		_generators.put(inName, new InstructionAtomGenerator(inName));
+		_opcodeTable = null;
+	}
+
+	/**
+	 * Returns true if the instruction set used for random code generation
+	 * contains an instruction with random results, such as integer.rand.
+	 */
+
+	public boolean UsesRandomInstructions() {
+		for (AtomGenerator g : _randomGenerators) {
+			if (g instanceof InstructionAtomGenerator
+					&& ((InstructionAtomGenerator) g)._instruction
+							.endsWith(".rand"))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the opcode used for an instruction name in compiled programs.
+	 */
+
+	static synchronized int Opcode(String inName) {
+		Integer opcode = _opcodeNumbers.get(inName);
+
+		if (opcode == null) {
+			opcode = _opcodeNumbers.size();
+			_opcodeNumbers.put(inName, opcode);
+		}
+
+		return opcode;
+	}
+
+	/**
+	 * Returns true if the named instruction may read or modify the exec stack.
+	 * Compiled programs go back to running from the exec stack when such an
+	 * instruction is reached. Instructions added with AddInstruction are
+	 * assumed to use the exec stack, since nothing is known about them.
+	 */
+
+	protected boolean UsesExecStack(String inName) {
+		return inName.startsWith("exec.") || inName.startsWith("frame.")
+				|| inName.startsWith("code.do*")
+				|| inName.equals("code.quote") || inName.equals("code.if")
+				|| (_addedInstructions != null && _addedInstructions
+						.contains(inName));
+	}
+
+	/**
+	 * Builds the opcode dispatch table from the currently defined
+	 * instructions.
+	 */
+
+	protected void BuildOpcodeTable() {
+		int maxOpcode = -1;
+
+		for (String name : _instructions.keySet())
+			maxOpcode = Math.max(maxOpcode, Opcode(name));
+
+		Instruction table[] = new Instruction[maxOpcode + 1];
+		boolean usesExec[] = new boolean[maxOpcode + 1];
+
+		for (Map.Entry<String, Instruction> entry : _instructions.entrySet()) {
+			int opcode = Opcode(entry.getKey());
+			table[opcode] = entry.getValue();
+			usesExec[opcode] = UsesExecStack(entry.getKey());
+
+			if (usesExec[opcode])
+				entry.getValue()._usesExecStack = true;
+		}
+
+		_opcodeUsesExec = usesExec;
+		_opcodeTable = table;
+
+		if (_profiler != null) {
+			HashMap<Instruction, Integer> opcodes = new HashMap<Instruction, Integer>();
+
+			for (Map.Entry<String, Instruction> entry : _instructions
+					.entrySet()) {
+				int opcode = Opcode(entry.getKey());
+				opcodes.put(entry.getValue(), opcode);
+				_profiler.SetName(opcode, entry.getKey());
+			}
+
+			_profilerOpcodes = opcodes;
+		}
+	}
+
+	/**
+	 * Attaches an instruction profiler, which counts and times every
+	 * instruction the interpreter executes from then on. While a profiler is
+	 * attached, compiled programs are run from the exec stack, so that every
+	 * instruction passes through Step.
+	 * 
+	 * @param inProfiler
+	 *            The profiler, or null to stop profiling.
+	 */
+
+	public void SetProfiler(InstructionProfiler inProfiler) {
+		_profiler = inProfiler;
+		_profilerStripe = inProfiler == null ? null : inProfiler.NewStripe();
+		_profilerOpcodes = null;
+		_opcodeTable = null;
 	}
 
 	protected void DefineStackInstructions(String inTypeName, Stack inStack) {
@@ -363,6 +531,168 @@ public class Interpreter implements Serializable {
 		return Step(inMaxSteps);
 	}
 
+	/**
+	 * Executes a compiled Push program with a given instruction limit. This
+	 * has the same effect as executing the source program, but atoms are
+	 * dispatched straight from the compiled code instead of being pushed onto
+	 * and popped off of the exec stack.
+	 * 
+	 * @param inMaxSteps
+	 *            The maximum number of instructions allowed to be executed.
+	 * @return The number of instructions executed.
+	 */
+
+	public int Execute(CompiledProgram inProgram, int inMaxSteps) {
+		if (_useFrames || _profilerStripe != null)
+			return Execute(inProgram._program, inMaxSteps);
+
+		_evaluationExecutions++;
+		_codeStack.push(inProgram._program);
+
+		return StepCompiled(inProgram, inMaxSteps);
+	}
+
+	/**
+	 * Runs a compiled program from its first slot, as if it had just been
+	 * pushed onto the exec stack. If an instruction which uses the exec stack
+	 * is reached, or the step limit runs out, the rest of the program is
+	 * pushed onto the exec stack just as it would have been by Step.
+	 */
+
+	protected int StepCompiled(CompiledProgram inProgram, int inMaxSteps) {
+		return StepCompiled(inProgram, 0, null, 0, inMaxSteps);
+	}
+
+	/**
+	 * Runs a compiled program from a given slot, with the given lists already
+	 * being executed. This continues a run of the program which was stopped
+	 * just before that slot.
+	 * 
+	 * @param inSlot
+	 *            The next slot to be executed.
+	 * @param inEnds
+	 *            The end slots of the lists currently being executed,
+	 *            outermost first.
+	 * @param inDepth
+	 *            The number of lists currently being executed.
+	 */
+
+	protected int StepCompiled(CompiledProgram inProgram, int inSlot,
+			int inEnds[], int inDepth, int inMaxSteps) {
+		if (_opcodeTable == null)
+			BuildOpcodeTable();
+
+		Instruction table[] = _opcodeTable;
+		boolean usesExec[] = _opcodeUsesExec;
+
+		int code[] = inProgram._code;
+		int operands[] = inProgram._operands;
+
+		if (_compiledEnds == null || _compiledEnds.length < inProgram._maxDepth)
+			_compiledEnds = new int[inProgram._maxDepth];
+
+		int ends[] = _compiledEnds;
+		int depth = inDepth;
+		int pc = inSlot;
+		int executed = 0;
+
+		if (inDepth > 0)
+			System.arraycopy(inEnds, 0, ends, 0, inDepth);
+
+		while (pc < code.length && executed != inMaxSteps) {
+			while (depth > 0 && ends[depth - 1] == pc)
+				depth--;
+
+			int op = code[pc];
+			executed++;
+
+			if (op >= 0 && op < table.length && table[op] != null) {
+				if (usesExec[op]) {
+					RestoreExecStack(inProgram, pc + 1, ends, depth);
+					table[op].Execute(this);
+					_totalStepsTaken += executed;
+
+					return executed
+							+ Step(inMaxSteps < 0 ? inMaxSteps : inMaxSteps
+									- executed);
+				}
+
+				table[op].Execute(this);
+			} else if (op == CompiledProgram.OP_INTEGER) {
+				_intStack.push(inProgram._intConstants[operands[pc]]);
+			} else if (op == CompiledProgram.OP_FLOAT) {
+				_floatStack.push(inProgram._floatConstants[operands[pc]]);
+			} else if (op == CompiledProgram.OP_LIST) {
+				ends[depth++] = operands[pc];
+			} else {
+				Object o = inProgram._objects[pc];
+
+				if (o instanceof String && !_instructions.containsKey(o)) {
+					_nameStack.push(o);
+				} else {
+					RestoreExecStack(inProgram, pc + 1, ends, depth);
+					ExecuteInstruction(o);
+					_totalStepsTaken += executed;
+
+					return executed
+							+ Step(inMaxSteps < 0 ? inMaxSteps : inMaxSteps
+									- executed);
+				}
+			}
+
+			pc++;
+		}
+
+		if (pc == 0) {
+			_execStack.push(inProgram._program);
+		} else if (pc < code.length) {
+			while (depth > 0 && ends[depth - 1] == pc)
+				depth--;
+
+			RestoreExecStack(inProgram, pc, ends, depth);
+		}
+
+		_totalStepsTaken += executed;
+
+		return executed;
+	}
+
+	/**
+	 * Pushes the unexecuted part of a compiled program onto the exec stack,
+	 * leaving the stack as it would be had the program been run by Step.
+	 * 
+	 * @param inSlot
+	 *            The next slot to be executed.
+	 * @param inEnds
+	 *            The end slots of the lists currently being executed,
+	 *            outermost first.
+	 * @param inDepth
+	 *            The number of lists currently being executed.
+	 */
+
+	private void RestoreExecStack(CompiledProgram inProgram, int inSlot,
+			int inEnds[], int inDepth) {
+		ArrayList<Object> items = new ArrayList<Object>();
+
+		for (int level = 0; level < inDepth; level++) {
+			int slot = (level == inDepth - 1) ? inSlot : inEnds[level + 1];
+
+			items.clear();
+
+			while (slot < inEnds[level]) {
+				items.add(inProgram._objects[slot]);
+
+				if (inProgram._code[slot] == CompiledProgram.OP_LIST)
+					slot = inProgram._operands[slot];
+				else
+					slot++;
+			}
+
+			for (int n = items.size() - 1; n >= 0; n--)
+				_execStack.push(items.get(n));
+		}
+	}
+
 	/**
 	 * Loads a Push program into the interpreter's exec and code stacks.
 	 * 
@@ -387,6 +717,12 @@ public class Interpreter implements Serializable {
 	 */
 
 	public int Step(int inMaxSteps) {
+		if (_profilerStripe != null)
+			return ProfiledStep(inMaxSteps);
+
+		if (_useExecCursors && !_useFrames)
+			return CursorStep(inMaxSteps);
+
 		int executed = 0;
 		while (inMaxSteps != 0 && _execStack.size() > 0) {			
 			ExecuteInstruction(_execStack.pop());
@@ -399,8 +735,152 @@ public class Interpreter implements Serializable {
 		return executed;
 	}
 
+	/**
+	 * Step with exec cursors. Lists are entered by pushing a cursor, and
+	 * while there are cursors the next item is taken from the top one
+	 * instead of being popped off the exec stack.
+	 */
+
+	protected int CursorStep(int inMaxSteps) {
+		if (_opcodeTable == null)
+			BuildOpcodeTable();
+
+		ObjectStack exec = _execStack;
+		int executed = 0;
+
+		while (inMaxSteps != 0) {
+			Object o;
+
+			if (_cursorDepth > 0) {
+				int c = _cursorDepth - 1;
+				Program p = _cursorPrograms[c];
+
+				o = p._stack[_cursorNext[c]++];
+
+				if (_cursorNext[c] == p._size) {
+					_cursorPrograms[c] = null;
+					_cursorDepth--;
+				}
+			} else if (exec._size > 0) {
+				o = exec.pop();
+			} else {
+				break;
+			}
+
+			Instruction i = null;
+
+			if (o instanceof Instruction) {
+				i = (Instruction) o;
+			} else if (o instanceof String) {
+				i = _instructions.get(o);
+
+				if (i == null)
+					_nameStack.push(o);
+			} else if (o instanceof Program) {
+				Program p = (Program) o;
+
+				if (p._size > 0)
+					PushCursor(p);
+			} else {
+				ExecuteInstruction(o);
+			}
+
+			if (i != null) {
+				if (i._usesExecStack && _cursorDepth > 0)
+					ExpandCursors();
+
+				i.Execute(this);
+			}
+
+			inMaxSteps--;
+			executed++;
+		}
+
+		ExpandCursors();
+
+		_totalStepsTaken += executed;
+
+		return executed;
+	}
+
+	private void PushCursor(Program inProgram) {
+		if (_cursorPrograms == null) {
+			_cursorPrograms = new Program[16];
+			_cursorNext = new int[16];
+		} else if (_cursorDepth == _cursorPrograms.length) {
+			_cursorPrograms = Arrays.copyOf(_cursorPrograms, 2 * _cursorDepth);
+			_cursorNext = Arrays.copyOf(_cursorNext, 2 * _cursorDepth);
+		}
+
+		_cursorPrograms[_cursorDepth] = inProgram;
+		_cursorNext[_cursorDepth] = 0;
+		_cursorDepth++;
+	}
+
+	/**
+	 * Pushes the items every cursor stands for onto the exec stack and
+	 * removes the cursors, leaving the exec stack as it would be without
+	 * cursors.
+	 */
+
+	protected void ExpandCursors() {
+		for (int c = 0; c < _cursorDepth; c++) {
+			Program p = _cursorPrograms[c];
+
+			for (int n = p._size - 1; n >= _cursorNext[c]; n--)
+				_execStack.push(p._stack[n]);
+
+			_cursorPrograms[c] = null;
+		}
+
+		_cursorDepth = 0;
+	}
+
+	/**
+	 * Step with instruction profiling. Instructions and instruction names are
+	 * counted against their opcodes; literals and lists are not counted.
+	 */
+
+	protected int ProfiledStep(int inMaxSteps) {
+		if (_opcodeTable == null || _profilerOpcodes == null)
+			BuildOpcodeTable();
+
+		InstructionProfiler.Stripe stripe = _profilerStripe;
+		HashMap<Instruction, Integer> opcodes = _profilerOpcodes;
+		int executed = 0;
+
+		while (inMaxSteps != 0 && _execStack.size() > 0) {
+			Object o = _execStack.pop();
+			Object i = o instanceof String ? _instructions.get(o) : o;
+			Integer opcode = i instanceof Instruction ? opcodes.get(i) : null;
+
+			if (opcode == null) {
+				ExecuteInstruction(o);
+			} else if (stripe.Sample()) {
+				long t = System.nanoTime();
+				ExecuteInstruction(o);
+				stripe.Count(opcode, System.nanoTime() - t);
+			} else {
+				ExecuteInstruction(o);
+				stripe.Count(opcode);
+			}
+
+			inMaxSteps--;
+			executed++;
+		}
+
+		_totalStepsTaken += executed;
+
+		return executed;
+	}
+
 	public int ExecuteInstruction(Object inObject) {
 
+		if (inObject instanceof Instruction) {
+			((Instruction) inObject).Execute(this);
+			return 0;
+		}
+
 		if (inObject instanceof Program) {
 			Program p = (Program) inObject;
 
@@ -427,11 +907,6 @@ public class Interpreter implements Serializable {
 			return 0;
 		}
 
-		if (inObject instanceof Instruction) {
-			((Instruction) inObject).Execute(this);
-			return 0;
-		}
-
 		if (inObject instanceof String) {
 			Instruction i = _instructions.get(inObject);
 
@@ -602,8 +1077,8 @@ public class Interpreter implements Serializable {
 
 	public String toString() {
 		String result = "";
-		result += "exec stack: " + _execStack + "\n";
-		result += "code stack: " + _codeStack + "\n";
+		result += "exec stack: " + StackToString(_execStack) + "\n";
+		result += "code stack: " + StackToString(_codeStack) + "\n";
 		result += "int stack: " + _intStack + "\n";
 		result += "float stack: " + _floatStack + "\n";
 		result += "boolean stack: " + _boolStack + "\n";
@@ -613,6 +1088,30 @@ public class Interpreter implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Returns a string containing the contents of an object stack, with any
+	 * Instruction objects printed using their registered names.
+	 */
+
+	protected String StackToString(ObjectStack inStack) {
+		String result = "[";
+
+		for (int n = inStack.size() - 1; n >= 0; n--) {
+			Object o = inStack.peek(n);
+
+			if (o instanceof Instruction && _instructionNames.containsKey(o))
+				o = _instructionNames.get(o);
+
+			if (n == inStack.size() - 1)
+				result += o;
+			else
+				result += " " + o;
+		}
+		result += "]";
+
+		return result;
+	}
+
 	/**
 	 * Resets the Push interpreter state by clearing all of the stacks.
 	 */
@@ -621,6 +1120,7 @@ public class Interpreter implements Serializable {
 		_intStack.clear();
 		_floatStack.clear();
 		_execStack.clear();
+		_cursorDepth = 0;
 		_nameStack.clear();
 		_boolStack.clear();
 		_codeStack.clear();
@@ -689,6 +1189,16 @@ public class Interpreter implements Serializable {
 		return _instructions.get(instr);
 	}
 
+	/**
+	 * Returns the name under which an Instruction was registered.
+	 * 
+	 * @param inInstruction
+	 * @return the name or null if the Instruction is not registered.
+	 */
+	public String GetInstructionName(Instruction inInstruction) {
+		return _instructionNames.get(inInstruction);
+	}
+
 	/**
 	 * Returns the number of evaluation executions so far this run.
 	 * 
@@ -698,6 +1208,18 @@ public class Interpreter implements Serializable {
 		return _evaluationExecutions;
 	}
 	
+	/**
+	 * Returns a batch interpreter which runs programs on this interpreter's
+	 * instructions for many inputs at once.
+	 */
+
+	public BatchInterpreter GetBatchInterpreter() {
+		if (_batchInterpreter == null)
+			_batchInterpreter = new BatchInterpreter(this);
+
+		return _batchInterpreter;
+	}
+
 	public InputPusher getInputPusher() {
 		return _inputPusher;
 	}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.util.*;
+
+/**
+ * Lexicase and epsilon-lexicase parent selection over the test case errors of
+ * a population.
+ *
+ * A lexicase selection considers the test cases one at a time in a random
+ * order, keeping only the candidates with the lowest error on each case, until
+ * one candidate remains or the cases run out. Epsilon-lexicase also keeps the
+ * candidates within epsilon of the lowest error, where each case's epsilon is
+ * the median absolute deviation of the population's errors on that case.
+ *
+ * Prepare is called once per generation. It copies the absolute errors into a
+ * primitive matrix, collapses individuals with identical error vectors into a
+ * single row (converged populations are mostly copies, which lexicase can't
+ * tell apart anyway), and finds the candidates which survive each case when
+ * it is considered first. Select then only filters the candidates that
+ * survive the first case, using buffers which are reused from selection to
+ * selection and generation to generation.
+ */
+
+public class LexicaseSelection {
+	protected boolean _useEpsilon;
+
+	// The number of individuals, distinct error vectors and test cases
+	// prepared. If _cases is 0, the population could not be prepared.
+	protected int _individuals;
+	protected int _rows;
+	protected int _cases;
+
+	// The individuals sharing each distinct error vector: the individuals of
+	// row r are _rowMembers[_rowStart[r]] to _rowMembers[_rowStart[r + 1] - 1].
+	protected int _rowOf[] = new int[0];
+	protected int _rowStart[] = new int[1];
+	protected int _rowMembers[] = new int[0];
+
+	// Absolute errors by case: the error of row r on case c is
+	// _errors[c * _rows + r].
+	protected float _errors[] = new float[0];
+	protected float _epsilons[] = new float[0];
+
+	// The rows which survive each case when it is considered first, stored
+	// in the same way as the row members.
+	protected int _firstStart[] = new int[1];
+	protected int _firstRows[] = new int[0];
+
+	// Scratch space for Prepare and Select.
+	protected float _individualErrors[] = new float[0];
+	protected float _sorted[] = new float[0];
+	protected int _hashTable[] = new int[0];
+	protected int _caseOrder[] = new int[0];
+	protected int _candidates[] = new int[0];
+
+	/**
+	 * Creates a lexicase selection.
+	 *
+	 * @param inUseEpsilon
+	 *            true for epsilon-lexicase selection, false for lexicase
+	 *            selection.
+	 */
+
+	public LexicaseSelection(boolean inUseEpsilon) {
+		_useEpsilon = inUseEpsilon;
+	}
+
+	/**
+	 * Returns whether the last call to Prepare succeeded. Prepare fails if an
+	 * individual has no errors, or if the individuals have different numbers
+	 * of errors.
+	 */
+
+	public boolean IsPrepared() {
+		return _cases > 0;
+	}
+
+	/**
+	 * Prepares to select from a population whose individuals have been
+	 * evaluated.
+	 *
+	 * @param inPopulation
+	 *            The population to select from.
+	 * @return true if the population could be prepared.
+	 */
+
+	public boolean Prepare(GAIndividual inPopulation[]) {
+		_individuals = inPopulation.length;
+		_rows = 0;
+		_cases = 0;
+
+		if (_individuals == 0)
+			return false;
+
+		int cases = inPopulation[0].GetErrorCount();
+
+		for (GAIndividual i : inPopulation) {
+			if (i.GetErrorCount() != cases)
+				return false;
+		}
+
+		if (cases == 0)
+			return false;
+
+		_cases = cases;
+
+		CopyErrors(inPopulation);
+		FindDistinctRows();
+		FillCaseErrors();
+		ComputeEpsilons();
+		FindFirstCaseSurvivors();
+
+		if (_caseOrder.length < _cases)
+			_caseOrder = new int[_cases];
+		if (_candidates.length < _rows)
+			_candidates = new int[_rows];
+
+		for (int c = 0; c < _cases; c++)
+			_caseOrder[c] = c;
+
+		return true;
+	}
+
+	/**
+	 * Selects an individual from the prepared population.
+	 *
+	 * @param inRNG
+	 *            The random number generator used for the case order and to
+	 *            break ties.
+	 * @return the index of the selected individual in the population.
+	 */
+
+	public int Select(Random inRNG) {
+		int order[] = _caseOrder;
+		int candidates[] = _candidates;
+
+		// The case order is shuffled as it is used, so that only the cases
+		// which are actually considered are drawn.
+
+		int swap = inRNG.nextInt(_cases);
+		int first = order[swap];
+		order[swap] = order[0];
+		order[0] = first;
+
+		int count = _firstStart[first + 1] - _firstStart[first];
+		System.arraycopy(_firstRows, _firstStart[first], candidates, 0, count);
+
+		for (int n = 1; n < _cases && count > 1; n++) {
+			swap = n + inRNG.nextInt(_cases - n);
+			int c = order[swap];
+			order[swap] = order[n];
+			order[n] = c;
+
+			int offset = c * _rows;
+			float best = Float.POSITIVE_INFINITY;
+
+			for (int k = 0; k < count; k++) {
+				float e = _errors[offset + candidates[k]];
+
+				if (e < best)
+					best = e;
+			}
+
+			float threshold = best + _epsilons[c];
+			int kept = 0;
+
+			for (int k = 0; k < count; k++) {
+				int r = candidates[k];
+
+				if (_errors[offset + r] <= threshold)
+					candidates[kept++] = r;
+			}
+
+			count = kept;
+		}
+
+		// Ties are broken uniformly among the surviving individuals, not the
+		// surviving rows, so a row is chosen in proportion to its members.
+
+		int survivors = 0;
+
+		for (int k = 0; k < count; k++)
+			survivors += _rowStart[candidates[k] + 1] - _rowStart[candidates[k]];
+
+		int choice = survivors == 1 ? 0 : inRNG.nextInt(survivors);
+
+		for (int k = 0;; k++) {
+			int start = _rowStart[candidates[k]];
+			int members = _rowStart[candidates[k] + 1] - start;
+
+			if (choice < members)
+				return _rowMembers[start + choice];
+
+			choice -= members;
+		}
+	}
+
+	/**
+	 * Copies the absolute errors of the population into _individualErrors, by
+	 * individual. NaN errors are treated as infinitely bad.
+	 */
+
+	protected void CopyErrors(GAIndividual inPopulation[]) {
+		int size = _individuals * _cases;
+
+		if (_individualErrors.length < size)
+			_individualErrors = new float[size];
+
+		for (int n = 0; n < _individuals; n++) {
+			float errors[] = inPopulation[n].GetErrorMatrix();
+			int from = inPopulation[n].GetErrorOffset();
+			int offset = n * _cases;
+
+			for (int c = 0; c < _cases; c++) {
+				float e = Math.abs(errors[from + c]);
+
+				_individualErrors[offset + c] = Float.isNaN(e) ? Float.POSITIVE_INFINITY
+						: e;
+			}
+		}
+	}
+
+	/**
+	 * Groups the individuals by error vector, using an open addressing hash
+	 * table of row numbers, and fills in _rowOf, _rowStart and _rowMembers.
+	 */
+
+	protected void FindDistinctRows() {
+		int tableSize = Integer.highestOneBit(Math.max(1, _individuals)) * 4;
+
+		if (_hashTable.length < tableSize)
+			_hashTable = new int[tableSize];
+		if (_rowOf.length < _individuals)
+			_rowOf = new int[_individuals];
+		if (_rowMembers.length < _individuals)
+			_rowMembers = new int[_individuals];
+		if (_rowStart.length < _individuals + 1)
+			_rowStart = new int[_individuals + 1];
+
+		Arrays.fill(_hashTable, 0, tableSize, -1);
+
+		// _rowMembers temporarily holds the first individual of each row
+
+		for (int n = 0; n < _individuals; n++) {
+			int slot = RowHash(n) & (tableSize - 1);
+
+			while (_hashTable[slot] != -1
+					&& !SameErrors(_rowMembers[_hashTable[slot]], n))
+				slot = (slot + 1) & (tableSize - 1);
+
+			if (_hashTable[slot] == -1) {
+				_hashTable[slot] = _rows;
+				_rowMembers[_rows] = n;
+				_rows++;
+			}
+
+			_rowOf[n] = _hashTable[slot];
+		}
+
+		// Count the members of each row, then place them.
+
+		Arrays.fill(_rowStart, 0, _rows + 1, 0);
+
+		for (int n = 0; n < _individuals; n++)
+			_rowStart[_rowOf[n] + 1]++;
+		for (int r = 0; r < _rows; r++)
+			_rowStart[r + 1] += _rowStart[r];
+
+		// _hashTable is reused to hold the next free place in each row
+
+		System.arraycopy(_rowStart, 0, _hashTable, 0, _rows);
+
+		for (int n = 0; n < _individuals; n++)
+			_rowMembers[_hashTable[_rowOf[n]]++] = n;
+	}
+
+	protected int RowHash(int inIndividual) {
+		int offset = inIndividual * _cases;
+		int hash = 7;
+
+		for (int c = 0; c < _cases; c++)
+			hash = 31 * hash
+					+ Float.floatToIntBits(_individualErrors[offset + c]);
+
+		return hash ^ (hash >>> 16);
+	}
+
+	protected boolean SameErrors(int inA, int inB) {
+		int a = inA * _cases, b = inB * _cases;
+
+		for (int c = 0; c < _cases; c++) {
+			if (Float.floatToIntBits(_individualErrors[a + c]) != Float
+					.floatToIntBits(_individualErrors[b + c]))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Fills the case-major error matrix from the first member of each row.
+	 */
+
+	protected void FillCaseErrors() {
+		int size = _rows * _cases;
+
+		if (_errors.length < size)
+			_errors = new float[size];
+
+		for (int r = 0; r < _rows; r++) {
+			int offset = _rowMembers[_rowStart[r]] * _cases;
+
+			for (int c = 0; c < _cases; c++)
+				_errors[c * _rows + r] = _individualErrors[offset + c];
+		}
+	}
+
+	/**
+	 * Computes each case's epsilon as the median absolute deviation of the
+	 * errors of all individuals on the case, or 0 for plain lexicase.
+	 */
+
+	protected void ComputeEpsilons() {
+		if (_epsilons.length < _cases)
+			_epsilons = new float[_cases];
+
+		if (!_useEpsilon) {
+			Arrays.fill(_epsilons, 0, _cases, 0);
+			return;
+		}
+
+		if (_sorted.length < _individuals)
+			_sorted = new float[_individuals];
+
+		for (int c = 0; c < _cases; c++) {
+			for (int n = 0; n < _individuals; n++)
+				_sorted[n] = _individualErrors[n * _cases + c];
+
+			float median = Median(_sorted, _individuals);
+
+			for (int n = 0; n < _individuals; n++) {
+				float e = _sorted[n];
+				_sorted[n] = (e == median) ? 0 : Math.abs(e - median);
+			}
+
+			float deviation = Median(_sorted, _individuals);
+
+			_epsilons[c] = (Float.isInfinite(deviation) || Float
+					.isNaN(deviation)) ? 0 : deviation;
+		}
+	}
+
+	protected float Median(float ioValues[], int inCount) {
+		Arrays.sort(ioValues, 0, inCount);
+
+		if ((inCount & 1) == 1)
+			return ioValues[inCount / 2];
+
+		float low = ioValues[inCount / 2 - 1], high = ioValues[inCount / 2];
+
+		return low == high ? low : low + (high - low) / 2;
+	}
+
+	/**
+	 * Finds the rows which survive each case when it is the first case
+	 * considered, which is every row within epsilon of the lowest error.
+	 */
+
+	protected void FindFirstCaseSurvivors() {
+		if (_firstStart.length < _cases + 1)
+			_firstStart = new int[_cases + 1];
+
+		int total = 0;
+
+		for (int pass = 0; pass < 2; pass++) {
+			total = 0;
+
+			for (int c = 0; c < _cases; c++) {
+				int offset = c * _rows;
+				float best = Float.POSITIVE_INFINITY;
+
+				for (int r = 0; r < _rows; r++) {
+					if (_errors[offset + r] < best)
+						best = _errors[offset + r];
+				}
+
+				float threshold = best + _epsilons[c];
+
+				_firstStart[c] = total;
+
+				for (int r = 0; r < _rows; r++) {
+					if (_errors[offset + r] <= threshold) {
+						if (pass == 1)
+							_firstRows[total] = r;
+						total++;
+					}
+				}
+			}
+
+			// The first pass only counts the survivors.
+
+			if (pass == 0 && _firstRows.length < total)
+				_firstRows = new int[total];
+		}
+
+		_firstStart[_cases] = total;
+	}
+}
@@ -41,6 +41,14 @@ public class ObjectStack extends Stack {
 		return ((ObjectStack) inOther).comparestack(_stack, _size);
 	}
 
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		for (int n = 0; n < _size; n++)
+			hash = 41 * hash + (_stack[n] == null ? 0 : _stack[n].hashCode());
+		return hash;
+	}
+
 	boolean comparestack(Object inOther[], int inOtherSize) {
 		if (inOtherSize != _size)
 			return false;
@@ -86,9 +94,6 @@ public class ObjectStack extends Stack {
 	}
 
 	public void push(Object inValue) {
-		if (inValue instanceof Program)
-			inValue = new Program((Program) inValue);
-
 		_stack[_size] = inValue;
 		_size++;
 
@@ -72,6 +72,7 @@ public class CartCentering extends PushGP {
 
 	public float EvaluateTestCase(GAIndividual inIndividual, Object inInput,
 			Object inOutput) {
+		Interpreter interpreter = GetInterpreter();
 		
 		int timeSteps = 1000;
 		float timeDiscritized = 0.01f;
@@ -84,11 +85,11 @@ public class CartCentering extends PushGP {
 		float velocity = (Float) xv._second;
 		
 		for(int step = 1; step <= timeSteps; step++){
-			_interpreter.ClearStacks();
+			interpreter.ClearStacks();
 
-			floatStack fStack = _interpreter.floatStack();
-			booleanStack bStack = _interpreter.boolStack();
-			ObjectStack iStack = _interpreter.inputStack();
+			floatStack fStack = interpreter.floatStack();
+			booleanStack bStack = interpreter.boolStack();
+			ObjectStack iStack = interpreter.inputStack();
 			
 			// Position will be on the top of the stack, and velocity will be
 			// second.
@@ -100,8 +101,8 @@ public class CartCentering extends PushGP {
 			iStack.push(position);
 			iStack.push(velocity);
 			
-			_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-					_executionLimit);
+			interpreter.Execute(((PushGPIndividual) inIndividual)
+					.GetCompiledProgram(interpreter), _executionLimit);
 			
 			// If there is no boolean on the stack, the program has failed to
 			// return a reasonable output. So, return a penalty fitness of
@@ -27,12 +27,24 @@ import org.spiderland.Psh.floatStack;
 public class FloatClassification extends PushGP {
 	private static final long serialVersionUID = 1L;
 
-	float _currentInput;
 	int _inputCount;
 
 	protected void InitFromParameters() throws Exception {
 		super.InitFromParameters();
 
+		if (!_testCases.isEmpty()) {
+			// Test cases were read from test-case-csv.
+			Object input = _testCases.get(0)._input;
+
+			_inputCount = input instanceof Object[] ? ((Object[]) input).length
+					: 1;
+
+			if (!(_testCases.get(0)._output instanceof Float))
+				throw new Exception(
+						"test-case-csv must have a float output column");
+			return;
+		}
+
 		String cases = GetParam("test-cases");
 
 		Program caselist = new Program(_interpreter, cases);
@@ -50,11 +62,24 @@ public class FloatClassification extends PushGP {
 				throw new Exception(
 						"Wrong number of inputs for fitness case \"" + p + "\"");
 
-			Float in = new Float(p.peek(0).toString());
-			Float out = new Float(p.peek(1).toString());
+			// A test case with several inputs holds them in an array.
+			Object in;
 
-			Print(";; Fitness case #" + i + " input: " + in + " output: " + out
-					+ "\n");
+			if (_inputCount == 1) {
+				in = Float.valueOf(p.peek(0).toString());
+			} else {
+				Object inputs[] = new Object[_inputCount];
+
+				for (int n = 0; n < _inputCount; n++)
+					inputs[n] = Float.valueOf(p.peek(n).toString());
+
+				in = inputs;
+			}
+
+			Float out = Float.valueOf(p.peek(_inputCount).toString());
+
+			Print(";; Fitness case #" + i + " input: "
+					+ TestCaseInputString(in) + " output: " + out + "\n");
 
 			_testCases.add(new GATestCase(in, out));
 		}
@@ -65,16 +90,16 @@ public class FloatClassification extends PushGP {
 
 	public float EvaluateTestCase(GAIndividual inIndividual, Object inInput,
 			Object inOutput) {
-		_interpreter.ClearStacks();
-
-		_currentInput = (Float) inInput;
+		Interpreter interpreter = GetInterpreter();
+		interpreter.ClearStacks();
 
-		floatStack stack = _interpreter.floatStack();
+		// The inputs go on their own stacks and on the input stack.
+		PushTestCaseInputs(interpreter, inInput);
 
-		stack.push(_currentInput);
+		floatStack stack = interpreter.floatStack();
 
-		_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-				_executionLimit);
+		interpreter.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
 
 		float result = stack.top();
 		// System.out.println( _interpreter + " " + result );
@@ -16,6 +16,7 @@
 
 package org.spiderland.Psh.ProbClass;
 
+import org.spiderland.Psh.BatchInterpreter;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.GATestCase;
 import org.spiderland.Psh.Interpreter;
@@ -23,6 +24,7 @@ import org.spiderland.Psh.ObjectPair;
 import org.spiderland.Psh.Program;
 import org.spiderland.Psh.PushGP;
 import org.spiderland.Psh.PushGPIndividual;
+import org.spiderland.Psh.TestCaseStore;
 import org.spiderland.Psh.floatStack;
 import org.spiderland.Psh.TestCase.TestCaseGenerator;
 
@@ -40,11 +42,24 @@ public class FloatSymbolicRegression extends PushGP {
 
 		String cases = GetParam("test-cases", true);
 		String casesClass = GetParam("test-case-class", true);
-		if (cases == null && casesClass == null) {
+		if (cases == null && casesClass == null && _testCaseStore == null
+				&& _testCases.isEmpty()) {
 			throw new Exception("No acceptable test-case parameter.");
 		}
 
-		if (casesClass != null) {
+		if (_testCaseStore != null) {
+			// Test cases are read from the store as they are run.
+			int output = _testCaseStore.GetOutputColumn();
+
+			if (_testCaseStore.GetColumnType(output) != TestCaseStore.FLOAT_COLUMN)
+				throw new Exception(
+						"test-case-file must have a float output column");
+		} else if (!_testCases.isEmpty()) {
+			// Test cases were read from test-case-csv.
+			if (!(_testCases.get(0)._output instanceof Float))
+				throw new Exception(
+						"test-case-csv must have a float output column");
+		} else if (casesClass != null) {
 			// Get test cases from the TestCasesClass.
 			Class<?> iclass = Class.forName(casesClass);
 			Object iObject = iclass.newInstance();
@@ -96,19 +111,16 @@ public class FloatSymbolicRegression extends PushGP {
 
 	public float EvaluateTestCase(GAIndividual inIndividual, Object inInput,
 			Object inOutput) {
-		_interpreter.ClearStacks();
+		Interpreter interpreter = GetInterpreter();
+		interpreter.ClearStacks();
 
-		float currentInput = (Float) inInput;
+		// The inputs go on their own stacks and on the input stack.
+		PushTestCaseInputs(interpreter, inInput);
 
-		floatStack stack = _interpreter.floatStack();
+		floatStack stack = interpreter.floatStack();
 
-		stack.push(currentInput);
-
-		// Must be included in order to use the input stack.
-		_interpreter.inputStack().push(currentInput);
-
-		_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-				_executionLimit);
+		interpreter.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
 
 		float result = stack.top();
 		
@@ -120,20 +132,74 @@ public class FloatSymbolicRegression extends PushGP {
 		return result - ((Float) inOutput);
 	}
 	
-	public float GetIndividualTestCaseResult(GAIndividual inIndividual, GATestCase inTestCase){
-		_interpreter.ClearStacks();
+	protected boolean EvaluateTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstCase, int inCases, float ioErrors[], int inOffset) {
+		Interpreter interpreter = GetInterpreter();
+		BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+		batch.ClearStacks(inCases);
+
+		// The inputs go on their own stacks and on the input stack.
+		if (!PushTestCaseInputsInBatch(batch, inFirstCase))
+			return false;
+
+		batch.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
+
+		for (int k = 0; k < inCases; k++) {
+			int n = inFirstCase + k;
+
+			// Penalize individual if there is no result on the stack.
+			if (batch.FloatStackSize(k) == 0)
+				ioErrors[inOffset + n] = _noResultPenalty;
+			else
+				ioErrors[inOffset + n] = batch.FloatStackTop(k)
+						- ((Float) _testCases.get(n)._output);
+		}
+
+		return true;
+	}
 
-		float currentInput = (Float) inTestCase._input;
+	protected boolean EvaluateStoredTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstRow, int inRows, float outErrors[]) {
+		Interpreter interpreter = GetInterpreter();
+		BatchInterpreter batch = interpreter.GetBatchInterpreter();
 
-		floatStack stack = _interpreter.floatStack();
+		float outputs[] = new float[inRows];
+
+		_testCaseStore.ReadFloats(_testCaseStore.GetOutputColumn(), inFirstRow,
+				outputs, inRows);
+
+		batch.ClearStacks(inRows);
+
+		// The inputs go on their own stacks and on the input stack.
+		PushStoredInputsInBatch(batch, inFirstRow, inRows);
+
+		batch.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
+
+		for (int k = 0; k < inRows; k++) {
+			// Penalize individual if there is no result on the stack.
+			if (batch.FloatStackSize(k) == 0)
+				outErrors[k] = _noResultPenalty;
+			else
+				outErrors[k] = batch.FloatStackTop(k) - outputs[k];
+		}
+
+		return true;
+	}
+
+	public float GetIndividualTestCaseResult(GAIndividual inIndividual, GATestCase inTestCase){
+		Interpreter interpreter = GetInterpreter();
+		interpreter.ClearStacks();
 
-		stack.push(currentInput);
+		// The inputs go on their own stacks and on the input stack.
+		PushTestCaseInputs(interpreter, inTestCase._input);
 
-		// Must be included in order to use the input stack.
-		_interpreter.inputStack().push(currentInput);
+		floatStack stack = interpreter.floatStack();
 
-		_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-				_executionLimit);
+		interpreter.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
 
 		float result = stack.top();
 		
@@ -16,6 +16,7 @@
 
 package org.spiderland.Psh.ProbClass;
 
+import org.spiderland.Psh.BatchInterpreter;
 import org.spiderland.Psh.GAIndividual;
 import org.spiderland.Psh.GATestCase;
 import org.spiderland.Psh.Interpreter;
@@ -23,6 +24,7 @@ import org.spiderland.Psh.ObjectPair;
 import org.spiderland.Psh.Program;
 import org.spiderland.Psh.PushGP;
 import org.spiderland.Psh.PushGPIndividual;
+import org.spiderland.Psh.TestCaseStore;
 import org.spiderland.Psh.intStack;
 import org.spiderland.Psh.TestCase.TestCaseGenerator;
 
@@ -40,11 +42,24 @@ public class IntSymbolicRegression extends PushGP {
 
 		String cases = GetParam("test-cases", true);
 		String casesClass = GetParam("test-case-class", true);
-		if (cases == null && casesClass == null) {
+		if (cases == null && casesClass == null && _testCaseStore == null
+				&& _testCases.isEmpty()) {
 			throw new Exception("No acceptable test-case parameter.");
 		}
 
-		if (casesClass != null) {
+		if (_testCaseStore != null) {
+			// Test cases are read from the store as they are run.
+			int output = _testCaseStore.GetOutputColumn();
+
+			if (_testCaseStore.GetColumnType(output) != TestCaseStore.INT_COLUMN)
+				throw new Exception(
+						"test-case-file must have an int output column");
+		} else if (!_testCases.isEmpty()) {
+			// Test cases were read from test-case-csv.
+			if (!(_testCases.get(0)._output instanceof Integer))
+				throw new Exception(
+						"test-case-csv must have an int output column");
+		} else if (casesClass != null) {
 			// Get test cases from the TestCasesClass.
 			Class<?> iclass = Class.forName(casesClass);
 			Object iObject = iclass.newInstance();
@@ -95,19 +110,16 @@ public class IntSymbolicRegression extends PushGP {
 
 	public float EvaluateTestCase(GAIndividual inIndividual, Object inInput,
 			Object inOutput) {
-		_interpreter.ClearStacks();
+		Interpreter interpreter = GetInterpreter();
+		interpreter.ClearStacks();
 
-		int currentInput = (Integer) inInput;
+		// The inputs go on their own stacks and on the input stack.
+		PushTestCaseInputs(interpreter, inInput);
 
-		intStack stack = _interpreter.intStack();
+		intStack stack = interpreter.intStack();
 
-		stack.push(currentInput);
-
-		// Must be included in order to use the input stack.
-		_interpreter.inputStack().push(currentInput);
-
-		_interpreter.Execute(((PushGPIndividual) inIndividual)._program,
-				_executionLimit);
+		interpreter.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
 
 		int result = stack.top();
 		// System.out.println( _interpreter + " " + result );
@@ -120,4 +132,61 @@ public class IntSymbolicRegression extends PushGP {
 		return result - ((Integer) inOutput);
 	}
 
+	protected boolean EvaluateTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstCase, int inCases, float ioErrors[], int inOffset) {
+		Interpreter interpreter = GetInterpreter();
+		BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+		batch.ClearStacks(inCases);
+
+		// The inputs go on their own stacks and on the input stack.
+		if (!PushTestCaseInputsInBatch(batch, inFirstCase))
+			return false;
+
+		batch.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
+
+		for (int k = 0; k < inCases; k++) {
+			int n = inFirstCase + k;
+
+			// Penalize individual if there is no result on the stack.
+			if (batch.IntStackSize(k) == 0)
+				ioErrors[inOffset + n] = _noResultPenalty;
+			else
+				ioErrors[inOffset + n] = (float) (batch.IntStackTop(k) - ((Integer) _testCases
+						.get(n)._output));
+		}
+
+		return true;
+	}
+
+	protected boolean EvaluateStoredTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstRow, int inRows, float outErrors[]) {
+		Interpreter interpreter = GetInterpreter();
+		BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+		int outputs[] = new int[inRows];
+
+		_testCaseStore.ReadInts(_testCaseStore.GetOutputColumn(), inFirstRow,
+				outputs, inRows);
+
+		batch.ClearStacks(inRows);
+
+		// The inputs go on their own stacks and on the input stack.
+		PushStoredInputsInBatch(batch, inFirstRow, inRows);
+
+		batch.Execute(((PushGPIndividual) inIndividual)
+				.GetCompiledProgram(interpreter), _executionLimit);
+
+		for (int k = 0; k < inRows; k++) {
+			// Penalize individual if there is no result on the stack.
+			if (batch.IntStackSize(k) == 0)
+				outErrors[k] = _noResultPenalty;
+			else
+				outErrors[k] = (float) (batch.IntStackTop(k) - outputs[k]);
+		}
+
+		return true;
+	}
+
 }
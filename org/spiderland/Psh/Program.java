@@ -20,6 +20,12 @@ import java.io.Serializable;
 
 /**
  * A Push program.
+ * 
+ * Programs are shared rather than copied when they are pushed onto a stack or
+ * placed inside of another program, so a program must not be modified once it
+ * is in use. Copying a program copies only its top level list, and the
+ * modification methods (ReplaceSubtree and Flatten) copy any subprogram that
+ * they change, leaving the original subprogram untouched.
  */
 
 public class Program extends ObjectStack implements Serializable {
@@ -27,6 +33,12 @@ public class Program extends ObjectStack implements Serializable {
 
 	Interpreter _interpreter = null;
 
+	// Cached point offsets of the subprograms in this program. _offsets[n] is
+	// the number of points inside of the subprograms before element n, and
+	// _offsets[_size] is the number of points inside of all subprograms. The
+	// cache is discarded whenever this program is modified.
+	private transient volatile int _offsets[];
+
 	public Interpreter getInterpreter() {
 		return _interpreter;
 	}
@@ -53,15 +65,15 @@ public class Program extends ObjectStack implements Serializable {
 	}
 
 	/**
-	 * Constructs a copy of an existing Program.
+	 * Constructs a copy of an existing Program. Subprograms are shared with
+	 * the original.
 	 * 
 	 * @param inOther
 	 *            The Push program to copy.
 	 */
 
 	public Program(Program inOther) {
-		inOther.CopyTo(this);
-		_interpreter = inOther._interpreter;
+		CopyFrom(inOther);
 	}
 
 	/**
@@ -138,17 +150,18 @@ public class Program extends ObjectStack implements Serializable {
 
 				} else if (Character.isLetter(token.charAt(0))) {
 
-					push(token);
-					
-					// This makes printing stacks very ugly. For now, will store
-					// program instructions as strings, as was done before.
-					/*
-					Instruction i = _interpreter._instructions.get(token);
+					// Recognized instructions are stored as Instruction objects
+					// if the interpreter asks for it. Anything else is a name.
+
+					Instruction i = null;
+
+					if (_interpreter != null && _interpreter._internInstructions)
+						i = _interpreter._instructions.get(token);
+
 					if (i != null)
 						push(i);
 					else
 						push(token);
-					*/
 
 				} else {
 					Object number;
@@ -176,15 +189,61 @@ public class Program extends ObjectStack implements Serializable {
 	 * @return The size of the program.
 	 */
 	public int programsize() {
-		int size = _size;
+		return _size + Offsets()[_size];
+	}
 
-		for (int n = 0; n < _size; n++) {
-			Object o = _stack[n];
-			if (o instanceof Program)
-				size += ((Program) o).programsize();
+	/**
+	 * Returns the cached subprogram offsets, computing them if needed.
+	 */
+
+	private int[] Offsets() {
+		int offsets[] = _offsets;
+
+		if (offsets == null) {
+			offsets = new int[_size + 1];
+
+			for (int n = 0; n < _size; n++) {
+				Object o = _stack[n];
+				offsets[n + 1] = offsets[n];
+
+				if (o instanceof Program)
+					offsets[n + 1] += ((Program) o).programsize();
+			}
+
+			_offsets = offsets;
+		}
+
+		return offsets;
+	}
+
+	/**
+	 * Finds the subprogram containing a point, given the point's index past
+	 * the top level elements of this program.
+	 * 
+	 * @return The index of the subprogram, or -1 if there is no such point.
+	 */
+
+	private int SubprogramIndex(int inOffset) {
+		int offsets[] = Offsets();
+
+		if (inOffset < 0 || inOffset >= offsets[_size])
+			return -1;
+
+		// Find the last element whose offset is not past the point. Only
+		// subprograms contain points, so this element is the subprogram.
+
+		int low = 0, high = _size - 1;
+
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+
+			if (offsets[mid] <= inOffset)
+				low = mid;
+			else
+				high = mid - 1;
 		}
 
-		return size;
+		return low;
 	}
 
 	/**
@@ -219,21 +278,11 @@ public class Program extends ObjectStack implements Serializable {
 		if (inIndex < _size) {
 			return _stack[inIndex];
 		} else {
-			int startIndex = _size;
+			int n = SubprogramIndex(inIndex - _size);
 
-			for (int n = 0; n < _size; n++) {
-				Object o = _stack[n];
-
-				if (o instanceof Program) {
-					Program sub = (Program) o;
-					int length = sub.programsize();
-
-					if (inIndex - startIndex < length)
-						return sub.Subtree(inIndex - startIndex);
-
-					startIndex += length;
-				}
-			}
+			if (n != -1)
+				return ((Program) _stack[n]).Subtree(inIndex - _size
+						- Offsets()[n]);
 		}
 
 		return null;
@@ -252,23 +301,19 @@ public class Program extends ObjectStack implements Serializable {
 	public boolean ReplaceSubtree(int inIndex, Object inReplacement) {
 		if (inIndex < _size) {
 			_stack[inIndex] = cloneforprogram(inReplacement);
+			_offsets = null;
 			return true;
 		} else {
-			int startIndex = _size;
+			int n = SubprogramIndex(inIndex - _size);
 
-			for (int n = 0; n < _size; n++) {
-				Object o = _stack[n];
+			if (n != -1) {
+				Program sub = new Program((Program) _stack[n]);
+				int subIndex = inIndex - _size - Offsets()[n];
 
-				if (o instanceof Program) {
-					Program sub = (Program) o;
-					int length = sub.programsize();
+				_stack[n] = sub;
+				_offsets = null;
 
-					if (inIndex - startIndex < length)
-						return sub.ReplaceSubtree(inIndex - startIndex,
-								inReplacement);
-
-					startIndex += length;
-				}
+				return sub.ReplaceSubtree(subIndex, inReplacement);
 			}
 		}
 
@@ -299,22 +344,16 @@ public class Program extends ObjectStack implements Serializable {
 				}
 			}
 		} else {
-			int startIndex = _size;
+			int n = SubprogramIndex(inIndex - _size);
 
-			for (int n = 0; n < _size; n++) {
-				Object o = _stack[n];
-
-				if (o instanceof Program) {
-					Program sub = (Program) o;
-					int length = sub.programsize();
+			if (n != -1) {
+				Program sub = new Program((Program) _stack[n]);
+				int subIndex = inIndex - _size - Offsets()[n];
 
-					if (inIndex - startIndex < length) {
-						sub.Flatten(inIndex - startIndex);
-						break;
-					}
+				_stack[n] = sub;
+				_offsets = null;
 
-					startIndex += length;
-				}
+				sub.Flatten(subIndex);
 			}
 		}
 	}
@@ -331,14 +370,94 @@ public class Program extends ObjectStack implements Serializable {
 			inOther.push(_stack[n]);
 	}
 
+	/**
+	 * Sets this program to a copy of another, reusing this program's storage.
+	 * Subprograms are shared with the other program.
+	 * 
+	 * @param inOther
+	 *            The Push program to copy.
+	 */
+
+	public void CopyFrom(Program inOther) {
+		int oldSize = _size;
+
+		clear();
+		inOther.CopyTo(this);
+
+		// Release anything left over from this program's old contents
+
+		for (int n = _size; n < oldSize; n++)
+			_stack[n] = null;
+
+		_interpreter = inOther._interpreter;
+		_offsets = inOther._offsets;
+	}
+
+	// The stack operations are overridden so that any change to this program
+	// discards the cached offsets.
+
+	public void push(Object inValue) {
+		super.push(inValue);
+		_offsets = null;
+	}
+
+	public Object pop() {
+		_offsets = null;
+		return super.pop();
+	}
+
+	public void popdiscard() {
+		super.popdiscard();
+		_offsets = null;
+	}
+
+	public void clear() {
+		super.clear();
+		_offsets = null;
+	}
+
+	public void shove(Object obj, int n) {
+		super.shove(obj, n);
+		_offsets = null;
+	}
+
+	public void shove(int inIndex) {
+		super.shove(inIndex);
+		_offsets = null;
+	}
+
+	public void swap() {
+		super.swap();
+		_offsets = null;
+	}
+
+	public void rot() {
+		super.rot();
+		_offsets = null;
+	}
+
+	public void yank(int inIndex) {
+		super.yank(inIndex);
+		_offsets = null;
+	}
+
 	public String toString() {
 		String result = "(";
 
 		for (int n = 0; n < _size; n++) {
+			Object o = _stack[n];
+
+			if (o instanceof Instruction && _interpreter != null) {
+				String name = _interpreter.GetInstructionName((Instruction) o);
+
+				if (name != null)
+					o = name;
+			}
+
 			if (result.charAt(result.length() - 1) == '(')
-				result += _stack[n];
+				result += o;
 			else
-				result += " " + _stack[n];
+				result += " " + o;
 		}
 
 		result += ")";
@@ -364,7 +483,7 @@ public class Program extends ObjectStack implements Serializable {
 			return new Float((Float) inObject);
 
 		if (inObject instanceof Program)
-			return new Program((Program) inObject);
+			return inObject; // no need to copy; programs are shared
 
 		if (inObject instanceof Instruction)
 			return inObject; // no need to copy; instructions are singletons
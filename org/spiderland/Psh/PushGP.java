@@ -16,7 +16,13 @@
 
 package org.spiderland.Psh;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Push Genetic Programming core class.
@@ -46,16 +52,98 @@ abstract public class PushGP extends GA {
 	
 	protected String _targetFunctionString;
 
+	protected int _evaluationThreads;
+	protected transient ExecutorService _evaluationExecutor;
+	protected transient Interpreter _workerInterpreters[];
+	protected transient ArrayList<Thread> _evaluationWorkers;
+	protected transient ThreadLocal<Interpreter> _activeInterpreter;
+
+	protected int _fitnessCacheSize;
+	protected transient LinkedHashMap<Program, ObjectPair> _fitnessCache;
+	protected long _fitnessCacheHits;
+	protected long _fitnessCacheMisses;
+
+	// Early abort: while the population is being evaluated, an individual's
+	// evaluation stops once its fitness is certain to be above
+	// _earlyAbortFitness, which is _earlyAbortThreshold times the previous
+	// generation's best or median fitness. Outside of Evaluate it is
+	// infinite, so that simplifications and other evaluations are complete.
+	static final int EARLY_ABORT_FIRST_BATCH = 16;
+
+	protected float _earlyAbortThreshold;
+	protected String _earlyAbortReference;
+	protected float _earlyAbortReferenceFitness = Float.NaN;
+	protected float _earlyAbortFitness = Float.POSITIVE_INFINITY;
+	protected int _earlyAbortedIndividuals;
+	protected AtomicLong _earlyAbortSkippedCases = new AtomicLong();
+	protected transient float _earlyAbortSorted[];
+
+	// The test case store named by test-case-file. When there is a store,
+	// individuals are evaluated on its rows rather than on _testCases, in
+	// chunks of STORE_CHUNK_ROWS. The store isn't serialized, but is reopened
+	// from _testCaseFile when a serialized checkpoint is read.
+	static final int STORE_CHUNK_ROWS = 1024;
+
+	protected String _testCaseFile;
+	protected transient TestCaseStore _testCaseStore;
+
+	// Case sampling: when _caseSampleSize is above 0, each generation is
+	// evaluated on a sample of that many test cases, drawn according to
+	// _caseSampleStrategy. The best individual is then evaluated on every
+	// test case, so that the reported best fitness and Success() are exact.
+	// Reproduction simplifications use the generation's sample.
+	protected int _caseSampleSize;
+	protected String _caseSampleStrategy;
+	protected transient ArrayList<GATestCase> _caseSample;
+	protected transient boolean _evaluatingSample;
+
+	// The test case order sampled from: shuffled for the rotating strategy,
+	// and sorted by output for the stratified strategy.
+	protected transient int _caseSampleOrder[];
+
+	// Instruction profiling: when _profileInstructions is above 0, every
+	// interpreter records into _profiler, and each report lists that many of
+	// the most executed instructions since the previous report. The profile
+	// is also appended to _profileFile, if one is given.
+	protected int _profileInstructions;
+	protected String _profileFile;
+	protected transient InstructionProfiler _profiler;
+
+	// The test case inputs pushed by PushTestCaseInputsInBatch, which are
+	// kept from one individual to the next and rebuilt when the test cases
+	// change.
+	private transient volatile BatchInputs _batchInputs;
+
+	static class BatchInputs {
+		// Each test case's input, to tell when the test cases have changed
+		Object _caseInputs[];
+
+		// _inputs[i][n] is input i of test case n. _values[i] holds the same
+		// inputs in an int[], float[] or boolean[] if they are all of that
+		// type, or is null if none of them are.
+		Object _inputs[][];
+		Object _values[];
+
+		// false if the test cases can't be run in a batch, because they have
+		// different numbers of inputs or inputs of different types.
+		boolean _batchable;
+	}
+
 	protected void InitFromParameters() throws Exception {
 		// Default parameters to be used when optional parameters are not
 		// given.
 		float defaultFairMutationRange = 0.3f;
 		float defaultsimplifyFlattenPercent = 20f;
-		String defaultInterpreterClass = "org.spiderland.Psh.Interpreter";
-		String defaultInputPusherClass = "org.spiderland.Psh.InputPusher";
 		String defaultTargetFunctionString = "";
 		float defaultNodeSelectionLeafProbability = 10;
 		int defaultNodeSelectionTournamentSize = 2;
+		int defaultEvaluationThreads = 1;
+		int defaultFitnessCacheSize = 0;
+		float defaultEarlyAbortThreshold = 0;
+		String defaultEarlyAbortReference = "median";
+		int defaultCaseSampleSize = 0;
+		String defaultCaseSampleStrategy = "random";
+		int defaultProfileInstructions = 0;
 
 		// Limits
 		_maxRandomCodeSize = (int) GetFloatParam("max-random-code-size");
@@ -109,6 +197,198 @@ abstract public class PushGP extends GA {
 		_reportSimplifications = (int) GetFloatParam("report-simplifications");
 		_finalSimplifications = (int) GetFloatParam("final-simplifications");
 
+		// Instruction profiling parameters, which must be read before any
+		// interpreter is created
+		if (Float.isNaN(GetFloatParam("profile-instructions", true))) {
+			_profileInstructions = defaultProfileInstructions;
+		} else {
+			_profileInstructions = (int) GetFloatParam("profile-instructions",
+					true);
+		}
+
+		_profileFile = GetParam("profile-file", true);
+		if (_profileFile != null && _profileInstructions <= 0)
+			throw new Exception("profile-file requires profile-instructions");
+
+		_profiler = _profileInstructions > 0 ? new InstructionProfiler() : null;
+
+		// Setup our custom interpreter class based on the params we're given
+		_interpreter = CreateInterpreter();
+
+		// Parallel evaluation parameters
+		if (Float.isNaN(GetFloatParam("evaluation-threads", true))) {
+			_evaluationThreads = defaultEvaluationThreads;
+		} else {
+			_evaluationThreads = (int) GetFloatParam("evaluation-threads", true);
+		}
+
+		// Fitness cache parameters. Programs using random instructions may
+		// not get the same fitness twice, so they are never cached.
+		boolean fitnessCacheDisabled = false;
+
+		if (Float.isNaN(GetFloatParam("fitness-cache-size", true))) {
+			_fitnessCacheSize = defaultFitnessCacheSize;
+		} else {
+			_fitnessCacheSize = (int) GetFloatParam("fitness-cache-size", true);
+		}
+
+		if (_fitnessCacheSize > 0 && _interpreter.UsesRandomInstructions()) {
+			_fitnessCacheSize = 0;
+			fitnessCacheDisabled = true;
+		}
+
+		// Early abort parameters
+		if (Float.isNaN(GetFloatParam("early-abort-threshold", true))) {
+			_earlyAbortThreshold = defaultEarlyAbortThreshold;
+		} else {
+			_earlyAbortThreshold = GetFloatParam("early-abort-threshold", true);
+		}
+
+		_earlyAbortReference = GetParam("early-abort-reference", true);
+		if (_earlyAbortReference == null) {
+			_earlyAbortReference = defaultEarlyAbortReference;
+		} else if (!_earlyAbortReference.equals("median")
+				&& !_earlyAbortReference.equals("best")) {
+			throw new Exception(
+					"early-abort-reference must be set to median or best.\n"
+							+ "Currently set to " + _earlyAbortReference);
+		}
+
+		// Case sampling parameters
+		if (Float.isNaN(GetFloatParam("case-sample-size", true))) {
+			_caseSampleSize = defaultCaseSampleSize;
+		} else {
+			_caseSampleSize = (int) GetFloatParam("case-sample-size", true);
+		}
+
+		_caseSampleStrategy = GetParam("case-sample-strategy", true);
+		if (_caseSampleStrategy == null) {
+			_caseSampleStrategy = defaultCaseSampleStrategy;
+		} else if (!_caseSampleStrategy.equals("random")
+				&& !_caseSampleStrategy.equals("stratified")
+				&& !_caseSampleStrategy.equals("rotating")) {
+			throw new Exception(
+					"case-sample-strategy must be set to random, stratified or rotating.\n"
+							+ "Currently set to " + _caseSampleStrategy);
+		}
+
+		// Test case store
+		_testCaseFile = GetParam("test-case-file", true);
+		if (_testCaseFile != null) {
+			if (_caseSampleSize > 0)
+				throw new Exception(
+						"case-sample-size can't be used with test-case-file");
+
+			_testCaseStore = TestCaseStore.Open(new File(_testCaseFile));
+		}
+
+		// Test cases from a CSV file, which problem classes use in place of
+		// test-cases
+		String testCaseCSV = GetParam("test-case-csv", true);
+		if (testCaseCSV != null) {
+			_testCases.addAll(TestCaseCSVReader.ReadTestCases(new File(
+					testCaseCSV)));
+		}
+
+		// Target function string
+		_targetFunctionString = GetParam("target-function-string", true);
+		if(_targetFunctionString == null){
+			_targetFunctionString = defaultTargetFunctionString;
+		}
+
+		// Init the GA
+		super.InitFromParameters();
+
+		// Print important parameters
+		Print("  Important Parameters\n");
+		Print(" ======================\n");
+
+		if(!_targetFunctionString.equals("")){
+			Print("Target Function: " + _targetFunctionString + "\n\n");
+		}
+		
+		Print("Population Size: " + (int) GetFloatParam("population-size")
+				+ "\n");
+		Print("Generations: " + _maxGenerations + "\n");
+		Print("Execution Limit: " + _executionLimit + "\n\n");
+
+		Print("Crossover Percent: " + _crossoverPercent + "\n");
+		Print("Mutation Percent: " + _mutationPercent + "\n");
+		Print("Simplification Percent: " + _simplificationPercent + "\n");
+		Print("Clone Percent: "
+				+ (100 - _crossoverPercent - _mutationPercent - _simplificationPercent)
+				+ "\n\n");
+
+		if (_selectionMode.equals("tournament")) {
+			Print("Tournament Size: " + _tournamentSize + "\n");
+		} else {
+			Print("Selection Mode: " + _selectionMode + "\n");
+		}
+		if (_trivialGeographyRadius != 0) {
+			Print("Trivial Geography Radius: " + _trivialGeographyRadius + "\n");
+		}
+		if (_islands != null) {
+			Print("Islands: " + _islands.length + " (migrating "
+					+ _migrationSize + " every " + _migrationInterval
+					+ " generations, " + _migrationTopology + " topology)\n");
+		}
+		Print("Node Selection Mode: " + _nodeSelectionMode);
+		Print("\n");
+		if (_evaluationThreads > 1) {
+			Print("Evaluation Threads: " + _evaluationThreads + "\n");
+		}
+		if (_fitnessCacheSize > 0) {
+			Print("Fitness Cache Size: " + _fitnessCacheSize + "\n");
+		} else if (fitnessCacheDisabled) {
+			Print("Fitness Cache: disabled for random instructions\n");
+		}
+		if (_earlyAbortThreshold > 0) {
+			Print("Early Abort Threshold: " + _earlyAbortThreshold + " x "
+					+ _earlyAbortReference + " fitness\n");
+		}
+		if (_testCaseStore != null) {
+			Print("Test Case File: " + _testCaseFile + " ("
+					+ _testCaseStore.GetRowCount() + " test cases, "
+					+ _testCaseStore.GetInputCount() + " inputs)\n");
+		}
+		if (testCaseCSV != null) {
+			Print("Test Case CSV: " + testCaseCSV + " (" + _testCases.size()
+					+ " test cases)\n");
+		}
+		if (_caseSampleSize > 0) {
+			Print("Case Sample: " + _caseSampleSize
+					+ " test cases per generation (" + _caseSampleStrategy
+					+ ")\n");
+		}
+		if (_interpreter._useExecCursors) {
+			Print("Exec Cursors: enabled\n");
+		}
+		if (_profiler != null) {
+			Print("Instruction Profile: top " + _profileInstructions
+					+ " instructions each generation"
+					+ (_profileFile != null ? ", written to " + _profileFile
+							: "") + "\n");
+		}
+
+		Print("Instructions: " + _interpreter.GetInstructionsString() + "\n");
+
+		Print("\n");
+		
+	}
+
+	/**
+	 * Creates and configures a new interpreter from the run parameters. The
+	 * main interpreter and every parallel evaluation worker are created here,
+	 * so all of them share the same instruction set, ERC parameters, input
+	 * pusher class and frame mode.
+	 * 
+	 * @return A newly configured interpreter.
+	 */
+
+	protected Interpreter CreateInterpreter() throws Exception {
+		String defaultInterpreterClass = "org.spiderland.Psh.Interpreter";
+		String defaultInputPusherClass = "org.spiderland.Psh.InputPusher";
+
 		// ERC parameters
 		int minRandomInt;
 		int defaultMinRandomInt = -10;
@@ -169,15 +449,23 @@ abstract public class PushGP extends GA {
 			throw (new Exception(
 					"interpreter-class must inherit from class Interpreter"));
 
-		_interpreter = (Interpreter) iObject;
-		_interpreter.SetInstructions(new Program(_interpreter,
+		Interpreter interpreter = (Interpreter) iObject;
+		interpreter.SetInstructions(new Program(interpreter,
 				GetParam("instruction-set")));
-		_interpreter.SetRandomParameters(minRandomInt, maxRandomInt,
+		interpreter.SetRandomParameters(minRandomInt, maxRandomInt,
 				randomIntResolution, minRandomFloat, maxRandomFloat,
 				randomFloatResolution, _maxRandomCodeSize, _maxPointsInProgram);
 
-		// Frame mode and input pusher class
+		// Frame mode, exec cursor mode and input pusher class
 		String framemode = GetParam("push-frame-mode", true);
+
+		String execCursors = GetParam("exec-cursors", true);
+		if (execCursors != null && !execCursors.equals("true")
+				&& !execCursors.equals("false")) {
+			throw new Exception(
+					"exec-cursors must be set to true or false.\nCurrently set to "
+							+ execCursors);
+		}
 		
 		String inputpusherClass = GetParam("inputpusher-class", true);
 		if (inputpusherClass == null) {
@@ -192,54 +480,39 @@ abstract public class PushGP extends GA {
 			throw new Exception(
 					"inputpusher-class must inherit from class InputPusher");
 
-		_interpreter.setInputPusher((InputPusher) iObject);
+		interpreter.setInputPusher((InputPusher) iObject);
 
 		// Initialize the interpreter
-		InitInterpreter(_interpreter);
+		InitInterpreter(interpreter);
 
 		if (framemode != null && framemode.equals("pushstacks"))
-			_interpreter.SetUseFrames(true);
+			interpreter.SetUseFrames(true);
 
-		// Target function string
-		_targetFunctionString = GetParam("target-function-string", true);
-		if(_targetFunctionString == null){
-			_targetFunctionString = defaultTargetFunctionString;
-		}
+		if ("true".equals(execCursors))
+			interpreter.SetUseExecCursors(true);
 
-		// Init the GA
-		super.InitFromParameters();
+		if (_profiler != null)
+			interpreter.SetProfiler(_profiler);
 
-		// Print important parameters
-		Print("  Important Parameters\n");
-		Print(" ======================\n");
+		return interpreter;
+	}
 
-		if(!_targetFunctionString.equals("")){
-			Print("Target Function: " + _targetFunctionString + "\n\n");
-		}
-		
-		Print("Population Size: " + (int) GetFloatParam("population-size")
-				+ "\n");
-		Print("Generations: " + _maxGenerations + "\n");
-		Print("Execution Limit: " + _executionLimit + "\n\n");
+	/**
+	 * Returns the interpreter which should be used to run test cases on the
+	 * calling thread. During parallel evaluation each worker thread has its
+	 * own interpreter; otherwise this is the main interpreter. Problem classes
+	 * should use this rather than _interpreter in EvaluateTestCase.
+	 */
 
-		Print("Crossover Percent: " + _crossoverPercent + "\n");
-		Print("Mutation Percent: " + _mutationPercent + "\n");
-		Print("Simplification Percent: " + _simplificationPercent + "\n");
-		Print("Clone Percent: "
-				+ (100 - _crossoverPercent - _mutationPercent - _simplificationPercent)
-				+ "\n\n");
+	protected Interpreter GetInterpreter() {
+		if (_activeInterpreter != null) {
+			Interpreter interpreter = _activeInterpreter.get();
 
-		Print("Tournament Size: " + _tournamentSize + "\n");
-		if (_trivialGeographyRadius != 0) {
-			Print("Trivial Geography Radius: " + _trivialGeographyRadius + "\n");
+			if (interpreter != null)
+				return interpreter;
 		}
-		Print("Node Selection Mode: " + _nodeSelectionMode);
-		Print("\n");
-
-		Print("Instructions: " + _interpreter.GetInstructionsString() + "\n");
 
-		Print("\n");
-		
+		return _interpreter;
 	}
 
 	public void InitIndividual(GAIndividual inIndividual) {
@@ -263,23 +536,387 @@ abstract public class PushGP extends GA {
 		float totalFitness = 0;
 		_bestMeanFitness = Float.MAX_VALUE;
 
-		for (int n = 0; n < _populations[_currentPopulation].length; n++) {
-			GAIndividual i = _populations[_currentPopulation][n];
+		GAIndividual population[] = _populations[_currentPopulation];
+		boolean parallel = _evaluationThreads > 1;
+
+		// A sampled generation is evaluated with _testCases standing in for
+		// the sample, so that the population's errors, and so lexicase
+		// selection, cover only the sampled test cases.
+		ArrayList<GATestCase> allTestCases = _testCases;
+		boolean sampled = _caseSampleSize > 0
+				&& _caseSampleSize < allTestCases.size();
+
+		_caseSample = sampled ? SampleTestCases(allTestCases) : null;
+
+		if (sampled) {
+			_testCases = _caseSample;
+			_evaluatingSample = true;
+		}
+
+		AssignErrorRows(_testCases.size());
+
+		_earlyAbortedIndividuals = 0;
+		_earlyAbortSkippedCases.set(0);
+
+		if (_earlyAbortThreshold > 0 && !Float.isNaN(_earlyAbortReferenceFitness))
+			_earlyAbortFitness = _earlyAbortThreshold
+					* _earlyAbortReferenceFitness;
 
-			EvaluateIndividual(i);
+		if (parallel)
+			EvaluateInParallel(population);
+
+		// Statistics are always accumulated here, in population order, so that
+		// a parallel evaluation produces exactly the same results as a serial
+		// one.
+
+		boolean bestCapped = true;
+
+		for (int n = 0; n < population.length; n++) {
+			GAIndividual i = population[n];
+
+			if (parallel)
+				_averageSize += ((PushGPIndividual) i)._program.programsize();
+			else
+				EvaluateIndividual(i);
 
 			totalFitness += i.GetFitness();
 
-			if (i.GetFitness() < _bestMeanFitness) {
+			boolean capped = i.FitnessIsCapped();
+
+			if (capped)
+				_earlyAbortedIndividuals++;
+
+			// An aborted individual's fitness is only a lower bound, so it is
+			// never preferred to one which was evaluated on every test case.
+
+			if ((bestCapped && !capped)
+					|| (capped == bestCapped && i.GetFitness() < _bestMeanFitness)) {
+				bestCapped = capped;
 				_bestMeanFitness = i.GetFitness();
 				_bestIndividual = n;
 				_bestSize = ((PushGPIndividual) i)._program.programsize();
-				_bestErrors = i.GetErrors();
+				SetBestErrors(i);
+			}
+		}
+
+		_populationMeanFitness = totalFitness / population.length;
+
+		_earlyAbortFitness = Float.POSITIVE_INFINITY;
+
+		// If every individual was aborted, the best is evaluated in full, so
+		// that the reported fitness and Success never rest on a lower bound.
+
+		if (bestCapped) {
+			GAIndividual best = population[_bestIndividual];
+
+			EvaluateIndividual(best, true);
+			_earlyAbortedIndividuals--;
+
+			_bestMeanFitness = best.GetFitness();
+			SetBestErrors(best);
+		}
+
+		if (_earlyAbortThreshold > 0)
+			_earlyAbortReferenceFitness = EarlyAbortReferenceFitness(population);
+
+		if (sampled) {
+			_testCases = allTestCases;
+			_evaluatingSample = false;
+
+			EvaluateBestOnAllTestCases(population);
+		}
+	}
+
+	/**
+	 * Draws the test cases which a generation is evaluated on when case
+	 * sampling is enabled. The random strategy draws a uniform sample. The
+	 * stratified strategy sorts the test cases by output, divides them into
+	 * as many equal strata as there are cases in the sample, and draws one
+	 * from each, so that every part of the output range is covered. The
+	 * rotating strategy takes the next block of a fixed shuffled order each
+	 * generation, so that every test case is used once in each pass through
+	 * the order.
+	 * 
+	 * @return The sampled test cases, in their original order.
+	 */
+
+	protected ArrayList<GATestCase> SampleTestCases(
+			ArrayList<GATestCase> inTestCases) {
+		int cases = inTestCases.size();
+		int size = _caseSampleSize;
+		int sample[] = new int[size];
+
+		if (_caseSampleStrategy.equals("rotating")) {
+			// The order is shuffled with a fixed seed and the block is found
+			// from the generation count, so that a run resumed from a
+			// checkpoint continues the same rotation.
+			if (_caseSampleOrder == null || _caseSampleOrder.length != cases) {
+				_caseSampleOrder = CaseIndices(cases);
+				Random rng = new Random(cases);
+
+				for (int n = cases - 1; n > 0; n--)
+					Swap(_caseSampleOrder, n, rng.nextInt(n + 1));
+			}
+
+			int start = (int) (((long) _generationCount * size) % cases);
+
+			for (int k = 0; k < size; k++)
+				sample[k] = _caseSampleOrder[(start + k) % cases];
+		} else if (_caseSampleStrategy.equals("stratified")) {
+			if (_caseSampleOrder == null || _caseSampleOrder.length != cases)
+				_caseSampleOrder = CasesByOutput(inTestCases);
+
+			for (int k = 0; k < size; k++) {
+				int low = (int) ((long) k * cases / size);
+				int high = (int) ((long) (k + 1) * cases / size);
+
+				sample[k] = _caseSampleOrder[low + _RNG.nextInt(high - low)];
+			}
+		} else {
+			// A partial shuffle of the case indices
+			int order[] = CaseIndices(cases);
+
+			for (int k = 0; k < size; k++) {
+				Swap(order, k, k + _RNG.nextInt(cases - k));
+				sample[k] = order[k];
+			}
+		}
+
+		Arrays.sort(sample);
+
+		ArrayList<GATestCase> result = new ArrayList<GATestCase>(size);
+
+		for (int n : sample)
+			result.add(inTestCases.get(n));
+
+		return result;
+	}
+
+	private static int[] CaseIndices(int inCases) {
+		int indices[] = new int[inCases];
+
+		for (int n = 0; n < inCases; n++)
+			indices[n] = n;
+
+		return indices;
+	}
+
+	private static void Swap(int ioValues[], int inA, int inB) {
+		int value = ioValues[inA];
+		ioValues[inA] = ioValues[inB];
+		ioValues[inB] = value;
+	}
+
+	/**
+	 * Returns the indices of the test cases sorted by output. Boolean outputs
+	 * sort as 0 and 1, and outputs which aren't numbers keep their order.
+	 */
+
+	private static int[] CasesByOutput(final ArrayList<GATestCase> inTestCases) {
+		int cases = inTestCases.size();
+		Integer indices[] = new Integer[cases];
+
+		for (int n = 0; n < cases; n++)
+			indices[n] = n;
+
+		Arrays.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer inA, Integer inB) {
+				return Double.compare(OutputValue(inTestCases.get(inA)._output),
+						OutputValue(inTestCases.get(inB)._output));
+			}
+		});
+
+		int order[] = new int[cases];
+
+		for (int n = 0; n < cases; n++)
+			order[n] = indices[n];
+
+		return order;
+	}
+
+	private static double OutputValue(Object inOutput) {
+		if (inOutput instanceof Number)
+			return ((Number) inOutput).doubleValue();
+		if (inOutput instanceof Boolean)
+			return ((Boolean) inOutput) ? 1 : 0;
+
+		return 0;
+	}
+
+	/**
+	 * Evaluates the best individual of a sampled generation on every test
+	 * case, and makes that the generation's best fitness and errors. The
+	 * evaluation is done on a copy, so that the individual keeps its sampled
+	 * fitness and is selected on the same terms as the rest of the
+	 * population.
+	 */
+
+	protected void EvaluateBestOnAllTestCases(GAIndividual inPopulation[]) {
+		GAIndividual best = inPopulation[_bestIndividual].clone();
+
+		EvaluateIndividual(best, true);
+
+		_bestMeanFitness = best.GetFitness();
+		SetBestErrors(best);
+	}
+
+	/**
+	 * Returns the best or median fitness of an evaluated population, which
+	 * sets the early abort fitness of the next generation. The fitness of an
+	 * individual whose evaluation was stopped early is a lower bound, but it
+	 * is already above the previous limit, so it only raises the median when
+	 * most of the population was aborted.
+	 */
+
+	protected float EarlyAbortReferenceFitness(GAIndividual inPopulation[]) {
+		if (_earlyAbortReference.equals("best"))
+			return _bestMeanFitness;
+
+		int count = inPopulation.length;
+
+		if (_earlyAbortSorted == null || _earlyAbortSorted.length < count)
+			_earlyAbortSorted = new float[count];
+
+		for (int n = 0; n < count; n++)
+			_earlyAbortSorted[n] = inPopulation[n].GetFitness();
+
+		Arrays.sort(_earlyAbortSorted, 0, count);
+
+		return _earlyAbortSorted[count / 2];
+	}
+
+	/**
+	 * Evaluates the fitness of every individual in a population using the
+	 * worker pool, with one interpreter per worker thread. Population
+	 * statistics are not updated here.
+	 * 
+	 * @param inPopulation
+	 *            The individuals to evaluate.
+	 */
+
+	protected void EvaluateInParallel(final GAIndividual inPopulation[]) {
+		RunInParallel(inPopulation.length, new IndexedTask() {
+			public void Run(int inIndex) {
+				EvaluateIndividual(inPopulation[inIndex], true);
+			}
+		});
+	}
+
+	/**
+	 * A task which RunInParallel runs once for each index.
+	 */
+
+	public interface IndexedTask {
+		void Run(int inIndex);
+	}
+
+	/**
+	 * Runs a task once for each index from 0 to inCount - 1 using the worker
+	 * pool, with one interpreter per worker thread, so that test cases may be
+	 * run from the task through EvaluateTestCase. The indices are handed out
+	 * to the workers in order, but may finish in any order. With a single
+	 * evaluation thread, the task is run on the calling thread.
+	 * 
+	 * @param inCount
+	 *            The number of indices.
+	 * @param inTask
+	 *            The task, which must be safe to run on several threads at
+	 *            once for different indices.
+	 */
+
+	public void RunInParallel(final int inCount, final IndexedTask inTask) {
+		if (_evaluationThreads <= 1) {
+			for (int n = 0; n < inCount; n++)
+				inTask.Run(n);
+
+			return;
+		}
+
+		Interpreter workers[] = GetWorkerInterpreters();
+		final AtomicInteger next = new AtomicInteger(0);
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+		for (int w = 0; w < workers.length; w++) {
+			final Interpreter interpreter = workers[w];
+
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					_activeInterpreter.set(interpreter);
+
+					try {
+						int n;
+						while ((n = next.getAndIncrement()) < inCount)
+							inTask.Run(n);
+					} finally {
+						_activeInterpreter.remove();
+					}
+
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Object> f : _evaluationExecutor.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during parallel evaluation");
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error during parallel evaluation", e
+					.getCause());
+		}
+
+		// Fold the worker counters into the main interpreter so that reports
+		// count evaluations the same way as a serial run.
+
+		for (Interpreter worker : workers) {
+			_interpreter._evaluationExecutions += worker._evaluationExecutions;
+			_interpreter._totalStepsTaken += worker._totalStepsTaken;
+			worker._evaluationExecutions = 0;
+			worker._totalStepsTaken = 0;
+		}
+	}
+
+	/**
+	 * Returns the per-thread worker interpreters, creating them and the worker
+	 * pool on first use (and again after restoring from a checkpoint).
+	 */
+
+	protected Interpreter[] GetWorkerInterpreters() {
+		if (_workerInterpreters == null) {
+			try {
+				Interpreter workers[] = new Interpreter[_evaluationThreads];
+
+				for (int n = 0; n < workers.length; n++)
+					workers[n] = CreateInterpreter();
+
+				_workerInterpreters = workers;
+			} catch (Exception e) {
+				throw new RuntimeException(
+						"Could not create evaluation interpreters", e);
 			}
+
+			final ArrayList<Thread> threads = new ArrayList<Thread>();
+
+			_activeInterpreter = new ThreadLocal<Interpreter>();
+			_evaluationWorkers = threads;
+			_evaluationExecutor = Executors.newFixedThreadPool(
+					_evaluationThreads, new ThreadFactory() {
+						public Thread newThread(Runnable inRunnable) {
+							Thread t = new Thread(inRunnable, "PushGP-evaluation");
+							t.setDaemon(true);
+
+							synchronized (threads) {
+								threads.add(t);
+							}
+
+							return t;
+						}
+					});
 		}
 
-		_populationMeanFitness = totalFitness
-				/ _populations[_currentPopulation].length;
+		return _workerInterpreters;
 	}
 
 	public void EvaluateIndividual(GAIndividual inIndividual) {
@@ -288,28 +925,555 @@ abstract public class PushGP extends GA {
 
 	protected void EvaluateIndividual(GAIndividual inIndividual,
 			boolean duringSimplify) {
-		ArrayList<Float> errors = new ArrayList<Float>();
+		Program program = ((PushGPIndividual) inIndividual)._program;
+		int cases = _testCases.size();
 
 		if (!duringSimplify)
-			_averageSize += ((PushGPIndividual) inIndividual)._program
-					.programsize();
+			_averageSize += program.programsize();
 
-		long t = System.currentTimeMillis();
+		// The cache holds fitnesses on every test case, so it isn't used
+		// while a sample of the test cases is being evaluated.
+		boolean useCache = _fitnessCacheSize > 0 && !_evaluatingSample;
+
+		if (useCache) {
+			ObjectPair cached = GetCachedFitness(program);
+
+			if (cached != null) {
+				float cachedErrors[] = (float[]) cached._second;
 
-		for (int n = 0; n < _testCases.size(); n++) {
-			GATestCase test = _testCases.get(n);
-			float e = EvaluateTestCase(inIndividual, test._input, test._output);
-			errors.add(e);
+				inIndividual.SetFitness((Float) cached._first);
+				inIndividual.SetErrors(cachedErrors, 0, cachedErrors.length);
+				return;
+			}
+		}
+
+		if (_testCaseStore != null) {
+			if (EvaluateStoredTestCases(inIndividual, _earlyAbortFitness)
+					&& useCache)
+				CacheFitness(program, inIndividual.GetFitness(), new float[0]);
+			return;
 		}
+
+		long t = System.currentTimeMillis();
+
+		// The errors are written straight into the individual's row of the
+		// population's error matrix.
+
+		float errors[] = inIndividual.ResizeErrors(cases);
+		int offset = inIndividual.GetErrorOffset();
+		int evaluated = EvaluateTestCases(inIndividual, errors, offset,
+				_earlyAbortFitness);
+
 		t = System.currentTimeMillis() - t;
 
-		inIndividual.SetFitness(AbsoluteAverageOfErrors(errors));
-		inIndividual.SetErrors(errors);
+		if (evaluated < cases) {
+			// The skipped cases count as infinitely bad for lexicase
+			// selection, and the fitness is the mean error if every skipped
+			// case had been perfect. Capped fitnesses are not cached.
+
+			Arrays.fill(errors, offset + evaluated, offset + cases, 0);
+			inIndividual.SetCappedFitness(CappedFitness(AbsoluteAverageOfErrors(
+					errors, offset, cases)));
+			Arrays.fill(errors, offset + evaluated, offset + cases,
+					Float.POSITIVE_INFINITY);
+			_earlyAbortSkippedCases.addAndGet(cases - evaluated);
+			return;
+		}
+
+		inIndividual.SetFitness(AbsoluteAverageOfErrors(errors, offset, cases));
+
+		if (useCache)
+			CacheFitness(program, inIndividual.GetFitness(), Arrays
+					.copyOfRange(errors, offset, offset + cases));
 
 		// System.out.println("Evaluated individual in " + t + " msec: fitness "
 		// + inIndividual.GetFitness());
 	}
 
+	/**
+	 * Runs an individual's test cases in order, storing the error of test case
+	 * n in ioErrors[inOffset + n]. Evaluation stops as soon as the individual's
+	 * fitness is certain to be above inAbortFitness. When the problem class
+	 * runs its test cases in batches, the batches start small and double in
+	 * size, so that a hopeless individual is caught after a few cases while a
+	 * good one needs only a few batches.
+	 * 
+	 * @param inAbortFitness
+	 *            The fitness above which evaluation stops, or infinity to run
+	 *            every test case.
+	 * @return The number of test cases run.
+	 */
+
+	protected int EvaluateTestCases(GAIndividual inIndividual,
+			float ioErrors[], int inOffset, float inAbortFitness) {
+		int cases = _testCases.size();
+		boolean canAbort = inAbortFitness < Float.POSITIVE_INFINITY;
+		int batchSize = canAbort ? EARLY_ABORT_FIRST_BATCH : cases;
+		boolean batched = true;
+		float totalError = 0;
+		int n = 0;
+
+		while (n < cases) {
+			int count = Math.min(batchSize, cases - n);
+
+			if (batched
+					&& EvaluateTestCasesInBatch(inIndividual, n, count,
+							ioErrors, inOffset)) {
+				batchSize *= 2;
+			} else {
+				GATestCase test = _testCases.get(n);
+
+				batched = false;
+				count = 1;
+				ioErrors[inOffset + n] = EvaluateTestCase(inIndividual,
+						test._input, test._output);
+			}
+
+			for (int k = n; k < n + count; k++)
+				totalError += Math.abs(ioErrors[inOffset + k]);
+
+			n += count;
+
+			if (canAbort && n < cases && totalError / cases > inAbortFitness)
+				break;
+		}
+
+		return n;
+	}
+
+	/**
+	 * Evaluates an individual on every row of the test case store and sets
+	 * its fitness to the mean absolute error. Only the total error is kept,
+	 * so the memory used doesn't depend on the number of rows, and the
+	 * individual has no per-case errors (so lexicase selection falls back to
+	 * tournaments). As in EvaluateTestCases, the chunks start small when
+	 * evaluation may be stopped early, in which case the fitness is capped.
+	 * 
+	 * @param inAbortFitness
+	 *            The fitness above which evaluation stops, or infinity to run
+	 *            every row.
+	 * @return true if every row was run.
+	 */
+
+	protected boolean EvaluateStoredTestCases(GAIndividual inIndividual,
+			float inAbortFitness) {
+		int rows = _testCaseStore.GetRowCount();
+		boolean canAbort = inAbortFitness < Float.POSITIVE_INFINITY;
+		int chunkSize = canAbort ? EARLY_ABORT_FIRST_BATCH : STORE_CHUNK_ROWS;
+		float errors[] = new float[Math.min(STORE_CHUNK_ROWS, rows)];
+		boolean batched = true;
+
+		// The total is kept as a double, since a float can't count past 2^24
+		// rows' worth of small errors.
+		double totalError = 0;
+		int n = 0;
+
+		inIndividual.ResizeErrors(0);
+
+		while (n < rows) {
+			int count = Math.min(chunkSize, rows - n);
+
+			if (!batched
+					|| !EvaluateStoredTestCasesInBatch(inIndividual, n, count,
+							errors)) {
+				batched = false;
+
+				for (int k = 0; k < count; k++)
+					errors[k] = EvaluateTestCase(inIndividual, _testCaseStore
+							.GetInput(n + k), _testCaseStore.GetOutput(n + k));
+			}
+
+			for (int k = 0; k < count; k++)
+				totalError += Math.abs(errors[k]);
+
+			n += count;
+			chunkSize = Math.min(chunkSize * 2, STORE_CHUNK_ROWS);
+
+			if (canAbort && n < rows && totalError / rows > inAbortFitness) {
+				inIndividual.SetCappedFitness(CappedFitness(StoredFitness(
+						totalError, rows)));
+				_earlyAbortSkippedCases.addAndGet(rows - n);
+				return false;
+			}
+		}
+
+		inIndividual.SetFitness(StoredFitness(totalError, rows));
+
+		return true;
+	}
+
+	/**
+	 * Returns the fitness of an individual whose evaluation was stopped early.
+	 * Its mean error is only a lower bound, which may be better than the
+	 * fitness of individuals that were run on every test case when
+	 * early-abort-threshold is below 1, so an aborted individual is ranked
+	 * no better than the reference fitness the limit was taken from.
+	 * 
+	 * @param inLowerBound
+	 *            The mean error if every skipped case had been perfect.
+	 */
+
+	protected float CappedFitness(float inLowerBound) {
+		return Math.max(inLowerBound, _earlyAbortReferenceFitness);
+	}
+
+	protected float StoredFitness(double inTotalError, int inRows) {
+		double fitness = inTotalError / inRows;
+
+		if (Double.isInfinite(fitness) || fitness > Float.MAX_VALUE)
+			return Float.MAX_VALUE;
+
+		return (float) fitness;
+	}
+
+	/**
+	 * Evaluates an individual on a range of rows of the test case store at
+	 * once, in the same way as EvaluateTestCasesInBatch. The default
+	 * implementation returns false, in which case each row is run separately
+	 * with EvaluateTestCase.
+	 * 
+	 * @param inFirstRow
+	 *            The index of the first row to run.
+	 * @param inRows
+	 *            The number of rows to run, at most STORE_CHUNK_ROWS.
+	 * @param outErrors
+	 *            The array to store the error for each row in, starting at
+	 *            index 0.
+	 * @return true if the errors were stored, or false if the rows should be
+	 *         run one at a time.
+	 */
+
+	protected boolean EvaluateStoredTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstRow, int inRows, float outErrors[]) {
+		return false;
+	}
+
+	/**
+	 * Evaluates an individual on a range of test cases at once, for problem
+	 * classes which can run their test cases together in a BatchInterpreter.
+	 * The default implementation returns false, in which case each test case
+	 * is run separately with EvaluateTestCase.
+	 * 
+	 * @param inFirstCase
+	 *            The index of the first test case to run.
+	 * @param inCases
+	 *            The number of test cases to run.
+	 * @param ioErrors
+	 *            The array to store the error for each test case in.
+	 * @param inOffset
+	 *            The index in ioErrors of test case 0's error.
+	 * @return true if the errors were stored, or false if the test cases
+	 *         should be run one at a time.
+	 */
+
+	protected boolean EvaluateTestCasesInBatch(GAIndividual inIndividual,
+			int inFirstCase, int inCases, float ioErrors[], int inOffset) {
+		return false;
+	}
+
+	/**
+	 * Pushes a test case's input onto an interpreter: onto the int, float or
+	 * boolean stack according to its type, and onto the input stack. A test
+	 * case with several inputs holds them in an array, and each is pushed in
+	 * this way, in order.
+	 */
+
+	protected void PushTestCaseInputs(Interpreter inInterpreter, Object inInput) {
+		if (inInput instanceof Object[]) {
+			for (Object input : (Object[]) inInput)
+				PushTestCaseInput(inInterpreter, input);
+		} else {
+			PushTestCaseInput(inInterpreter, inInput);
+		}
+	}
+
+	protected void PushTestCaseInput(Interpreter inInterpreter, Object inInput) {
+		if (inInput instanceof Integer)
+			inInterpreter.intStack().push((Integer) inInput);
+		else if (inInput instanceof Float)
+			inInterpreter.floatStack().push((Float) inInput);
+		else if (inInput instanceof Boolean)
+			inInterpreter.boolStack().push((Boolean) inInput);
+
+		inInterpreter.inputStack().push(inInput);
+	}
+
+	/**
+	 * Returns a test case's input as it is shown in reports, with several
+	 * inputs shown as a list.
+	 */
+
+	protected String TestCaseInputString(Object inInput) {
+		if (!(inInput instanceof Object[]))
+			return String.valueOf(inInput);
+
+		Object inputs[] = (Object[]) inInput;
+		String result = "(";
+
+		for (int n = 0; n < inputs.length; n++) {
+			if (n != 0)
+				result += " ";
+			result += inputs[n];
+		}
+
+		return result + ")";
+	}
+
+	/**
+	 * Pushes the inputs of a range of test cases onto the lanes of a batch
+	 * interpreter, in the same way as PushTestCaseInputs, with lane n getting
+	 * the inputs of test case inFirstCase + n.
+	 * 
+	 * @return false if the test cases can't be run in a batch, in which case
+	 *         nothing useful has been pushed.
+	 */
+
+	protected boolean PushTestCaseInputsInBatch(BatchInterpreter inBatch,
+			int inFirstCase) {
+		BatchInputs inputs = _batchInputs;
+
+		if (!SameInputs(inputs)) {
+			inputs = MakeBatchInputs();
+			_batchInputs = inputs;
+		}
+
+		if (!inputs._batchable)
+			return false;
+
+		for (int i = 0; i < inputs._inputs.length; i++) {
+			Object values = inputs._values[i];
+
+			if (values instanceof int[])
+				inBatch.PushIntegers((int[]) values, inFirstCase);
+			else if (values instanceof float[])
+				inBatch.PushFloats((float[]) values, inFirstCase);
+			else if (values instanceof boolean[])
+				inBatch.PushBooleans((boolean[]) values, inFirstCase);
+
+			inBatch.PushInputs(inputs._inputs[i], inFirstCase);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns whether batch inputs hold the inputs of the current test cases.
+	 */
+
+	private boolean SameInputs(BatchInputs inInputs) {
+		if (inInputs == null || inInputs._caseInputs.length != _testCases.size())
+			return false;
+
+		for (int n = 0; n < inInputs._caseInputs.length; n++) {
+			if (inInputs._caseInputs[n] != _testCases.get(n)._input)
+				return false;
+		}
+
+		return true;
+	}
+
+	private BatchInputs MakeBatchInputs() {
+		BatchInputs inputs = new BatchInputs();
+		int cases = _testCases.size();
+		Object first = cases > 0 ? _testCases.get(0)._input : null;
+		int count = first instanceof Object[] ? ((Object[]) first).length : 1;
+
+		inputs._caseInputs = new Object[cases];
+		inputs._inputs = new Object[count][cases];
+		inputs._values = new Object[count];
+		inputs._batchable = true;
+
+		for (int n = 0; n < cases; n++) {
+			Object input = _testCases.get(n)._input;
+
+			inputs._caseInputs[n] = input;
+
+			if (input instanceof Object[]) {
+				Object values[] = (Object[]) input;
+
+				if (values.length != count) {
+					inputs._batchable = false;
+					return inputs;
+				}
+
+				for (int i = 0; i < count; i++)
+					inputs._inputs[i][n] = values[i];
+			} else if (count == 1) {
+				inputs._inputs[0][n] = input;
+			} else {
+				inputs._batchable = false;
+				return inputs;
+			}
+		}
+
+		for (int i = 0; i < count; i++) {
+			Object column[] = inputs._inputs[i];
+			Class<?> type = cases > 0 && column[0] != null ? column[0]
+					.getClass() : null;
+
+			for (int n = 1; n < cases; n++) {
+				if (column[n] == null || column[n].getClass() != type)
+					type = null;
+			}
+
+			if (type == Integer.class) {
+				int values[] = new int[cases];
+				for (int n = 0; n < cases; n++)
+					values[n] = (Integer) column[n];
+				inputs._values[i] = values;
+			} else if (type == Float.class) {
+				float values[] = new float[cases];
+				for (int n = 0; n < cases; n++)
+					values[n] = (Float) column[n];
+				inputs._values[i] = values;
+			} else if (type == Boolean.class) {
+				boolean values[] = new boolean[cases];
+				for (int n = 0; n < cases; n++)
+					values[n] = (Boolean) column[n];
+				inputs._values[i] = values;
+			} else {
+				// Inputs which aren't all of one type can only be run in a
+				// batch if none of them go on a typed stack.
+				for (int n = 0; n < cases; n++) {
+					if (column[n] instanceof Integer
+							|| column[n] instanceof Float
+							|| column[n] instanceof Boolean)
+						inputs._batchable = false;
+				}
+			}
+		}
+
+		return inputs;
+	}
+
+	/**
+	 * Pushes the inputs of a range of rows of the test case store onto the
+	 * lanes of a batch interpreter, in the same way as PushTestCaseInputs,
+	 * reading them straight from the store's columns.
+	 */
+
+	protected void PushStoredInputsInBatch(BatchInterpreter inBatch,
+			int inFirstRow, int inRows) {
+		for (int c = 0; c < _testCaseStore.GetInputCount(); c++) {
+			switch (_testCaseStore.GetColumnType(c)) {
+			case TestCaseStore.INT_COLUMN: {
+				int values[] = new int[inRows];
+				_testCaseStore.ReadInts(c, inFirstRow, values, inRows);
+				inBatch.PushIntegers(values);
+				inBatch.PushIntegerInputs(values, 0);
+				break;
+			}
+			case TestCaseStore.BOOLEAN_COLUMN: {
+				int ints[] = new int[inRows];
+				boolean values[] = new boolean[inRows];
+				_testCaseStore.ReadInts(c, inFirstRow, ints, inRows);
+				for (int k = 0; k < inRows; k++)
+					values[k] = ints[k] != 0;
+				inBatch.PushBooleans(values);
+				inBatch.PushBooleanInputs(values, 0);
+				break;
+			}
+			default: {
+				float values[] = new float[inRows];
+				_testCaseStore.ReadFloats(c, inFirstRow, values, inRows);
+				inBatch.PushFloats(values);
+				inBatch.PushFloatInputs(values, 0);
+				break;
+			}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the fitness and errors of a program in the fitness cache.
+	 * 
+	 * @return A pair of the fitness and the error list, or null if the program
+	 *         is not in the cache.
+	 */
+
+	protected synchronized ObjectPair GetCachedFitness(Program inProgram) {
+		ObjectPair cached = null;
+
+		if (_fitnessCache != null)
+			cached = _fitnessCache.get(inProgram);
+
+		if (cached != null)
+			_fitnessCacheHits++;
+		else
+			_fitnessCacheMisses++;
+
+		return cached;
+	}
+
+	/**
+	 * Stores the fitness and errors of a program in the fitness cache,
+	 * discarding the least recently used entry if the cache is full.
+	 */
+
+	protected synchronized void CacheFitness(Program inProgram,
+			float inFitness, float inErrors[]) {
+		if (_fitnessCache == null) {
+			_fitnessCache = new LinkedHashMap<Program, ObjectPair>(16, 0.75f,
+					true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(
+						Map.Entry<Program, ObjectPair> inEldest) {
+					return size() > _fitnessCacheSize;
+				}
+			};
+		}
+
+		// The key is a copy, since the individual's program may be changed in
+		// place after it has been evaluated.
+
+		_fitnessCache.put(new Program(inProgram), new ObjectPair(inFitness,
+				inErrors));
+	}
+
+	protected void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		super.WriteCheckpoint(inOut);
+
+		inOut.WriteFloat(_averageSize);
+		inOut.WriteInt(_bestSize);
+		inOut.WriteLong(_fitnessCacheHits);
+		inOut.WriteLong(_fitnessCacheMisses);
+		inOut.WriteFloat(_earlyAbortReferenceFitness);
+		inOut.WriteInt(_earlyAbortedIndividuals);
+		inOut.WriteLong(_earlyAbortSkippedCases.get());
+		inOut.WriteLong(_interpreter._evaluationExecutions);
+		inOut.WriteInt(_interpreter._totalStepsTaken);
+		inOut.WriteRandom(_interpreter._RNG);
+	}
+
+	protected void ReadCheckpoint(BinaryCheckpoint inIn) throws Exception {
+		super.ReadCheckpoint(inIn);
+
+		_averageSize = inIn.ReadFloat();
+		_bestSize = inIn.ReadInt();
+		_fitnessCacheHits = inIn.ReadLong();
+		_fitnessCacheMisses = inIn.ReadLong();
+		_earlyAbortReferenceFitness = inIn.ReadFloat();
+		_earlyAbortedIndividuals = inIn.ReadInt();
+		_earlyAbortSkippedCases.set(inIn.ReadLong());
+		_interpreter._evaluationExecutions = inIn.ReadLong();
+		_interpreter._totalStepsTaken = inIn.ReadInt();
+		_interpreter._RNG = inIn.ReadRandom();
+	}
+
+	private void readObject(ObjectInputStream inIn) throws IOException,
+			ClassNotFoundException {
+		inIn.defaultReadObject();
+
+		if (_testCaseFile != null)
+			_testCaseStore = TestCaseStore.Open(new File(_testCaseFile));
+
+		if (_profileInstructions > 0) {
+			_profiler = new InstructionProfiler();
+			_interpreter.SetProfiler(_profiler);
+		}
+	}
+
 	abstract protected void InitInterpreter(Interpreter inInterpreter)
 			throws Exception;
 
@@ -323,19 +1487,26 @@ abstract public class PushGP extends GA {
 				+ _populations[_currentPopulation][_bestIndividual] + "\n\n";
 
 		report += ";; Best Program Fitness (mean): " + _bestMeanFitness + "\n";
-		if (_testCases.size() == _bestErrors.size()) {
+		if (_testCaseStore == null && _testCases.size() == _bestErrors.length) {
 			report += ";; Best Program Errors: (";
 			for (int i = 0; i < _testCases.size(); i++) {
 				if (i != 0)
 					report += " ";
-				report += "(" + _testCases.get(i)._input + " ";
-				report += Math.abs(_bestErrors.get(i)) + ")";
+				report += "(" + TestCaseInputString(_testCases.get(i)._input) + " ";
+				report += Math.abs(_bestErrors[i]) + ")";
 			}
 			report += ")\n";
 		}
 		report += ";; Best Program Size: " + _bestSize + "\n\n";
 
-		report += ";; Mean Fitness: " + _populationMeanFitness + "\n";
+		if (_caseSampleSize > 0 && _caseSampleSize < _testCases.size()) {
+			report += ";; Mean Fitness (on " + _caseSampleSize + " of "
+					+ _testCases.size() + " test cases, "
+					+ _caseSampleStrategy + " sample): "
+					+ _populationMeanFitness + "\n";
+		} else {
+			report += ";; Mean Fitness: " + _populationMeanFitness + "\n";
+		}
 		report += ";; Mean Program Size: " + _averageSize + "\n";
 
 		PushGPIndividual simplified = Autosimplify(
@@ -344,6 +1515,17 @@ abstract public class PushGP extends GA {
 
 		report += ";; Number of Evaluations Thus Far: "
 				+ _interpreter.GetEvaluationExecutions() + "\n";
+		report += MetricsReport();
+		if (_fitnessCacheSize > 0) {
+			report += ";; Fitness Cache Hits: " + _fitnessCacheHits
+					+ ", Misses: " + _fitnessCacheMisses + "\n";
+		}
+		if (_earlyAbortThreshold > 0) {
+			report += ";; Early Aborted Individuals: "
+					+ _earlyAbortedIndividuals + " ("
+					+ _earlyAbortSkippedCases.get()
+					+ " test case evaluations skipped)\n";
+		}
 		String mem = String
 				.valueOf(Runtime.getRuntime().totalMemory() / 10000000.0f);
 		report += ";; Memory usage: " + mem + "\n\n";
@@ -353,9 +1535,51 @@ abstract public class PushGP extends GA {
 		report += ";; Partial Simplification Size: ";
 		report += simplified._program.programsize() + "\n\n";
 
+		if (_profiler != null) {
+			ArrayList<InstructionProfiler.Entry> profile = _profiler.Collect();
+
+			report += InstructionProfiler.Report(profile, _profileInstructions)
+					+ "\n";
+
+			if (_profileFile != null) {
+				try {
+					InstructionProfiler.WriteCSV(new File(_profileFile),
+							_generationCount, profile);
+				} catch (IOException e) {
+					throw new RuntimeException("Could not write profile file "
+							+ _profileFile, e);
+				}
+			}
+		}
+
 		return report;
 	}
 
+	protected long EvaluationCount() {
+		return _interpreter.GetEvaluationExecutions();
+	}
+
+	protected long StepCount() {
+		return _interpreter._totalStepsTaken;
+	}
+
+	protected long[] MetricsThreadIds() {
+		long ids[] = super.MetricsThreadIds();
+		ArrayList<Thread> workers = _evaluationWorkers;
+
+		if (workers == null)
+			return ids;
+
+		synchronized (workers) {
+			long all[] = Arrays.copyOf(ids, ids.length + workers.size());
+
+			for (int n = 0; n < workers.size(); n++)
+				all[ids.length + n] = workers.get(n).getId();
+
+			return all;
+		}
+	}
+
 	protected String FinalReport() {
 		String report = "";
 		
@@ -379,13 +1603,13 @@ abstract public class PushGP extends GA {
 		report += ">> Best Program: "
 				+ _populations[_currentPopulation][_bestIndividual] + "\n";
 		report += ">> Fitness (mean): " + _bestMeanFitness + "\n";
-		if (_testCases.size() == _bestErrors.size()) {
+		if (_testCaseStore == null && _testCases.size() == _bestErrors.length) {
 			report += ">> Errors: (";
 			for (int i = 0; i < _testCases.size(); i++) {
 				if (i != 0)
 					report += " ";
-				report += "(" + _testCases.get(i)._input + " ";
-				report += Math.abs(_bestErrors.get(i)) + ")";
+				report += "(" + TestCaseInputString(_testCases.get(i)._input) + " ";
+				report += Math.abs(_bestErrors[i]) + ")";
 			}
 			report += ")\n";
 		}
@@ -450,12 +1674,12 @@ abstract public class PushGP extends GA {
 				EvaluateIndividual(trial, true);
 
 				if (trial.GetFitness() <= bestError) {
-					simplest = (PushGPIndividual) trial.clone();
+					simplest = (PushGPIndividual) trial.clone(simplest);
 					bestError = trial.GetFitness();
 				}
 			}
 
-			trial = (PushGPIndividual) simplest.clone();
+			trial = (PushGPIndividual) simplest.clone(trial);
 		}
 
 		return simplest;
@@ -464,6 +1688,9 @@ abstract public class PushGP extends GA {
 	protected void Reproduce() {
 		int nextPopulation = _currentPopulation == 0 ? 1 : 0;
 
+		RecycleNextPopulation();
+		PrepareSelection();
+
 		for (int n = 0; n < _populations[_currentPopulation].length; n++) {
 			float method = _RNG.nextInt(100);
 			GAIndividual next;
@@ -485,11 +1712,13 @@ abstract public class PushGP extends GA {
 
 	protected GAIndividual ReproduceByCrossover(int inIndex) {
 		PushGPIndividual a = (PushGPIndividual) ReproduceByClone(inIndex);
-		PushGPIndividual b = (PushGPIndividual) TournamentSelect(
-				_tournamentSize, inIndex);
+		PushGPIndividual b = (PushGPIndividual) SelectIndividual(inIndex);
+
+		// b stays in the current population, so it is copied rather than
+		// returned itself; an individual may only be in one population.
 
 		if (a._program.programsize() <= 0) {
-			return b;
+			return b.clone(a);
 		}
 		if (b._program.programsize() <= 0) {
 			return a;
@@ -579,15 +1808,30 @@ abstract public class PushGP extends GA {
 
 	protected GAIndividual ReproduceBySimplification(int inIndex) {
 		PushGPIndividual i = (PushGPIndividual) ReproduceByClone(inIndex);
+		ArrayList<GATestCase> allTestCases = _testCases;
+
+		if (_caseSample != null) {
+			_testCases = _caseSample;
+			_evaluatingSample = true;
+		}
 
 		i = Autosimplify(i, _reproductionSimplifications);
 
+		_testCases = allTestCases;
+		_evaluatingSample = false;
+
 		return i;
 	}
 
 	public void RunTestProgram(Program p, int inTestCaseIndex) {
 		PushGPIndividual i = new PushGPIndividual(p);
-		GATestCase test = _testCases.get(inTestCaseIndex);
+		GATestCase test;
+
+		if (_testCaseStore != null)
+			test = new GATestCase(_testCaseStore.GetInput(inTestCaseIndex),
+					_testCaseStore.GetOutput(inTestCaseIndex));
+		else
+			test = _testCases.get(inTestCaseIndex);
 
 		System.out.println("Executing program: " + p);
 
@@ -16,6 +16,8 @@
 
 package org.spiderland.Psh;
 
+import java.io.IOException;
+
 /**
  * A PushGA individual class which is a simple wrapper around a Push Program
  * object.
@@ -26,6 +28,13 @@ public class PushGPIndividual extends GAIndividual {
 	
 	public Program _program;
 
+	// The compiled form of _program, built on first use. Code which edits
+	// _program in place after the individual has been evaluated must call
+	// SetProgram again so that it is recompiled. It is volatile because the
+	// same individual, such as a coevolution trainer, may be run on several
+	// evaluation threads at once.
+	protected transient volatile CompiledProgram _compiledProgram;
+
 	public PushGPIndividual() {
 	}
 
@@ -37,6 +46,27 @@ public class PushGPIndividual extends GAIndividual {
 	void SetProgram(Program inProgram) {
 		if (inProgram != null)
 			_program = new Program(inProgram);
+
+		_compiledProgram = null;
+	}
+
+	/**
+	 * Returns the compiled form of this individual's program, compiling it on
+	 * first use.
+	 * 
+	 * @param inInterpreter
+	 *            The interpreter whose instruction set the program uses.
+	 */
+
+	public CompiledProgram GetCompiledProgram(Interpreter inInterpreter) {
+		CompiledProgram compiled = _compiledProgram;
+
+		if (compiled == null || compiled._program != _program) {
+			compiled = new CompiledProgram(_program, inInterpreter);
+			_compiledProgram = compiled;
+		}
+
+		return compiled;
 	}
 
 	public String toString() {
@@ -46,4 +76,43 @@ public class PushGPIndividual extends GAIndividual {
 	public GAIndividual clone() {
 		return new PushGPIndividual(_program);
 	}
+
+	public GAIndividual clone(GAIndividual inRecycled) {
+		if (inRecycled == null || inRecycled.getClass() != getClass())
+			return clone();
+
+		PushGPIndividual i = (PushGPIndividual) inRecycled;
+
+		if (i._program == null)
+			i._program = new Program(_program);
+		else
+			i._program.CopyFrom(_program);
+
+		i._compiledProgram = null;
+		i._fitness = 0;
+		i._errorCount = 0;
+		i._fitnessSet = false;
+		i._fitnessCapped = false;
+
+		return i;
+	}
+
+	public void WriteCheckpoint(BinaryCheckpoint inOut) throws IOException {
+		super.WriteCheckpoint(inOut);
+		inOut.WriteProgram(_program);
+	}
+
+	/**
+	 * Reads an individual written by WriteCheckpoint.
+	 * 
+	 * @param inGA
+	 *            The PushGP whose interpreter runs the individual's program.
+	 */
+
+	public void ReadCheckpoint(BinaryCheckpoint inIn, GA inGA)
+			throws Exception {
+		super.ReadCheckpoint(inIn, inGA);
+		_program = inIn.ReadProgram(((PushGP) inGA)._interpreter);
+		_compiledProgram = null;
+	}
 }
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Reads test cases from a CSV file, one row at a time.
+ *
+ * The first line of the file names the columns. A name ending in ":int" makes
+ * an int column, ":bool" a boolean column (true, false, 1 or 0), and any other
+ * name, optionally ending in ":float", a float column. The last column is the
+ * output and the others are the inputs. Blank lines are skipped.
+ *
+ * The file is read through a buffer which holds a few lines at a time, and the
+ * values are parsed straight from the buffer's bytes, so reading a row doesn't
+ * create any objects unless it has a float which can't be parsed exactly
+ * without Float.parseFloat.
+ */
+
+public class TestCaseCSVReader {
+	static final int BUFFER_SIZE = 1 << 16;
+
+	static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	// The powers of ten which are exact as floats. A float of up to 24 bits
+	// divided by one of these is rounded the same way as Float.parseFloat.
+	static final float FLOAT_POWERS[] = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f,
+			1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	protected File _file;
+	protected FileInputStream _stream;
+	protected FileChannel _channel;
+
+	// The unread bytes of the file are _bytes[_position] to _bytes[_limit - 1]
+	protected byte _bytes[] = new byte[BUFFER_SIZE];
+	protected int _position;
+	protected int _limit;
+	protected boolean _endOfFile;
+	protected int _line;
+
+	// The end of the line returned by NextLine, not including the line break
+	protected int _lineEnd;
+
+	protected int _types[];
+	protected String _names[];
+
+	// The values of the current row, by column
+	protected int _ints[];
+	protected float _floats[];
+	protected boolean _booleans[];
+
+	/**
+	 * Opens a CSV file and reads its header.
+	 */
+
+	public TestCaseCSVReader(File inFile) throws Exception {
+		_file = inFile;
+		_stream = new FileInputStream(inFile);
+		_channel = _stream.getChannel();
+
+		int start = NextLine();
+
+		if (start < 0) {
+			Close();
+			throw new Exception(inFile + " is empty");
+		}
+
+		String header[] = new String(_bytes, start, _lineEnd - start, "UTF-8")
+				.replace("\uFEFF", "").split(",");
+		int columns = header.length;
+
+		if (columns < 2) {
+			Close();
+			throw new Exception(inFile
+					+ " must have at least one input and an output column");
+		}
+
+		_types = new int[columns];
+		_names = new String[columns];
+		_ints = new int[columns];
+		_floats = new float[columns];
+		_booleans = new boolean[columns];
+
+		for (int c = 0; c < columns; c++) {
+			String name = header[c].trim();
+
+			if (name.startsWith("\"") && name.endsWith("\"")
+					&& name.length() > 1)
+				name = name.substring(1, name.length() - 1);
+
+			_types[c] = TestCaseStore.FLOAT_COLUMN;
+
+			if (name.endsWith(":int")) {
+				_types[c] = TestCaseStore.INT_COLUMN;
+				name = name.substring(0, name.length() - 4);
+			} else if (name.endsWith(":bool")) {
+				_types[c] = TestCaseStore.BOOLEAN_COLUMN;
+				name = name.substring(0, name.length() - 5);
+			} else if (name.endsWith(":float")) {
+				name = name.substring(0, name.length() - 6);
+			}
+
+			_names[c] = name;
+		}
+	}
+
+	/**
+	 * Reads every row of a CSV file as a test case. The input of a test case
+	 * is the value of its input column if there is one, or an array of the
+	 * input values if there are several, as in TestCaseStore.GetInput.
+	 */
+
+	public static ArrayList<GATestCase> ReadTestCases(File inFile)
+			throws Exception {
+		ArrayList<GATestCase> cases = new ArrayList<GATestCase>();
+		TestCaseCSVReader reader = new TestCaseCSVReader(inFile);
+
+		try {
+			int inputs = reader.GetColumnCount() - 1;
+
+			while (reader.Next()) {
+				Object input;
+
+				if (inputs == 1) {
+					input = reader.GetValue(0);
+				} else {
+					Object values[] = new Object[inputs];
+
+					for (int c = 0; c < inputs; c++)
+						values[c] = reader.GetValue(c);
+
+					input = values;
+				}
+
+				cases.add(new GATestCase(input, reader.GetValue(inputs)));
+			}
+		} finally {
+			reader.Close();
+		}
+
+		return cases;
+	}
+
+	public int GetColumnCount() {
+		return _types.length;
+	}
+
+	/**
+	 * Returns the type of a column: TestCaseStore.INT_COLUMN, FLOAT_COLUMN or
+	 * BOOLEAN_COLUMN.
+	 */
+
+	public int GetColumnType(int inColumn) {
+		return _types[inColumn];
+	}
+
+	public String GetColumnName(int inColumn) {
+		return _names[inColumn];
+	}
+
+	/**
+	 * Returns the line number of the current row.
+	 */
+
+	public int GetLine() {
+		return _line;
+	}
+
+	/**
+	 * Reads the next row.
+	 *
+	 * @return false at the end of the file.
+	 * @throws Exception
+	 *             if the row has the wrong number of values, or a value can't
+	 *             be read as its column's type.
+	 */
+
+	public boolean Next() throws Exception {
+		int start;
+
+		do {
+			start = NextLine();
+
+			if (start < 0)
+				return false;
+		} while (IsBlank(start, _lineEnd));
+
+		int columns = _types.length;
+		int end = _lineEnd;
+		int fieldStart = start;
+
+		for (int c = 0; c < columns; c++) {
+			int fieldEnd = fieldStart;
+
+			while (fieldEnd < end && _bytes[fieldEnd] != ',')
+				fieldEnd++;
+
+			if (fieldEnd == end && c < columns - 1)
+				throw RowError("Too few values", start);
+
+			try {
+				ParseField(c, fieldStart, fieldEnd);
+			} catch (NumberFormatException e) {
+				throw RowError("Can't read \""
+						+ new String(_bytes, fieldStart, fieldEnd - fieldStart,
+								LATIN1).trim() + "\" in column " + _names[c],
+						start);
+			}
+
+			fieldStart = fieldEnd + 1;
+		}
+
+		if (fieldStart <= end)
+			throw RowError("Too many values", start);
+
+		return true;
+	}
+
+	public int GetInt(int inColumn) {
+		return _ints[inColumn];
+	}
+
+	public float GetFloat(int inColumn) {
+		return _floats[inColumn];
+	}
+
+	public boolean GetBoolean(int inColumn) {
+		return _booleans[inColumn];
+	}
+
+	/**
+	 * Returns a value of the current row as an Integer, Float or Boolean,
+	 * according to its column's type.
+	 */
+
+	public Object GetValue(int inColumn) {
+		switch (_types[inColumn]) {
+		case TestCaseStore.INT_COLUMN:
+			return _ints[inColumn];
+		case TestCaseStore.BOOLEAN_COLUMN:
+			return _booleans[inColumn];
+		default:
+			return _floats[inColumn];
+		}
+	}
+
+	public void Close() throws IOException {
+		_stream.close();
+	}
+
+	protected Exception RowError(String inMessage, int inLineStart) {
+		return new Exception(inMessage + " on line " + _line + " of " + _file
+				+ ": \""
+				+ new String(_bytes, inLineStart, _lineEnd - inLineStart,
+						LATIN1) + "\"");
+	}
+
+	/**
+	 * Finds the next line in the buffer, reading more of the file if needed.
+	 *
+	 * @return The index of the line's first byte in _bytes, with _lineEnd set
+	 *         to the index after its last byte, or -1 at the end of the file.
+	 */
+
+	protected int NextLine() throws IOException {
+		int scan = _position;
+
+		while (true) {
+			while (scan < _limit && _bytes[scan] != '\n')
+				scan++;
+
+			if (scan < _limit || (_endOfFile && _position < _limit))
+				break;
+
+			if (_endOfFile)
+				return -1;
+
+			// Move the partial line to the start of the buffer, growing the
+			// buffer if the line fills it, and read more of the file.
+
+			int length = _limit - _position;
+
+			if (length == _bytes.length) {
+				byte bytes[] = new byte[_bytes.length * 2];
+				System.arraycopy(_bytes, _position, bytes, 0, length);
+				_bytes = bytes;
+			} else {
+				System.arraycopy(_bytes, _position, _bytes, 0, length);
+			}
+
+			scan -= _position;
+			_position = 0;
+			_limit = length;
+
+			int read = _channel.read(ByteBuffer.wrap(_bytes, _limit,
+					_bytes.length - _limit));
+
+			if (read < 0)
+				_endOfFile = true;
+			else
+				_limit += read;
+		}
+
+		int start = _position;
+
+		_lineEnd = scan;
+		_position = scan < _limit ? scan + 1 : _limit;
+		_line++;
+
+		if (_lineEnd > start && _bytes[_lineEnd - 1] == '\r')
+			_lineEnd--;
+
+		return start;
+	}
+
+	protected boolean IsBlank(int inStart, int inEnd) {
+		for (int n = inStart; n < inEnd; n++) {
+			if (_bytes[n] != ' ' && _bytes[n] != '\t')
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses the value of column inColumn from _bytes[inStart] to
+	 * _bytes[inEnd - 1], ignoring surrounding spaces and quotes.
+	 */
+
+	protected void ParseField(int inColumn, int inStart, int inEnd) {
+		while (inStart < inEnd
+				&& (_bytes[inStart] == ' ' || _bytes[inStart] == '\t'))
+			inStart++;
+		while (inEnd > inStart
+				&& (_bytes[inEnd - 1] == ' ' || _bytes[inEnd - 1] == '\t'))
+			inEnd--;
+
+		if (inEnd - inStart >= 2 && _bytes[inStart] == '"'
+				&& _bytes[inEnd - 1] == '"') {
+			inStart++;
+			inEnd--;
+		}
+
+		switch (_types[inColumn]) {
+		case TestCaseStore.INT_COLUMN:
+			_ints[inColumn] = ParseInt(inStart, inEnd);
+			break;
+		case TestCaseStore.BOOLEAN_COLUMN:
+			_booleans[inColumn] = ParseBoolean(inStart, inEnd);
+			break;
+		default:
+			_floats[inColumn] = ParseFloat(inStart, inEnd);
+			break;
+		}
+	}
+
+	protected int ParseInt(int inStart, int inEnd) {
+		int n = inStart;
+		boolean negative = false;
+
+		if (n < inEnd && (_bytes[n] == '-' || _bytes[n] == '+'))
+			negative = _bytes[n++] == '-';
+
+		if (n == inEnd)
+			throw new NumberFormatException();
+
+		long value = 0;
+
+		for (; n < inEnd; n++) {
+			int digit = _bytes[n] - '0';
+
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException();
+
+			value = value * 10 + digit;
+
+			if (value > Integer.MAX_VALUE + 1L)
+				throw new NumberFormatException();
+		}
+
+		if (negative)
+			value = -value;
+
+		if (value > Integer.MAX_VALUE)
+			throw new NumberFormatException();
+
+		return (int) value;
+	}
+
+	protected boolean ParseBoolean(int inStart, int inEnd) {
+		String value = new String(_bytes, inStart, inEnd - inStart, LATIN1);
+
+		if (value.equalsIgnoreCase("true") || value.equals("1"))
+			return true;
+		if (value.equalsIgnoreCase("false") || value.equals("0"))
+			return false;
+
+		throw new NumberFormatException();
+	}
+
+	/**
+	 * Parses a float. Plain decimal numbers with up to 24 bits of digits and
+	 * up to 10 digits after the point are computed directly, and anything
+	 * else is left to Float.parseFloat.
+	 */
+
+	protected float ParseFloat(int inStart, int inEnd) {
+		int n = inStart;
+		boolean negative = false;
+
+		if (n < inEnd && (_bytes[n] == '-' || _bytes[n] == '+'))
+			negative = _bytes[n++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+
+		for (; n < inEnd; n++) {
+			int digit = _bytes[n] - '0';
+
+			if (digit >= 0 && digit <= 9) {
+				mantissa = mantissa * 10 + digit;
+				digits++;
+
+				if (scale >= 0)
+					scale++;
+				if (mantissa > (1 << 24))
+					break;
+			} else if (_bytes[n] == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				break;
+			}
+		}
+
+		if (n < inEnd || digits == 0 || scale >= FLOAT_POWERS.length)
+			return Float.parseFloat(new String(_bytes, inStart, inEnd
+					- inStart, LATIN1));
+
+		float value = mantissa;
+
+		if (scale > 0)
+			value /= FLOAT_POWERS[scale];
+
+		return negative ? -value : value;
+	}
+}
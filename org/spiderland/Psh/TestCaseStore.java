@@ -0,0 +1,367 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only, memory-mapped store of test cases, for data sets too large to
+ * hold as GATestCase objects.
+ *
+ * A store file holds a number of rows in columns of 32-bit ints, floats or
+ * booleans (stored as the ints 0 and 1): one column for each input, followed
+ * by the output column. Each column is stored contiguously and mapped into
+ * memory separately, so the test cases are paged in by the operating system
+ * as they are read and don't use any heap. A column may hold up to 2GB, so a
+ * store may have up to 536870911 rows.
+ *
+ * The file starts with a header of big-endian ints: MAGIC, VERSION, the number
+ * of rows, the number of columns, then the type and name of each column, a
+ * name being its length in bytes followed by its UTF-8 bytes. The columns
+ * start at the next multiple of 8 bytes.
+ *
+ * Store files are created from CSV files with ConvertCSV, or from the command
+ * line:
+ *
+ * <pre>
+ * java org.spiderland.Psh.TestCaseStore cases.csv cases.tcs
+ * </pre>
+ */
+
+public class TestCaseStore {
+	static final int MAGIC = 0x50736854; // "PshT"
+	static final int VERSION = 1;
+
+	public static final int INT_COLUMN = 0;
+	public static final int FLOAT_COLUMN = 1;
+	public static final int BOOLEAN_COLUMN = 2;
+
+	protected File _file;
+	protected int _rows;
+	protected int _types[];
+	protected String _names[];
+
+	// The mapped columns. A column is read through _ints or _floats according
+	// to its type; the other entry is null.
+	protected IntBuffer _ints[];
+	protected FloatBuffer _floats[];
+
+	protected TestCaseStore() {
+	}
+
+	/**
+	 * Opens a store file and maps its columns into memory.
+	 */
+
+	public static TestCaseStore Open(File inFile) throws IOException {
+		TestCaseStore store = new TestCaseStore();
+		RandomAccessFile file = new RandomAccessFile(inFile, "r");
+
+		try {
+			if (file.length() < 16 || file.readInt() != MAGIC)
+				throw new IOException(inFile + " is not a test case store");
+
+			int version = file.readInt();
+
+			if (version != VERSION)
+				throw new IOException("Unsupported test case store version "
+						+ version + " in " + inFile);
+
+			int rows = file.readInt();
+			int columns = file.readInt();
+
+			if (rows < 0 || columns < 1)
+				throw new IOException("Malformed test case store " + inFile);
+
+			store._file = inFile;
+			store._rows = rows;
+			store._types = new int[columns];
+			store._names = new String[columns];
+			store._ints = new IntBuffer[columns];
+			store._floats = new FloatBuffer[columns];
+
+			for (int c = 0; c < columns; c++) {
+				store._types[c] = file.readInt();
+
+				byte name[] = new byte[file.readInt()];
+				file.readFully(name);
+				store._names[c] = new String(name, "UTF-8");
+			}
+
+			long offset = DataOffset(file.getFilePointer());
+			long columnBytes = 4L * rows;
+
+			if (file.length() < offset + columns * columnBytes)
+				throw new IOException("Truncated test case store " + inFile);
+
+			FileChannel channel = file.getChannel();
+
+			for (int c = 0; c < columns; c++) {
+				ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+						offset + c * columnBytes, columnBytes);
+
+				if (store._types[c] == INT_COLUMN
+						|| store._types[c] == BOOLEAN_COLUMN)
+					store._ints[c] = data.asIntBuffer();
+				else if (store._types[c] == FLOAT_COLUMN)
+					store._floats[c] = data.asFloatBuffer();
+				else
+					throw new IOException("Unknown column type "
+							+ store._types[c] + " in " + inFile);
+			}
+		} finally {
+			// The mapped columns stay valid after the file is closed.
+			file.close();
+		}
+
+		return store;
+	}
+
+	protected static long DataOffset(long inHeaderSize) {
+		return (inHeaderSize + 7) & ~7L;
+	}
+
+	public File GetFile() {
+		return _file;
+	}
+
+	public int GetRowCount() {
+		return _rows;
+	}
+
+	/**
+	 * Returns the number of input columns, which are columns 0 to
+	 * GetInputCount() - 1.
+	 */
+
+	public int GetInputCount() {
+		return _types.length - 1;
+	}
+
+	/**
+	 * Returns the index of the output column, which is the last column.
+	 */
+
+	public int GetOutputColumn() {
+		return _types.length - 1;
+	}
+
+	/**
+	 * Returns the type of a column, INT_COLUMN, FLOAT_COLUMN or BOOLEAN_COLUMN.
+	 */
+
+	public int GetColumnType(int inColumn) {
+		return _types[inColumn];
+	}
+
+	public String GetColumnName(int inColumn) {
+		return _names[inColumn];
+	}
+
+	public int GetInt(int inColumn, int inRow) {
+		if (_ints[inColumn] != null)
+			return _ints[inColumn].get(inRow);
+
+		return (int) _floats[inColumn].get(inRow);
+	}
+
+	public float GetFloat(int inColumn, int inRow) {
+		if (_floats[inColumn] != null)
+			return _floats[inColumn].get(inRow);
+
+		return _ints[inColumn].get(inRow);
+	}
+
+	/**
+	 * Copies the values of a range of rows of a column into an array,
+	 * converting them to ints if necessary. The store may be read by several
+	 * threads at once.
+	 */
+
+	public void ReadInts(int inColumn, int inFirstRow, int outValues[],
+			int inCount) {
+		IntBuffer ints = _ints[inColumn];
+
+		if (ints != null) {
+			for (int n = 0; n < inCount; n++)
+				outValues[n] = ints.get(inFirstRow + n);
+		} else {
+			FloatBuffer floats = _floats[inColumn];
+
+			for (int n = 0; n < inCount; n++)
+				outValues[n] = (int) floats.get(inFirstRow + n);
+		}
+	}
+
+	/**
+	 * Copies the values of a range of rows of a column into an array,
+	 * converting them to floats if necessary. The store may be read by
+	 * several threads at once.
+	 */
+
+	public void ReadFloats(int inColumn, int inFirstRow, float outValues[],
+			int inCount) {
+		FloatBuffer floats = _floats[inColumn];
+
+		if (floats != null) {
+			for (int n = 0; n < inCount; n++)
+				outValues[n] = floats.get(inFirstRow + n);
+		} else {
+			IntBuffer ints = _ints[inColumn];
+
+			for (int n = 0; n < inCount; n++)
+				outValues[n] = ints.get(inFirstRow + n);
+		}
+	}
+
+	/**
+	 * Returns a value as an Integer, Float or Boolean, according to its
+	 * column's type.
+	 */
+
+	public Object GetValue(int inColumn, int inRow) {
+		if (_types[inColumn] == BOOLEAN_COLUMN)
+			return _ints[inColumn].get(inRow) != 0;
+
+		if (_ints[inColumn] != null)
+			return _ints[inColumn].get(inRow);
+
+		return _floats[inColumn].get(inRow);
+	}
+
+	/**
+	 * Returns the input of a row in the form used by GATestCase: the value of
+	 * the input column if there is one, or an array of the input values if
+	 * there are several.
+	 */
+
+	public Object GetInput(int inRow) {
+		int inputs = GetInputCount();
+
+		if (inputs == 1)
+			return GetValue(0, inRow);
+
+		Object values[] = new Object[inputs];
+
+		for (int c = 0; c < inputs; c++)
+			values[c] = GetValue(c, inRow);
+
+		return values;
+	}
+
+	public Object GetOutput(int inRow) {
+		return GetValue(GetOutputColumn(), inRow);
+	}
+
+	/**
+	 * Converts a CSV file into a store file. The CSV file is read with
+	 * TestCaseCSVReader, so its header gives the column types in the same way.
+	 * It is read twice, once to count the rows and once to fill in the
+	 * columns, so that the rows are never all held in memory.
+	 */
+
+	public static void ConvertCSV(File inCSV, File inStore) throws Exception {
+		TestCaseCSVReader reader = new TestCaseCSVReader(inCSV);
+		int columns = reader.GetColumnCount();
+		int rows = 0;
+
+		try {
+			while (reader.Next())
+				rows++;
+		} finally {
+			reader.Close();
+		}
+
+		if (4L * rows > Integer.MAX_VALUE)
+			throw new Exception(inCSV + " has too many rows (" + rows + ")");
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(headerBytes);
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(rows);
+		out.writeInt(columns);
+
+		for (int c = 0; c < columns; c++) {
+			byte name[] = reader.GetColumnName(c).getBytes("UTF-8");
+
+			out.writeInt(reader.GetColumnType(c));
+			out.writeInt(name.length);
+			out.write(name);
+		}
+
+		out.flush();
+
+		long offset = DataOffset(headerBytes.size());
+		long columnBytes = 4L * rows;
+
+		RandomAccessFile file = new RandomAccessFile(inStore, "rw");
+		reader = new TestCaseCSVReader(inCSV);
+
+		try {
+			file.setLength(0);
+			file.write(headerBytes.toByteArray());
+			file.setLength(offset + columns * columnBytes);
+
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer data[] = new MappedByteBuffer[columns];
+
+			for (int c = 0; c < columns; c++)
+				data[c] = channel.map(FileChannel.MapMode.READ_WRITE, offset
+						+ c * columnBytes, columnBytes);
+
+			for (int row = 0; row < rows && reader.Next(); row++) {
+				for (int c = 0; c < columns; c++) {
+					switch (reader.GetColumnType(c)) {
+					case INT_COLUMN:
+						data[c].putInt(row * 4, reader.GetInt(c));
+						break;
+					case BOOLEAN_COLUMN:
+						data[c].putInt(row * 4, reader.GetBoolean(c) ? 1 : 0);
+						break;
+					default:
+						data[c].putFloat(row * 4, reader.GetFloat(c));
+						break;
+					}
+				}
+			}
+
+			for (int c = 0; c < columns; c++)
+				data[c].force();
+		} finally {
+			reader.Close();
+			file.close();
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: TestCaseStore input.csv output.tcs");
+			System.exit(0);
+		}
+
+		ConvertCSV(new File(args[0]), new File(args[1]));
+
+		TestCaseStore store = Open(new File(args[1]));
+
+		System.out.println("Wrote " + store.GetRowCount() + " test cases with "
+				+ store.GetInputCount() + " inputs to " + args[1]);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.test;
+
+import java.io.*;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import org.spiderland.Psh.*;
+
+public class BinaryCheckpointTest extends TestCase
+{
+    // Gives the tests a checkpoint stream of their own to write and read
+
+    static class Stream extends BinaryCheckpoint
+    {
+        Stream(OutputStream inOut)
+        {
+            super(inOut);
+        }
+
+        Stream(InputStream inIn)
+        {
+            super(inIn);
+        }
+
+        void Flush() throws IOException
+        {
+            _out.flush();
+        }
+    }
+
+    protected ByteArrayOutputStream bytes = null;
+    protected Stream out = null;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        bytes = new ByteArrayOutputStream();
+        out = new Stream(bytes);
+    }
+
+    protected Stream In() throws Exception
+    {
+        out.Flush();
+        return new Stream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    public void testInts() throws Exception
+    {
+        int values[] = { 0, 1, -1, 63, -64, 64, -65, 127, 128, -129, 1 << 20,
+                Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+        for (int value : values)
+            out.WriteInt(value);
+
+        Stream in = In();
+
+        for (int value : values)
+            assertEquals(value, in.ReadInt());
+
+        // Small values of either sign take one byte
+
+        setUp();
+        out.WriteInt(0);
+        out.WriteInt(-1);
+        out.WriteInt(63);
+        out.WriteInt(-64);
+        In();
+        assertEquals(4, bytes.size());
+    }
+
+    public void testPrograms() throws Exception
+    {
+        Interpreter interpreter = new Interpreter();
+        Program p = new Program(interpreter,
+                "( 1 2.5 integer.+ ( x integer.+ ( ) ) -300 x )");
+
+        // Enough distinct names that the later ones are written with
+        // TOKEN_NAME and an id, rather than in a single byte
+
+        StringBuilder source = new StringBuilder("(");
+        for (int n = 0; n < 600; n++)
+            source.append(" n" + (n % 300));
+        source.append(" )");
+        Program q = new Program(interpreter, source.toString());
+
+        out.WriteProgram(p);
+        out.WriteProgram(q);
+        out.WriteProgram(p);
+
+        Stream in = In();
+
+        assertEquals(p.toString(), in.ReadProgram(interpreter).toString());
+        assertEquals(q, in.ReadProgram(interpreter));
+
+        // Instructions are read as names, so that any of the GA's
+        // interpreters can run them
+
+        Program r = in.ReadProgram(interpreter);
+        assertEquals(p.toString(), r.toString());
+        assertEquals("integer.+", r.peek(2));
+    }
+
+    public void testRandom() throws Exception
+    {
+        Random random = new Random(42);
+        Random same = new Random(42);
+
+        random.nextInt();
+        same.nextInt();
+        out.WriteRandom(random);
+
+        // Writing the generator doesn't change it, and the generator read
+        // back carries on from the same state
+
+        Random read = In().ReadRandom();
+
+        for (int n = 0; n < 10; n++) {
+            long next = same.nextLong();
+            assertEquals(next, random.nextLong());
+            assertEquals(next, read.nextLong());
+        }
+    }
+
+    public void testVersion() throws Exception
+    {
+        File output = File.createTempFile("checkpointtest", ".out");
+        GA ga = GA.GAWithParameters(Params.Read(
+                "problem-class = org.spiderland.Psh.ProbClass.IntSymbolicRegression\n" +
+                "test-cases = ( ( 1 2 ) ( 2 4 ) ( 3 6 ) )\n" +
+                "instruction-set = ( integer.+ integer.* integer.dup )\n" +
+                "population-size = 10\n" +
+                "max-generations = 1\n" +
+                "execution-limit = 20\n" +
+                "max-points-in-program = 50\n" +
+                "max-random-code-size = 10\n" +
+                "tournament-size = 2\n" +
+                "mutation-percent = 20\n" +
+                "crossover-percent = 60\n" +
+                "simplification-percent = 0\n" +
+                "reproduction-simplifications = 0\n" +
+                "report-simplifications = 0\n" +
+                "final-simplifications = 0\n" +
+                "output-file = " + output.getPath() + "\n"));
+        output.delete();
+
+        BinaryCheckpoint.Write(ga, bytes);
+        byte checkpoint[] = bytes.toByteArray();
+
+        assertTrue(BinaryCheckpoint.IsBinaryCheckpoint(
+                new ByteArrayInputStream(checkpoint)));
+        assertEquals(ga.getClass(), BinaryCheckpoint.Read(
+                new ByteArrayInputStream(checkpoint)).getClass());
+
+        // The version follows the four byte magic number
+
+        checkpoint[7]++;
+
+        try {
+            BinaryCheckpoint.Read(new ByteArrayInputStream(checkpoint));
+            fail("A checkpoint of an unknown version was read");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith(
+                    "Unsupported binary checkpoint version"));
+        }
+    }
+}
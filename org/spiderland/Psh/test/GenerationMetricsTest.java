@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.test;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import org.spiderland.Psh.*;
+
+public class GenerationMetricsTest extends TestCase
+{
+    protected File output = null;
+    protected File metrics = null;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        output = File.createTempFile("metricstest", ".out");
+        metrics = File.createTempFile("metricstest", ".json");
+        metrics.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        output.delete();
+        metrics.delete();
+    }
+
+    // The CPU time used by the whole process so far, in nanoseconds
+
+    protected long ProcessCpuNanos()
+    {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory
+                .getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    // The memory allocated so far by all live threads, in bytes
+
+    protected long AllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        long total = 0;
+
+        for (long bytes : threads.getThreadAllocatedBytes(threads
+                .getAllThreadIds()))
+            total += Math.max(0, bytes);
+
+        return total;
+    }
+
+    // Returns the first value of a field in a line of JSON, which is the
+    // generation's total rather than a phase's
+
+    protected double Field(String inLine, String inName)
+    {
+        Matcher m = Pattern.compile("\"" + inName + "\": ([^,}]+)").matcher(
+                inLine);
+
+        assertTrue(inLine, m.find());
+        return Double.parseDouble(m.group(1));
+    }
+
+    public void testIslandMetrics() throws Exception
+    {
+        GA ga = GA.GAWithParameters(Params.Read(
+                "problem-class = org.spiderland.Psh.ProbClass.FloatSymbolicRegression\n" +
+                "test-case-class = org.spiderland.Psh.TestCase.FloatRegTestCases1\n" +
+                "instruction-set = ( float.+ float.- float.* float.% " +
+                        "float.dup float.swap float.erc exec.if exec.dup " +
+                        "boolean.and float.< input.makeinputs1 )\n" +
+                "population-size = 200\n" +
+                "max-generations = 4\n" +
+                "execution-limit = 100\n" +
+                "max-points-in-program = 100\n" +
+                "max-random-code-size = 40\n" +
+                "tournament-size = 5\n" +
+                "mutation-percent = 20\n" +
+                "crossover-percent = 60\n" +
+                "simplification-percent = 0\n" +
+                "reproduction-simplifications = 0\n" +
+                "report-simplifications = 0\n" +
+                "final-simplifications = 0\n" +
+                "islands = 2\n" +
+                "migration-interval = 2\n" +
+                "evaluation-threads = 2\n" +
+                "metrics-file = " + metrics.getPath() + "\n" +
+                "output-file = " + output.getPath() + "\n"));
+
+        long cpu = ProcessCpuNanos();
+        long allocated = AllocatedBytes();
+        ga.Run(-1);
+        double processMillis = (ProcessCpuNanos() - cpu) / 1e6;
+        double processBytes = AllocatedBytes() - allocated;
+
+        BufferedReader in = new BufferedReader(new FileReader(metrics));
+        double islandMillis = 0;
+        double islandBytes = 0;
+        int lines = 0;
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            assertTrue(line, Field(line, "island") >= 1);
+            islandMillis += Field(line, "cpu_ms");
+            islandBytes += Field(line, "allocated_bytes");
+            lines++;
+        }
+
+        in.close();
+
+        // Two islands of four generations. Each island counts its own
+        // thread and evaluation threads, so together they use no more than
+        // the process, which also compiles and collects garbage, but most
+        // of the CPU time is spent evaluating
+
+        assertEquals(8, lines);
+        assertTrue(islandMillis + " ms by islands, " + processMillis
+                + " ms by the process", islandMillis <= processMillis
+                && islandMillis >= processMillis / 4);
+        assertTrue(islandBytes + " bytes by islands, " + processBytes
+                + " bytes by the process", islandBytes <= processBytes
+                && islandBytes > 0);
+    }
+}
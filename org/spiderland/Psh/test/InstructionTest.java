@@ -625,4 +625,153 @@ public class InstructionTest extends TestCase
         assertEquals(fstack, interpreter.floatStack());
         assertEquals(bstack, interpreter.boolStack());
     }
+
+    public void testCompiledExecution() throws Exception
+    {
+        String programs[] = {
+                "( 1 ( 2 ( 3 integer.+ ) x ) ( ) 4.0 float.dup integer.* )",
+                "( 3 exec.y ( integer.dup 0 integer.> exec.if " +
+                        "( 1 integer.- ) exec.pop ) 7 )",
+                "( ( 1 2 ) exec.k ( 3 integer.+ ) ( 4 integer.* ) 5 )",
+                "( 1 exec.s ( 2 ) ( 3 integer.+ ) ( 4 integer.* ) 6 )",
+                "( 0 3 exec.do*range ( integer.dup ( 1 integer.+ ) ) 4.0 )",
+                "( code.quote ( 1 ( 2 ) ) code.quote 3 code.do ( 5 ) 6 )" };
+        int limits[] = { -1, 1, 2, 3, 5, 8, 13, 40 };
+
+        for (String source : programs) {
+            for (int limit : limits) {
+                Interpreter plain = new Interpreter();
+                Interpreter compiled = new Interpreter();
+                Program p = new Program(compiled, source);
+
+                int plainSteps = plain.Execute(new Program(plain, source),
+                        limit);
+                int compiledSteps = compiled.Execute(new CompiledProgram(p,
+                        compiled), limit);
+
+                // A cut-off compiled program leaves the rest of itself on
+                // the exec stack, as the plain interpreter would
+
+                String message = source + " with limit " + limit;
+                assertEquals(message, plainSteps, compiledSteps);
+                assertEquals(message, plain.toString(), compiled.toString());
+            }
+        }
+    }
+
+    public void testBatchExecution() throws Exception
+    {
+        Program p = new Program(interpreter, "( 2 integer.* integer.dup " +
+                "3 integer.> float.dup float.* float.stackdepth integer.yank )");
+        CompiledProgram cp = new CompiledProgram(p, interpreter);
+        BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+        batch.ClearStacks(3);
+        batch.PushIntegers(new int[] { 1, 2, 3 });
+        batch.PushFloats(new float[] { 0.5f, 1.5f, 2.5f });
+        assertEquals(30, batch.Execute(cp, -1));
+
+        assertEquals(1, batch.IntStackSize(0));
+        assertEquals(2, batch.IntStackTop(0));
+        assertEquals(4, batch.IntStackTop(1));
+        assertEquals(6, batch.IntStackTop(2));
+        assertEquals(1, batch.FloatStackSize(2));
+        assertEquals(6.25f, batch.FloatStackTop(2), Float.MIN_VALUE);
+        assertEquals(false, batch.BoolStackTop(0));
+        assertEquals(true, batch.BoolStackTop(2));
+    }
+
+    public void testBatchExecutionDiverging() throws Exception
+    {
+        Program p = new Program(interpreter, "( integer.dup 2 integer.> " +
+                "exec.if ( 10 integer.* ) ( 1 integer.- ) )");
+        CompiledProgram cp = new CompiledProgram(p, interpreter);
+        BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+        batch.ClearStacks(4);
+        batch.PushIntegers(new int[] { 1, 2, 3, 4 });
+        batch.Execute(cp, -1);
+
+        assertEquals(0, batch.IntStackTop(0));
+        assertEquals(1, batch.IntStackTop(1));
+        assertEquals(30, batch.IntStackTop(2));
+        assertEquals(40, batch.IntStackTop(3));
+        assertEquals(1, batch.IntStackSize(3));
+        assertEquals(0, batch.BoolStackSize(3));
+    }
+
+    public void testBatchPrimitiveInputs() throws Exception
+    {
+        Program p = new Program(interpreter, "( input.inall integer.+ " +
+                "1 input.index float.* exec.dup ( integer.dup integer.* ) " +
+                "0 input.index integer.+ input.stackdepth boolean.not )");
+        CompiledProgram cp = new CompiledProgram(p, interpreter);
+        BatchInterpreter batch = interpreter.GetBatchInterpreter();
+
+        int ints[] = { 1, 2, 3 };
+        float floats[] = { 0.5f, 1.5f, 2.5f };
+        boolean bools[] = { true, false, true };
+
+        batch.ClearStacks(3);
+        batch.PushInputs(new Integer[] { 1, 2, 3 });
+        batch.PushInputs(new Float[] { 0.5f, 1.5f, 2.5f });
+        batch.PushInputs(new Boolean[] { true, false, true });
+        int boxedSteps = batch.Execute(cp, -1);
+
+        int intTops[] = new int[3];
+        float floatTops[] = new float[3];
+        boolean boolTops[] = new boolean[3];
+
+        for (int n = 0; n < 3; n++) {
+            intTops[n] = batch.IntStackTop(n);
+            floatTops[n] = batch.FloatStackTop(n);
+            boolTops[n] = batch.BoolStackTop(n);
+        }
+
+        batch.ClearStacks(3);
+        batch.PushIntegerInputs(ints, 0);
+        batch.PushFloatInputs(floats, 0);
+        batch.PushBooleanInputs(bools, 0);
+        assertEquals(boxedSteps, batch.Execute(cp, -1));
+
+        for (int n = 0; n < 3; n++) {
+            assertEquals(intTops[n], batch.IntStackTop(n));
+            assertEquals(floatTops[n], batch.FloatStackTop(n), 0.0f);
+            assertEquals(boolTops[n], batch.BoolStackTop(n));
+        }
+
+        assertEquals(2, batch.IntStackSize(1));
+        assertEquals(1.5f * 1.5f, batch.FloatStackTop(1), 0.0f);
+    }
+
+    public void testExecCursors() throws Exception
+    {
+        String programs[] = {
+                "( 1 ( 2 ( 3 integer.+ ) ) ( ) integer.* )",
+                "( 1 2 exec.k ( 3 integer.+ ) ( 4 integer.* ) 5 )",
+                "( ( 1 2 ) exec.s ( 3 ) ( 4 integer.+ ) ( 5 integer.* ) 6 )",
+                "( 3 exec.y ( integer.dup 0 integer.> exec.if " +
+                        "( 1 integer.- ) exec.pop ) 7 )",
+                "( 1.0 ( true exec.if ( 2.0 float.+ ) ( 3.0 float.* ) ) " +
+                        "exec.stackdepth ( exec.dup ( 1 integer.+ ) ) )",
+                "( 0 3 exec.do*range ( integer.dup ( 1 integer.+ ) ) 4.0 )" };
+        int limits[] = { -1, 1, 3, 7, 20 };
+
+        for (String source : programs) {
+            for (int limit : limits) {
+                Interpreter plain = new Interpreter();
+                Interpreter cursors = new Interpreter();
+                cursors.SetUseExecCursors(true);
+
+                int plainSteps = plain.Execute(new Program(plain, source),
+                        limit);
+                int cursorSteps = cursors.Execute(new Program(cursors,
+                        source), limit);
+
+                String message = source + " with limit " + limit;
+                assertEquals(message, plainSteps, cursorSteps);
+                assertEquals(message, plain.toString(), cursors.toString());
+            }
+        }
+    }
 }
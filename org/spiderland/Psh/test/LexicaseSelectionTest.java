@@ -0,0 +1,99 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import org.spiderland.Psh.*;
+
+public class LexicaseSelectionTest extends TestCase
+{
+    // A specialist which is perfect on the first case only, a generalist, a
+    // slightly worse copy of the generalist, and a poor individual which is
+    // listed twice
+
+    protected float errors[][] = {
+            { 0.0f, 5.0f, 5.0f },
+            { 1.0f, 1.0f, -1.0f },
+            { 1.2f, 1.2f, 1.2f },
+            { 3.0f, 3.0f, 3.0f },
+            { 3.0f, 3.0f, 3.0f } };
+
+    protected GAIndividual population[] = null;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        population = new GAIndividual[errors.length];
+
+        for (int n = 0; n < errors.length; n++) {
+            population[n] = new PushGPIndividual();
+            population[n].SetErrors(errors[n], 0, errors[n].length);
+        }
+    }
+
+    // Returns how many times each individual is chosen in a fixed number of
+    // selections with a fixed seed
+
+    protected int[] Selections(LexicaseSelection inSelection)
+    {
+        Random rng = new Random(1);
+        int counts[] = new int[population.length];
+
+        assertTrue(inSelection.Prepare(population));
+        assertTrue(inSelection.IsPrepared());
+
+        for (int n = 0; n < 300; n++)
+            counts[inSelection.Select(rng)]++;
+
+        return counts;
+    }
+
+    public void testLexicase() throws Exception
+    {
+        int counts[] = Selections(new LexicaseSelection(false));
+
+        // The specialist wins whenever the first case comes first, and the
+        // generalist (whose negative error counts as 1) otherwise
+
+        assertTrue(counts[0] > 50);
+        assertTrue(counts[1] > 150);
+        assertEquals(300, counts[0] + counts[1]);
+        assertEquals(0, counts[2]);
+    }
+
+    public void testEpsilonLexicase() throws Exception
+    {
+        int counts[] = Selections(new LexicaseSelection(true));
+
+        // Each case's epsilon is larger than the gap between the generalist
+        // and its copy, so both survive every case and share the ties
+
+        assertTrue(counts[1] > 0);
+        assertTrue(counts[2] > 0);
+        assertEquals(0, counts[3] + counts[4]);
+    }
+
+    public void testUnprepared() throws Exception
+    {
+        population[2] = new PushGPIndividual();
+
+        assertFalse(new LexicaseSelection(false).Prepare(population));
+        assertFalse(new LexicaseSelection(false).Prepare(new GAIndividual[0]));
+    }
+}
@@ -34,6 +34,21 @@ public class ProgramTest extends TestCase {
 		assertTrue( p.equals( q ) );
 	}
 
+	@SuppressWarnings("deprecation")
+	public void testHashCode() throws Exception {
+		// Equal programs must have equal hash codes
+
+		Program p = new Program(), q = new Program(), r = new Program();
+
+		p.Parse( "( 1.0 ( TEST 2 ( 3 ) ) )" );
+		q.Parse( "( 1.0 ( TEST 2 ( 3 ) ) )" );
+		r.Parse( "( 1.0 ( TEST 2 ( 4 ) ) )" );
+
+		assertEquals( p.hashCode(), q.hashCode() );
+		assertEquals( p.hashCode(), new Program( p ).hashCode() );
+		assertFalse( p.hashCode() == r.hashCode() );
+	}
+
 	@SuppressWarnings("deprecation")
 	public void testParse() throws Exception {
 		// Parse a program, and then re-parse its string representation.
@@ -74,4 +89,52 @@ public class ProgramTest extends TestCase {
 		assertTrue( q.equals( p ) );
 	}
 
+	@SuppressWarnings("deprecation")
+	public void testSubtreeIndexing() throws Exception {
+		// Points are numbered with the top level elements first, followed by
+		// the points inside of each subprogram in order.
+
+		Program p = new Program();
+		p.Parse( "( 1 ( 2 ( 3 4 ) ) 5 ( 6 ) )" );
+
+		assertEquals( 9, p.programsize() );
+		assertEquals( 5, p.Subtree( 2 ) );
+		assertEquals( 2, p.Subtree( 4 ) );
+		assertEquals( 3, p.Subtree( 6 ) );
+		assertEquals( 4, p.Subtree( 7 ) );
+		assertEquals( 6, p.Subtree( 8 ) );
+		assertNull( p.Subtree( 9 ) );
+
+		// Replacing a point changes the size of this copy only
+
+		Program q = new Program( p );
+		q.ReplaceSubtree( 7, new Program( "( 7 8 )" ) );
+
+		assertEquals( 11, q.programsize() );
+		assertEquals( 8, q.Subtree( 9 ) );
+		assertEquals( 6, q.Subtree( 10 ) );
+		assertEquals( 9, p.programsize() );
+		assertEquals( "(1 (2 (3 4)) 5 (6))", p.toString() );
+	}
+
+	public void testParseInterned() throws Exception {
+		// Instruction names parse to the interpreter's Instruction objects,
+		// unknown names remain strings, and the program prints as it was
+		// written.
+
+		Interpreter interpreter = new Interpreter();
+		String program = "(integer.+ TEST (float.dup 2))";
+		Program p = new Program( interpreter, program );
+
+		assertSame( interpreter.GetInstruction( "integer.+" ), p.peek( 0 ) );
+		assertEquals( "TEST", p.peek( 1 ) );
+		assertEquals( program, p.toString() );
+
+		interpreter.SetInternInstructions( false );
+		Program q = new Program( interpreter, program );
+
+		assertEquals( "integer.+", q.peek( 0 ) );
+		assertEquals( program, q.toString() );
+	}
+
 }
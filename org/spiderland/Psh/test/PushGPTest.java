@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import org.spiderland.Psh.*;
+
+public class PushGPTest extends TestCase
+{
+    // Lets the tests give two runs the same population, and read the
+    // statistics which an evaluation gathers
+
+    public static class Regression extends
+            org.spiderland.Psh.ProbClass.FloatSymbolicRegression
+    {
+        private static final long serialVersionUID = 1L;
+
+        void CopyPopulation(Regression inOther)
+        {
+            GAIndividual from[] = inOther._populations[inOther._currentPopulation];
+
+            for (int n = 0; n < from.length; n++)
+                _populations[_currentPopulation][n] = from[n].clone();
+        }
+
+        void EvaluateGeneration() throws Exception
+        {
+            BeginGeneration();
+            Evaluate();
+            EndGeneration();
+        }
+
+        int BestIndex()
+        {
+            return _bestIndividual;
+        }
+
+        float AverageSize()
+        {
+            return _averageSize;
+        }
+
+        double MeanFitness()
+        {
+            return _populationMeanFitness;
+        }
+    }
+
+    protected File output = null;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        output = File.createTempFile("pushgptest", ".out");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        output.delete();
+    }
+
+    // A small float regression run, whose reports go to a scratch file
+
+    protected HashMap<String, String> Parameters(int inThreads,
+            int inGenerations) throws Exception
+    {
+        return Params.Read(
+                "problem-class = " + Regression.class.getName() + "\n" +
+                "test-case-class = org.spiderland.Psh.TestCase.FloatRegTestCases1\n" +
+                "instruction-set = ( float.+ float.- float.* float.% " +
+                        "float.dup float.swap float.erc exec.if exec.dup " +
+                        "boolean.and float.< input.makeinputs1 )\n" +
+                "population-size = 60\n" +
+                "max-generations = " + inGenerations + "\n" +
+                "execution-limit = 60\n" +
+                "max-points-in-program = 100\n" +
+                "max-random-code-size = 40\n" +
+                "tournament-size = 5\n" +
+                "mutation-percent = 20\n" +
+                "crossover-percent = 60\n" +
+                "simplification-percent = 0\n" +
+                "reproduction-simplifications = 0\n" +
+                "report-simplifications = 0\n" +
+                "final-simplifications = 0\n" +
+                "evaluation-threads = " + inThreads + "\n" +
+                "output-file = " + output.getPath() + "\n");
+    }
+
+    // Checks that each individual of the current population has the fitness
+    // it gets when it is evaluated again, serially, on the calling thread
+
+    protected void assertSerialFitnesses(PushGP inGA)
+    {
+        assertTrue(inGA.GetPopulationSize() > 0);
+
+        for (int n = 0; n < inGA.GetPopulationSize(); n++) {
+            GAIndividual i = inGA.GetIndividualFromPopulation(n);
+            GAIndividual copy = i.clone();
+
+            assertTrue(i.FitnessIsSet());
+            inGA.EvaluateIndividual(copy);
+            assertEquals("individual " + n, copy.GetFitness(),
+                    i.GetFitness(), 0.0f);
+        }
+    }
+
+    public void testParallelEvaluation() throws Exception
+    {
+        PushGP ga = (PushGP) GA.GAWithParameters(Parameters(4, 1));
+        ga.Run(1);
+
+        assertSerialFitnesses(ga);
+
+        // The same population evaluated on one thread and on four gives the
+        // same statistics, which are gathered in population order
+
+        Regression serial = (Regression) GA.GAWithParameters(Parameters(1, 1));
+        Regression parallel = (Regression) GA.GAWithParameters(Parameters(4, 1));
+
+        parallel.CopyPopulation(serial);
+        serial.EvaluateGeneration();
+        parallel.EvaluateGeneration();
+
+        assertEquals(serial.BestIndex(), parallel.BestIndex());
+        assertEquals(serial.AverageSize(), parallel.AverageSize(), 0.0f);
+        assertEquals(serial.MeanFitness(), parallel.MeanFitness(), 0.0);
+
+        for (int n = 0; n < serial.GetPopulationSize(); n++)
+            assertEquals("individual " + n,
+                    serial.GetIndividualFromPopulation(n).GetFitness(),
+                    parallel.GetIndividualFromPopulation(n).GetFitness(), 0.0f);
+    }
+
+    public void testRestoredParallelEvaluation() throws Exception
+    {
+        GA ga = GA.GAWithParameters(Parameters(4, 2));
+        ga.Run(1);
+
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        BinaryCheckpoint.Write(ga, checkpoint);
+
+        PushGP restored = (PushGP) BinaryCheckpoint.Read(
+                new ByteArrayInputStream(checkpoint.toByteArray()));
+        restored.Run(1);
+
+        assertSerialFitnesses(restored);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2009-2010 Jon Klein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.spiderland.Psh.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import org.spiderland.Psh.*;
+
+public class TestCaseCSVReaderTest extends TestCase
+{
+    protected File file = null;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("testcases", ".csv");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    protected TestCaseCSVReader Reader(String inContents) throws Exception
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(inContents.getBytes("UTF-8"));
+        out.close();
+
+        return new TestCaseCSVReader(file);
+    }
+
+    public void testColumnTypes() throws Exception
+    {
+        TestCaseCSVReader reader = Reader(
+                "count:int,flag:bool,x:float,y\n1,true,0.5,2\n");
+
+        assertEquals(4, reader.GetColumnCount());
+        assertEquals(TestCaseStore.INT_COLUMN, reader.GetColumnType(0));
+        assertEquals(TestCaseStore.BOOLEAN_COLUMN, reader.GetColumnType(1));
+        assertEquals(TestCaseStore.FLOAT_COLUMN, reader.GetColumnType(2));
+        assertEquals(TestCaseStore.FLOAT_COLUMN, reader.GetColumnType(3));
+        assertEquals("count", reader.GetColumnName(0));
+        assertEquals("flag", reader.GetColumnName(1));
+        assertEquals("x", reader.GetColumnName(2));
+        assertEquals("y", reader.GetColumnName(3));
+
+        assertTrue(reader.Next());
+        assertEquals(1, reader.GetValue(0));
+        assertEquals(true, reader.GetValue(1));
+        assertEquals(0.5f, reader.GetValue(2));
+        assertEquals(2.0f, reader.GetValue(3));
+        assertFalse(reader.Next());
+        reader.Close();
+    }
+
+    public void testValues() throws Exception
+    {
+        TestCaseCSVReader reader = Reader(
+                "\"a:int\",b:bool,c\r\n" +
+                "-7, 0 ,1.25\r\n" +
+                "\r\n" +
+                "\"+12\",\"false\", \"-3e2\"\r\n" +
+                "2147483647,1,0.1");
+
+        assertEquals("a", reader.GetColumnName(0));
+
+        assertTrue(reader.Next());
+        assertEquals(-7, reader.GetInt(0));
+        assertEquals(false, reader.GetBoolean(1));
+        assertEquals(1.25f, reader.GetFloat(2), 0.0f);
+
+        // Quoted fields, after a blank line
+
+        assertTrue(reader.Next());
+        assertEquals(4, reader.GetLine());
+        assertEquals(12, reader.GetInt(0));
+        assertEquals(false, reader.GetBoolean(1));
+        assertEquals(-300.0f, reader.GetFloat(2), 0.0f);
+
+        // The last line has no line break
+
+        assertTrue(reader.Next());
+        assertEquals(Integer.MAX_VALUE, reader.GetInt(0));
+        assertEquals(true, reader.GetBoolean(1));
+        assertEquals(Float.parseFloat("0.1"), reader.GetFloat(2), 0.0f);
+        assertFalse(reader.Next());
+        reader.Close();
+    }
+
+    public void testReadTestCases() throws Exception
+    {
+        Reader("x,y:int\n1.5,3\n2.5,5\n").Close();
+        ArrayList<GATestCase> cases = TestCaseCSVReader.ReadTestCases(file);
+
+        assertEquals(2, cases.size());
+        assertEquals(2.5f, cases.get(1)._input);
+        assertEquals(5, cases.get(1)._output);
+
+        Reader("x,y,z\n1,2,3\n").Close();
+        cases = TestCaseCSVReader.ReadTestCases(file);
+
+        Object inputs[] = (Object[]) cases.get(0)._input;
+        assertEquals(2, inputs.length);
+        assertEquals(2.0f, inputs[1]);
+        assertEquals(3.0f, cases.get(0)._output);
+    }
+
+    public void testRowErrors() throws Exception
+    {
+        String rows[] = { "1,2\n3\n", "1,2\n3,4,5\n", "1,2\nx,4\n" };
+        String errors[] = { "Too few values on line 3",
+                "Too many values on line 3", "Can't read \"x\" in column a" };
+
+        for (int n = 0; n < rows.length; n++) {
+            TestCaseCSVReader reader = Reader("a,b\n" + rows[n]);
+
+            assertTrue(reader.Next());
+
+            try {
+                reader.Next();
+                fail("Read the bad row " + rows[n]);
+            } catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(errors[n]));
+            } finally {
+                reader.Close();
+            }
+        }
+    }
+
+    public void testMissingOutputColumn() throws Exception
+    {
+        try {
+            Reader("x\n1\n");
+            fail("Read a file without an output column");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().endsWith(
+                    "must have at least one input and an output column"));
+        }
+    }
+}